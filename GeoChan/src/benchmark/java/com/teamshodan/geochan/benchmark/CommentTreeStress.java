@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.CommentList;
+import com.teamshodan.geochan.runnables.UpdateRunnable;
+
+/**
+ * Stress test for the comment tree walks on a tree that is both very deep
+ * and very wide: a chain of 10,000 nested replies plus 100,000 direct
+ * replies to the top Comment, 110,001 Comments in all. Each walk runs on a
+ * thread with a 256 KB stack, as small as a pool thread's, so a walk that
+ * recursed once per level would overflow it. The walks timed are the ones
+ * UpdateRunnable and CommentList use to post and rebuild a thread:
+ * <ul>
+ * <li>UpdateRunnable.makeCommentList</li>
+ * <li>CommentList.getIdsFromList</li>
+ * <li>CommentList.findCommentListById from the root, which builds the id
+ * index</li>
+ * <li>CommentList.findCommentListById from a reply, by walking</li>
+ * <li>CommentList.reconsructFromCommentList</li>
+ * </ul>
+ *
+ * This is a plain JVM program and is not part of the app. It is compiled and
+ * run like ThreadSortBenchmark:
+ *
+ * <pre>
+ * javac -cp APP_CLASSES:android.jar -d OUT CommentTreeStress.java
+ * java -cp OUT:APP_CLASSES:android.jar \
+ *     com.teamshodan.geochan.benchmark.CommentTreeStress [depth] [width]
+ * </pre>
+ */
+public class CommentTreeStress {
+
+    private static final int DEFAULT_DEPTH = 10000;
+    private static final int DEFAULT_WIDTH = 100000;
+    private static final long STACK_SIZE = 256 * 1024;
+    private static final int RUNS = 5;
+
+    private static final String[] NAMES = { "makeCommentList",
+            "getIdsFromList", "find from root", "find from reply",
+            "reconstruct" };
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args
+     *            Optionally, the depth of the reply chain and the number of
+     *            direct replies.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int depth = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_DEPTH;
+        final int width = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_WIDTH;
+        final Throwable[] failure = new Throwable[1];
+        Thread worker = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stress(depth, width);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, "CommentTreeStress", STACK_SIZE);
+        worker.start();
+        worker.join();
+        if (failure[0] != null) {
+            failure[0].printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Builds the tree and times every walk over it, printing the median of
+     * the runs.
+     */
+    private static void stress(int depth, int width) {
+        Comment top = makeComment(0);
+        long nextId = 1;
+        Comment deepest = top;
+        for (int i = 0; i < depth; ++i) {
+            Comment reply = makeComment(nextId++);
+            deepest.addChild(reply);
+            deepest = reply;
+        }
+        for (int i = 0; i < width; ++i) {
+            top.addChild(makeComment(nextId++));
+        }
+        int size = depth + width + 1;
+        String deepestId = deepest.getId();
+
+        double[][] times = new double[NAMES.length][RUNS];
+        for (int run = 0; run < RUNS; ++run) {
+            long start = System.nanoTime();
+            CommentList list = new UpdateRunnable(null)
+                    .makeCommentList(new CommentList(top));
+            times[0][run] = elapsed(start);
+
+            start = System.nanoTime();
+            ArrayList<String> ids = new ArrayList<String>(size);
+            list.getIdsFromList(list, ids);
+            times[1][run] = elapsed(start);
+            check(ids.size() == size, "getIdsFromList found " + ids.size()
+                    + " of " + size + " ids");
+
+            start = System.nanoTime();
+            CommentList found = list.findCommentListById(list, deepestId);
+            times[2][run] = elapsed(start);
+            check(found != null && found.getComment() == deepest,
+                    "find from root missed the deepest reply");
+
+            CommentList firstReply = list.getChildren().get(0);
+            start = System.nanoTime();
+            found = list.findCommentListById(firstReply, deepestId);
+            times[3][run] = elapsed(start);
+            check(found != null && found.getComment() == deepest,
+                    "find from reply missed the deepest reply");
+
+            start = System.nanoTime();
+            Comment rebuilt = list.reconsructFromCommentList(list,
+                    makeComment(0));
+            times[4][run] = elapsed(start);
+            check(rebuilt.getChildren().size() == width + Math.min(depth, 1),
+                    "reconstruct gave the top Comment "
+                            + rebuilt.getChildren().size() + " replies");
+        }
+
+        System.out.printf("%d deep, %d wide, %d Comments, median of %d runs%n",
+                depth, width, size, RUNS);
+        double total = 0;
+        for (int i = 0; i < NAMES.length; ++i) {
+            Arrays.sort(times[i]);
+            double median = times[i][RUNS / 2];
+            total += median;
+            System.out.printf("%-16s %8.2f ms%n", NAMES[i], median);
+        }
+        System.out.printf("%-16s %8.2f ms%n", "total", total);
+    }
+
+    private static Comment makeComment(long id) {
+        Comment comment = new Comment();
+        comment.setId(id);
+        return comment;
+    }
+
+    private static double elapsed(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.teamshodan.geochan.helpers.DistanceKernel;
+import com.teamshodan.geochan.helpers.HotRanking;
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.helpers.SortUtil;
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ThreadComment;
+
+/**
+ * Times SortUtil's thread sorts on a large list of threads. Each sort is run
+ * two ways: by SortUtil.sortThreads, which computes every thread's key once,
+ * and by Collections.sort with a comparator that computes both threads'
+ * keys from the models on every comparison, the way the sorts worked
+ * before. Both put the threads in the same order.
+ *
+ * This is a plain JVM program and is not part of the app. Only model and
+ * sorting code runs, so it can be compiled and run against the app's classes
+ * and the android.jar stubs:
+ *
+ * <pre>
+ * javac -cp APP_CLASSES:android.jar -d OUT ThreadSortBenchmark.java
+ * java -cp OUT:APP_CLASSES:android.jar \
+ *     com.teamshodan.geochan.benchmark.ThreadSortBenchmark [threads]
+ * </pre>
+ */
+public class ThreadSortBenchmark {
+
+    private static final int DEFAULT_THREADS = 10000;
+    private static final int WARMUP_RUNS = 10;
+    private static final int TIMED_RUNS = 41;
+    // Threads are spread around this point, and sorts measure from it
+    private static final double ORIGIN_LATITUDE = 53.5;
+    private static final double ORIGIN_LONGITUDE = -113.5;
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    private static final int[] SORTS = { SortUtil.SORT_USER_SCORE_HIGHEST,
+            SortUtil.SORT_DATE_NEWEST, SortUtil.SORT_LOCATION };
+    private static final String[] NAMES = { "highest score", "newest date",
+            "location" };
+
+    /**
+     * Sorts a list of threads in one of the ways being timed.
+     */
+    private interface ThreadSort {
+        void sort(List<ThreadComment> threads);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            Optionally, the number of threads to sort.
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_THREADS;
+        SortUtil.setThreadSortGeo(new GeoLocation(ORIGIN_LATITUDE,
+                ORIGIN_LONGITUDE));
+        List<ThreadComment> threads = makeThreads(count, new Random(42));
+
+        System.out.printf("%d threads, median of %d runs%n", count,
+                TIMED_RUNS);
+        System.out.printf("%-14s %13s %13s%n", "sort", "comparator",
+                "keys once");
+        for (int i = 0; i < SORTS.length; ++i) {
+            final SortRequest request = SortRequest.forThreads(SORTS[i]);
+            double comparator = time(threads, new ThreadSort() {
+                @Override
+                public void sort(List<ThreadComment> list) {
+                    sortByComparator(request, list);
+                }
+            });
+            double keysOnce = time(threads, new ThreadSort() {
+                @Override
+                public void sort(List<ThreadComment> list) {
+                    SortUtil.sortThreads(request, list);
+                }
+            });
+            System.out.printf("%-14s %10.2f ms %10.2f ms%n", NAMES[i],
+                    comparator, keysOnce);
+        }
+    }
+
+    /**
+     * Sorts the threads with a comparator that computes the sort key of both
+     * threads on every comparison.
+     */
+    private static void sortByComparator(final SortRequest request,
+            List<ThreadComment> threads) {
+        final DistanceKernel kernel = request.makeDistanceKernel();
+        final GeoLocation origin = SortUtil.getThreadSortGeo();
+        Collections.sort(threads, new Comparator<ThreadComment>() {
+            @Override
+            public int compare(ThreadComment t1, ThreadComment t2) {
+                return Double.compare(key(t1), key(t2));
+            }
+
+            private double key(ThreadComment thread) {
+                switch (request.getKeyType()) {
+                case SortUtil.SORT_USER_SCORE_HIGHEST:
+                    return -HotRanking.score(kernel, thread);
+                case SortUtil.SORT_DATE_NEWEST:
+                    return -thread.getThreadTime();
+                default:
+                    return thread.getDistanceFrom(origin);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the median time in milliseconds the sort takes on fresh copies
+     * of the threads, after warming it up.
+     */
+    private static double time(List<ThreadComment> threads, ThreadSort sort) {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            sort.sort(new ArrayList<ThreadComment>(threads));
+        }
+        double[] times = new double[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; ++i) {
+            List<ThreadComment> copy = new ArrayList<ThreadComment>(threads);
+            long start = System.nanoTime();
+            sort.sort(copy);
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[TIMED_RUNS / 2];
+    }
+
+    /**
+     * Makes threads in random order, posted over the last month around the
+     * origin.
+     */
+    private static List<ThreadComment> makeThreads(int count, Random random) {
+        long now = System.currentTimeMillis();
+        List<ThreadComment> threads = new ArrayList<ThreadComment>(count);
+        for (int i = 0; i < count; ++i) {
+            Comment body = new Comment();
+            body.setId(i + 1);
+            body.setLocation(new GeoLocation(ORIGIN_LATITUDE
+                    + random.nextGaussian(), ORIGIN_LONGITUDE
+                    + random.nextGaussian()));
+            body.setCommentTime(now - (long) (random.nextDouble() * MAX_AGE));
+            threads.add(new ThreadComment(body, "Thread " + i));
+        }
+        return threads;
+    }
+}
@@ -123,9 +123,7 @@ public class MainActivity extends FragmentActivity implements OnBackStackChanged
 
         case R.id.action_add_thread:
             PostFragment frag = new PostFragment();
-            Bundle bundle = new Bundle();
-            bundle.putLong("id", -1);
-            frag.setArguments(bundle);
+            frag.setArguments(new Bundle());
             getSupportFragmentManager().beginTransaction()
                     .replace(R.id.fragment_container, frag, "postFrag").addToBackStack(null)
                     .commit();
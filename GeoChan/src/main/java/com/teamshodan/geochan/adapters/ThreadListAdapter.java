@@ -31,10 +31,9 @@ import android.widget.TextView;
 
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.util.List;
 
 import com.teamshodan.geochan.R;
-import com.teamshodan.geochan.helpers.HashHelper;
 import com.teamshodan.geochan.models.GeoLocation;
 import com.teamshodan.geochan.models.ThreadComment;
 
@@ -47,14 +46,14 @@ import com.teamshodan.geochan.models.ThreadComment;
 public class ThreadListAdapter extends BaseAdapter {
 
     private Context context;
-    private ArrayList<ThreadComment> displayList;
+    private List<ThreadComment> displayList;
 
     /**
      * Constructs the adapter and initializes its context and list of ThreadComments.
-     * @param list  The ArrayList of ThreadComments.
+     * @param list  The List of ThreadComments, usually a ThreadList snapshot.
      * @param context  The Context the adapter is running in.
      */
-    public ThreadListAdapter(Context context, ArrayList<ThreadComment> list) {
+    public ThreadListAdapter(Context context, List<ThreadComment> list) {
         this.context = context;
         this.displayList = list;
     }
@@ -92,9 +91,9 @@ public class ThreadListAdapter extends BaseAdapter {
     /**
      * Sets the list of the adapter to a new list
      * and refreshes itself.
-     * @param list  The new ArrayList of ThreadComments for the adapter.
+     * @param list  The new List of ThreadComments for the adapter.
      */
-    public void setList(ArrayList<ThreadComment> list) {
+    public void setList(List<ThreadComment> list) {
         displayList = list;
         notifyDataSetChanged();
     }
@@ -139,8 +138,7 @@ public class ThreadListAdapter extends BaseAdapter {
         user.setText("Posted by " + thread.getBodyComment().getUser() + "#"
                 + thread.getBodyComment().getHash());
 
-        if (HashHelper.getHash(thread.getBodyComment().getUser()).equals(
-                thread.getBodyComment().getHash())) {
+        if (thread.getBodyComment().isByThisDevice()) {
             user.setBackgroundResource(R.drawable.username_background_thread_rect);
             user.setTextColor(Color.WHITE);
             user.setText(" " + user.getText() + "  ");
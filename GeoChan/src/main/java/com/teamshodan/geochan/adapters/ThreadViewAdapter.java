@@ -36,24 +36,25 @@ import android.widget.Toast;
 
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 
 import com.teamshodan.geochan.R;
 import com.teamshodan.geochan.fragments.EditFragment;
 import com.teamshodan.geochan.fragments.ExpandImageFragment;
 import com.teamshodan.geochan.fragments.MapViewFragment;
 import com.teamshodan.geochan.fragments.PostFragment;
-import com.teamshodan.geochan.helpers.HashHelper;
-import com.teamshodan.geochan.managers.PreferencesManager;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.FavouritesLog;
+import com.teamshodan.geochan.models.FlatCommentList;
 import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ModelRegistry;
 import com.teamshodan.geochan.models.ThreadComment;
 
 /**
  * Adapter used for displaying a ThreadComment in the ThreadViewFragment. It
  * inflates layouts for OP, top level comments and comment replies and listens to
- * the buttons of the listView elements that are visible at all times.
+ * the buttons of the listView elements that are visible at all times. The
+ * comments are shown from a FlatCommentList of the tree, so scrolling never
+ * walks the tree.
  * 
  * @author Artem Chikin
  */
@@ -70,12 +71,12 @@ public class ThreadViewAdapter extends BaseAdapter {
     private static final int TYPE_COMMENTMAX = 10;
     private static final int TYPE_OP = 8;
     private static final int TYPE_SEPARATOR = 9;
-    private static final int TYPE_MAX_COUNT = 11;
+    private static final int TYPE_MORE = 11;
+    private static final int TYPE_MAX_COUNT = 12;
 
     private Context context;
-    private int id;
     private ThreadComment thread;
-    private ArrayList<Comment> comments;
+    private FlatCommentList comments;
     private FragmentManager manager;
 
     /**
@@ -83,84 +84,151 @@ public class ThreadViewAdapter extends BaseAdapter {
      * @param context  The Context the adapter is running in.
      * @param thread  The ThreadComment to display.
      * @param manager  The FragmentManager with this adapter's fragment.
-     * @param id  The index of the ThreadComment in the ThreadList.
      */
-    public ThreadViewAdapter(Context context, ThreadComment thread, FragmentManager manager, int id) {
+    public ThreadViewAdapter(Context context, ThreadComment thread, FragmentManager manager) {
+        this(context, thread, null, manager);
+    }
+
+    /**
+     * Constructs the adapter with the thread's comments already flattened,
+     * for instance by a sort off the UI thread.
+     * @param context  The Context the adapter is running in.
+     * @param thread  The ThreadComment to display.
+     * @param comments  The thread's comment tree flattened in display order,
+     * or null to flatten it here.
+     * @param manager  The FragmentManager with this adapter's fragment.
+     */
+    public ThreadViewAdapter(Context context, ThreadComment thread,
+            FlatCommentList comments, FragmentManager manager) {
         super();
         this.context = context;
         this.thread = thread;
         this.manager = manager;
-        this.id = id;
-        this.comments = new ArrayList<Comment>();
-        buildAList(thread.getBodyComment());
+        if (comments == null) {
+            comments = FlatCommentList.of(thread.getBodyComment());
+        }
+        this.comments = comments;
     }
 
     /**
-     * Takes a comment and recursively builds a list of comment
-     * objects from the Comment's children tree.
-     * This is the list we display in our listView.
+     * Sets the ThreadComment that the adapter is displaying
+     * and refreshes the adapter.
      * 
-     * @param comment The Comment to recursively build a list
-     * from.
+     * @param thread The new ThreadComment for the adapter to display.
      * 
      */
-    private void buildAList(Comment comment) {
-        ArrayList<Comment> children = comment.getChildren();
-        if (children.size() == 0) {
-            return;
+    public void setThread(ThreadComment thread) {
+        this.thread = thread;
+        this.comments = FlatCommentList.of(thread.getBodyComment());
+        this.notifyDataSetChanged();
+    }
+
+    /**
+     * Returns the ThreadComment that the adapter is displaying.
+     * 
+     * @return The ThreadComment.
+     */
+    public ThreadComment getThread() {
+        return thread;
+    }
+
+    /**
+     * Shows a reply that was just added to the thread's comment tree, in its
+     * place among its siblings, without flattening the tree again.
+     * 
+     * @param comment The new Comment, already in its parent's children.
+     * @return The adapter position of the new Comment.
+     */
+    public int insertComment(Comment comment) {
+        Comment parent = comment.getParent();
+        int parentPos;
+        int depth;
+        if (parent == thread.getBodyComment()) {
+            parentPos = -1;
+            depth = 0;
         } else {
-            for (Comment c : children) {
-                comments.add(c);
-                buildAList(c);
+            parentPos = comments.indexOf(parent);
+            if (parentPos == -1) {
+                // The parent is not shown, so neither is the rest of its branch
+                setThread(thread);
+                return getPositionOfComment(comment);
             }
+            depth = comments.getDepth(parentPos) + 1;
+        }
+        int index = parent.getChildren().indexOf(comment);
+        int position;
+        if (index <= 0) {
+            position = parentPos + 1;
+        } else {
+            // After the whole subtree of the previous sibling
+            int previous = comments.indexOf(parent.getChildren().get(index - 1));
+            position = previous == -1 ? parentPos + 1 : comments.subtreeEnd(previous);
         }
+        comments = comments.withInserted(position, comment, depth);
+        this.notifyDataSetChanged();
+        return position + 2;
     }
 
     /**
-     * Sets the ThreadComment that the adapter is displaying
-     * and refreshes the adapter.
-     * 
-     * @param thread The new ThreadComment for the adapter to display.
+     * Stops showing a Comment and its replies after they were removed from the
+     * thread's comment tree.
      * 
+     * @param comment The removed Comment.
      */
-    public void setThread(ThreadComment thread) {
-        this.thread = thread;
-        buildAList(thread.getBodyComment());
+    public void removeComment(Comment comment) {
+        int position = comments.indexOf(comment);
+        if (position == -1) {
+            return;
+        }
+        int count = comments.subtreeEnd(position) - position;
+        comments = comments.withRemoved(position, count);
         this.notifyDataSetChanged();
     }
 
     /**
-     * Returns the number of items in this adapter,
-     * includes all posts (including the bodyComment) and the separator
-     * between the bodyComment and the other Comments.
+     * Shows the replies below a Comment again after they changed as a whole,
+     * such as when a stub among them was expanded. Only that Comment's part
+     * of the list is flattened again.
      * 
-     * @return The number of items in the adapter.
+     * @param parent The Comment whose replies changed.
      */
-    @Override
-    public int getCount() {
-        int size = getCountChildren(thread.getBodyComment());
-        return size + 2; // The +2 is for OP + Separator
+    public void refreshReplies(Comment parent) {
+        if (parent == thread.getBodyComment()) {
+            comments = FlatCommentList.of(parent);
+        } else {
+            int position = comments.indexOf(parent);
+            if (position == -1) {
+                return;
+            }
+            comments = comments.withReplies(position, FlatCommentList.of(parent));
+        }
+        this.notifyDataSetChanged();
     }
 
     /**
-     * This method recursively counts the total amount of children a comment
-     * object has.
-     * 
-     * @param comment  The Comment to determine the number of children of.
-     * @return The number of children.
+     * Returns the adapter position a Comment is shown at.
      * 
+     * @param comment The Comment.
+     * @return The position, or -1 if the Comment is not shown.
      */
-    private int getCountChildren(Comment comment) {
-        if (comment.getChildren().size() == 0) {
+    public int getPositionOfComment(Comment comment) {
+        if (comment == thread.getBodyComment()) {
             return 0;
         }
-        int size = 0;
+        int position = comments.indexOf(comment);
+        return position == -1 ? -1 : position + 2;
+    }
 
-        for (Comment c : comment.getChildren()) {
-            ++size;
-            size += getCountChildren(c);
-        }
-        return size;
+    /**
+     * Returns the number of items in this adapter,
+     * includes all posts (including the bodyComment) and the separator
+     * between the bodyComment and the other Comments.
+     * 
+     * @return The number of items in the adapter.
+     */
+    @Override
+    public int getCount() {
+        return comments.size() + 2; // The +2 is for OP + Separator
     }
 
     /**
@@ -177,7 +245,7 @@ public class ThreadViewAdapter extends BaseAdapter {
             return null;
         } else {
             // -2 because of OP and SEPARATOR
-            return comments.get(position - 2);
+            return comments.getComment(position - 2);
         }
     }
     
@@ -202,7 +270,7 @@ public class ThreadViewAdapter extends BaseAdapter {
 
     /**
      * Return the layout type for a list element,
-     * OP, SEPARATOR, 7 COMMENT depths and COMMENT_MAX types.
+     * OP, SEPARATOR, 7 COMMENT depths, COMMENT_MAX and MORE types.
      * 
      * @param position The position.
      * @return The layout type.
@@ -214,8 +282,10 @@ public class ThreadViewAdapter extends BaseAdapter {
             type = TYPE_OP;
         } else if (position == 1) {
             type = TYPE_SEPARATOR;
+        } else if (comments.getComment(position - 2).isStub()) {
+            type = TYPE_MORE;
         } else {
-            int depth = ((Comment) getItem(position)).getDepth();
+            int depth = comments.getDepth(position - 2);
             if (depth <= 7) {
                 type = depth;
             } else {
@@ -295,18 +365,33 @@ public class ThreadViewAdapter extends BaseAdapter {
         case TYPE_SEPARATOR:
             convertView = setConvertView(convertView, R.layout.thread_view_separator);
             TextView numComments = (TextView) convertView.findViewById(R.id.textSeparator);
-            numComments.setText(Integer.toString(getCount() - 2) + " Comments:");
+            numComments.setText(Integer.toString(comments.getReplyCount()) + " Comments:");
+            break;
+
+        case TYPE_MORE:
+            convertView = setConvertView(convertView, R.layout.thread_view_load_more);
+            TextView more = (TextView) convertView
+                    .findViewById(R.id.thread_view_load_more_text);
+            int hidden = comment.getHiddenCount();
+            more.setText("Load " + Integer.toString(hidden)
+                    + (hidden == 1 ? " more reply" : " more replies"));
+            // Indent the row by the 5dp depth bars of the replies around it
+            int bar = (int) (5 * context.getResources().getDisplayMetrics().density);
+            int bars = Math.min(comments.getDepth(position - 2), 7) + 1;
+            more.setPadding(bar * (bars + 1), more.getPaddingTop(),
+                    more.getPaddingRight(), more.getPaddingBottom());
             break;
 
         case TYPE_COMMENTMAX:
-            final Comment commentMax = (Comment) getItem(position);
+            final Comment commentMax = comment;
             convertView = setConvertView(convertView, R.layout.thread_view_comment_max);
             setCommentFields(convertView, commentMax);
             // TYPE_COMMENTMAX has an extra field: depth relative to the maximum 
             // depth layout.
             TextView depthMeter = (TextView) convertView
                     .findViewById(R.id.thread_view_comment_depth_meter);
-            depthMeter.setText("Max depth + " + Integer.toString(commentMax.getDepth() - 7));
+            depthMeter.setText("Max depth + "
+                    + Integer.toString(comments.getDepth(position - 2) - 7));
             listenForThumbnail(convertView, comment);
             break;
 
@@ -399,8 +484,7 @@ public class ThreadViewAdapter extends BaseAdapter {
         final ImageButton editButton = (ImageButton) convertView
                 .findViewById(R.id.thread_edit_button);
 
-        if (HashHelper.getHash(PreferencesManager.getInstance().getUser()).equals(
-                thread.getBodyComment().getHash())) {
+        if (thread.getBodyComment().isByCurrentUser()) {
             editButton.setVisibility(View.VISIBLE);
         }
 
@@ -436,7 +520,7 @@ public class ThreadViewAdapter extends BaseAdapter {
                 public void onClick(View v) {
                     Fragment fragment = new EditFragment();
                     Bundle bundle = new Bundle();
-                    bundle.putInt("threadIndex", id);
+                    bundle.putString("threadId", thread.getId());
                     bundle.putString("commentId", thread.getBodyComment().getId());
                     fragment.setArguments(bundle);
                     manager.beginTransaction()
@@ -453,7 +537,8 @@ public class ThreadViewAdapter extends BaseAdapter {
                 public void onClick(View v) {
                     // Perform action on click to launch mapFragment
                     Bundle bundle = new Bundle();
-                    bundle.putParcelable("thread_comment", thread.getBodyComment());
+                    ModelRegistry.register(thread);
+                    bundle.putString("threadId", thread.getId());
 
                     Fragment mapFrag = new MapViewFragment();
                     mapFrag.setArguments(bundle);
@@ -478,8 +563,9 @@ public class ThreadViewAdapter extends BaseAdapter {
         			// Perform action on click to launch postCommentFragment
         			Fragment fragment = new PostFragment();
         			Bundle bundle = new Bundle();
-        			bundle.putParcelable("cmt", thread.getBodyComment());
-        			bundle.putLong("id", id);
+        			ModelRegistry.register(thread);
+        			bundle.putString("commentId", thread.getBodyComment().getId());
+        			bundle.putString("threadId", thread.getId());
         			fragment.setArguments(bundle);
         			Fragment fav = manager.findFragmentByTag("favThrFragment");
         			if (fav != null) {
@@ -521,8 +607,7 @@ public class ThreadViewAdapter extends BaseAdapter {
         TextView threadBy = (TextView) convertView.findViewById(R.id.thread_view_op_commentBy);
         threadBy.setText("Posted by " + thread.getBodyComment().getUser() + "#"
                 + thread.getBodyComment().getHash() + "  ");
-        if (HashHelper.getHash(thread.getBodyComment().getUser()).equals(
-                thread.getBodyComment().getHash())) {
+        if (thread.getBodyComment().isByThisDevice()) {
             threadBy.setBackgroundResource(R.drawable.username_background_thread_rect);
             threadBy.setTextColor(Color.WHITE);
         }
@@ -590,8 +675,7 @@ public class ThreadViewAdapter extends BaseAdapter {
         // Comment creator
         TextView replyBy = (TextView) convertView.findViewById(R.id.thread_view_comment_commentBy);
         replyBy.setText(reply.getUser() + "#" + reply.getHash() + "  ");
-        String username = PreferencesManager.getInstance().getUser();
-        if (HashHelper.getHash(username).equals(reply.getHash())) {
+        if (reply.isByCurrentUser()) {
             replyBy.setBackgroundResource(R.drawable.username_background_rect);
             replyBy.setTextColor(Color.WHITE);
         }
@@ -183,7 +183,7 @@ public class CustomLocationFragment extends Fragment {
 		markers = new ArrayList<Marker>();
 
 		// if valid current location, put it on the map
-		if (currentLocation.getLocation() != null) {
+		if (currentLocation.hasCoordinates()) {
 			Drawable icon = getResources().getDrawable(
 					R.drawable.current_location_pin);
 			currentLocationMarker = new CustomMarker(currentLocation,
@@ -368,7 +368,7 @@ public class CustomLocationFragment extends Fragment {
 	public void submitCurrentLocation(View view) {
 		GeoLocation currentGeoLocation = new GeoLocation(
 				locationListenerService);
-		if (currentGeoLocation.getLocation() == null) {
+		if (!currentGeoLocation.hasCoordinates()) {
 			ErrorDialog.show(getActivity(), "Could not obtain location");
 		} else {
 			setBundleArguments(currentGeoLocation, "CURRENT_LOCATION");
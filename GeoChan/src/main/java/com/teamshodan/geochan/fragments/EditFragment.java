@@ -50,12 +50,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 
 import com.teamshodan.geochan.R;
 import com.teamshodan.geochan.helpers.ImageHelper;
 import com.teamshodan.geochan.helpers.Toaster;
 import com.teamshodan.geochan.managers.CacheManager;
+import com.teamshodan.geochan.managers.CommentTreeManager;
 import com.teamshodan.geochan.managers.ThreadManager;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.FavouritesLog;
@@ -135,19 +135,19 @@ public class EditFragment extends Fragment {
         super.onStart();
         Bundle bundle = getArguments();
         String commentId = bundle.getString("commentId");
-        int threadIndex = bundle.getInt("threadIndex");
+        String threadId = bundle.getString("threadId");
         boolean fromFavs = bundle.getBoolean("fromFavs");
         if(fromFavs == true){
             FavouritesLog log = FavouritesLog.getInstance(getActivity());
-            thread = log.getThreads().get(threadIndex);
+            thread = log.findThreadById(threadId);
         } else {
-            thread = ThreadList.getThreads().get(threadIndex);
+            thread = ThreadList.findThreadById(threadId);
         }
         if (thread.getBodyComment().getId().equals(commentId)){
             editComment = thread.getBodyComment();
             isThread = true;
         } else {
-            getCommentFromId(commentId, thread.getBodyComment().getChildren());
+            editComment = thread.findCommentById(thread.getBodyComment(), commentId);
             isThread = false;
         }
         if (EditFragment.oldText == null){
@@ -183,13 +183,10 @@ public class EditFragment extends Fragment {
                 if (args.getString("LocationType") == "CURRENT_LOCATION") {
                     locButton.setText("Current Location");
                 } else {
-                    GeoLocation geoLocation = editComment.getLocation();
                     Double lat = args.getDouble("LATITUDE");
                     Double lon = args.getDouble("LONGITUDE");
-                    geoLocation.setCoordinates(lat, lon);
-                    
                     String locationDescription = args.getString("locationDescription");
-                    geoLocation.setLocationDescription(locationDescription);
+                    editComment.setLocation(new GeoLocation(lat, lon, locationDescription));
 
                     DecimalFormat format = new DecimalFormat();
                     format.setRoundingMode(RoundingMode.HALF_EVEN);
@@ -218,26 +215,6 @@ public class EditFragment extends Fragment {
     }
 
 
-    /**
-     * Recursively finds the Comment with the passed ID and sets it to
-     * the variable editComment. If a Comment with the passed ID is not
-     * found in the passed ArrayList of Comments then the method is recursively
-     * called on the children of Comments in the ArrayList.
-     * @param id The ID of the comment to be found.
-     * @param comments An ArrayList of Comments to start searching in.
-     */ 
-    public void getCommentFromId(String id, ArrayList<Comment> comments){
-        for(Comment com: comments){
-            if(com.getId().equals(id)){
-                editComment = com;
-                return;
-            } else {
-                getCommentFromId(id, com.getChildren());
-            }
-        }
-        return;
-    }
-
     /**
      * Allows the user to change the image attached to their comment or remove it
      * entirely. Prompts the user with an AlertDialog as to which option they would like
@@ -364,6 +341,7 @@ public class EditFragment extends Fragment {
             CacheManager.getInstance().serializeThreadList(ThreadList.getThreads());
         } else {
             ThreadManager.startPost(editComment, null, editComment.getLocation(), dialog, true);
+            CommentTreeManager.commentEdited(thread, editComment);
         }
         InputMethodManager inputManager = (InputMethodManager) getActivity().getSystemService(
                 Context.INPUT_METHOD_SERVICE);
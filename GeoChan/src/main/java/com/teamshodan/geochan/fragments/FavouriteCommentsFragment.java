@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import com.teamshodan.geochan.R;
 import com.teamshodan.geochan.adapters.FavouriteCommentsAdapter;
 import com.teamshodan.geochan.models.FavouritesLog;
+import com.teamshodan.geochan.models.ModelRegistry;
 import com.teamshodan.geochan.models.ThreadComment;
 
 /**
@@ -95,9 +96,11 @@ public class FavouriteCommentsFragment extends Fragment {
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 Fragment fragment = new ThreadViewFragment();
                 Bundle bundle = new Bundle();
-                bundle.putParcelable("thread", list.get((int) position));
+                ThreadComment thread = list.get((int) position);
+                ModelRegistry.register(thread);
+                bundle.putString("threadId", thread.getId());
+                bundle.putParcelable("thread", thread);
                 bundle.putInt("favCom", -1);
-                bundle.putLong("id", id);
                 fragment.setArguments(bundle);
                 getFragmentManager().beginTransaction()
                         .replace(R.id.container, fragment, "thread_view_fragment")
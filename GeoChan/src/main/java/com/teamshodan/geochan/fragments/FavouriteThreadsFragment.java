@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import com.teamshodan.geochan.R;
 import com.teamshodan.geochan.adapters.ThreadListAdapter;
 import com.teamshodan.geochan.models.FavouritesLog;
+import com.teamshodan.geochan.models.ModelRegistry;
 import com.teamshodan.geochan.models.ThreadComment;
 
 /**
@@ -90,7 +91,10 @@ public class FavouriteThreadsFragment extends Fragment {
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 Fragment fragment = new ThreadViewFragment();
                 Bundle bundle = new Bundle();
-                bundle.putParcelable("thread", list.get((int) id));
+                ThreadComment thread = list.get((int) id);
+                ModelRegistry.register(thread);
+                bundle.putString("threadId", thread.getId());
+                bundle.putParcelable("thread", thread);
                 fragment.setArguments(bundle);
                 getFragmentManager().beginTransaction()
                         .replace(R.id.container, fragment, "thread_view_fragment")
@@ -51,12 +51,17 @@ import org.osmdroid.views.MapView;
 import java.util.ArrayList;
 
 import com.teamshodan.geochan.R;
+import com.teamshodan.geochan.helpers.DistanceKernel;
 import com.teamshodan.geochan.helpers.ErrorDialog;
 import com.teamshodan.geochan.helpers.LocationListenerService;
 import com.teamshodan.geochan.helpers.MapDataHelper;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.CustomMarker;
+import com.teamshodan.geochan.models.FavouritesLog;
 import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ModelRegistry;
+import com.teamshodan.geochan.models.ThreadComment;
+import com.teamshodan.geochan.models.ThreadList;
 
 /**
  * A Fragment class for displaying Maps. The Map will display the locations of
@@ -131,7 +136,21 @@ public class MapViewFragment extends Fragment {
 		locationListenerService.startListening();
 
 		Bundle args = getArguments();
-		Comment topComment = (Comment) args.getParcelable("thread_comment");
+		String threadId = args.getString("threadId");
+		ThreadComment thread = ModelRegistry.getThread(threadId);
+		if (thread == null) {
+			thread = ThreadList.findThreadById(threadId);
+		}
+		if (thread == null) {
+			thread = FavouritesLog.getInstance(getActivity()).findThreadById(
+					threadId);
+		}
+		if (thread == null) {
+			ErrorDialog.show(getActivity(), "Thread is no longer available");
+			getFragmentManager().popBackStackImmediate();
+			return;
+		}
+		Comment topComment = thread.getBodyComment();
 
 		markers = new ArrayList<CustomMarker>();
 		replyMarkers = new ArrayList<CustomMarker>();
@@ -139,7 +158,7 @@ public class MapViewFragment extends Fragment {
 		setupClusterGroups();
 
 		GeoLocation geoLocation = topComment.getLocation();
-		if (geoLocation.getLocation() == null) {
+		if (!geoLocation.hasCoordinates()) {
 			ErrorDialog.show(getActivity(), "Thread has no location");
 			FragmentManager fm = getFragmentManager();
 			fm.popBackStackImmediate();
@@ -250,39 +269,28 @@ public class MapViewFragment extends Fragment {
 	}
 
 	/**
-	 * Calculates the minimum and maximum values for latitude and longitude
-	 * between an array of GeoPoints. This is used to determine the zoom level.
+	 * Calculates the great-circle distance from the original post to the
+	 * furthest reply on the map. This is used to determine the zoom level.
 	 * 
-	 * @return The maximum distance between markers on the map.
+	 * @return The span that fits every marker around the original post, in
+	 *         microdegrees.
 	 */
 	private int calculateZoomSpan() {
-		int opLat = originalPostMarker.getPosition().getLatitudeE6();
-		int opLong = originalPostMarker.getPosition().getLongitudeE6();
-
-		// To calculate the max and min latitude and longitude of all
-		// the comments, we set the min's to max integer values and vice versa
-		// then have values of each comment modify these variables
-		int minLat = opLat;
-		int maxLat = opLat;
-		int minLong = opLong;
-		int maxLong = opLong;
-
-		// get max min lat long for replies
+		GeoPoint opPoint = originalPostMarker.getPosition();
+		DistanceKernel kernel = new DistanceKernel(opPoint.getLatitude(),
+				opPoint.getLongitude());
+
+		// get the furthest reply from the original post
+		double maxDistance = 0;
 		for (CustomMarker marker : markers) {
 			if (marker.getGeoLocation() != originalPostMarker.getGeoLocation()) {
 				GeoPoint geoPoint = marker.getGeoPoint();
-				int geoLat = geoPoint.getLatitudeE6();
-				int geoLong = geoPoint.getLongitudeE6();
-
-				maxLat = Math.max(geoLat, maxLat);
-				minLat = Math.min(geoLat, minLat);
-				maxLong = Math.max(geoLong, maxLong);
-				minLong = Math.min(geoLong, minLong);
+				maxDistance = Math.max(maxDistance, kernel.distance(
+						geoPoint.getLatitude(), geoPoint.getLongitude()));
 			}
 		}
-		int deltaLong = maxLong - minLong;
-		int deltaLat = maxLat - minLat;
-		return Math.max(deltaLong, deltaLat);
+		// The zoom levels are tuned for a span in microdegrees across the map
+		return (int) (2 * maxDistance / GeoLocation.METERS_PER_DEGREE * 1e6);
 	}
 
 	/**
@@ -310,52 +318,57 @@ public class MapViewFragment extends Fragment {
 	}
 
 	/**
-	 * Recursive method for handling all comments in the thread. First checks if
-	 * the comment has any children or not. If none, simply return. Otherwise,
-	 * call setGeoPointMarker for each child of the comment. Call
-	 * checkCommmentLocation to calculate the min and max of the lat and long
-	 * for the entire thread. Then finally make a recursive call to check if a
-	 * child comment has any children.
+	 * Handles all comments in the thread below the passed comment. A marker is
+	 * placed for each reply with a valid location, and the replies to that
+	 * reply are handled in turn. The replies waiting to be handled are kept on
+	 * an explicit stack rather than handled recursively, so a deep reply chain
+	 * cannot overflow the stack.
 	 * 
 	 * @param comment
 	 *            Comment to be added to the map.
 	 */
 	private void handleChildComments(Comment comment) {
-		ArrayList<Comment> children = comment.getChildren();
-		if (children.size() == 0) {
-			return;
-		} else {
-			for (Comment childComment : children) {
-				GeoLocation commentLocation = childComment.getLocation();
-
-				if (commentLocationIsValid(childComment)) {
-					Drawable icon = getResources().getDrawable(
-							R.drawable.blue_map_pin);
-
-					CustomMarker replyMarker = new CustomMarker(
-							commentLocation, mapData.getMap(), icon);
-					replyMarker.createInfoWindow();
-					replyMarker.setTitle("Reply");
-
-					if (commentLocation.getLocationDescription() != null) {
-						replyMarker.setSubDescription(commentLocation
-								.getLocationDescription());
-					} else {
-						replyMarker.setSubDescription("Unknown Location");
-					}
-
-					setMarkerListeners(replyMarker);
-					replyPostClusterMarkers.add(replyMarker);
-					
-					markers.add(replyMarker);
-					replyMarkers.add(replyMarker);
-					
-					handleChildComments(childComment);
+		// Replies pushed in reverse so markers are placed in thread order
+		ArrayList<Comment> stack = new ArrayList<Comment>();
+		pushReversed(stack, comment.getChildren());
+		while (!stack.isEmpty()) {
+			Comment childComment = stack.remove(stack.size() - 1);
+			GeoLocation commentLocation = childComment.getLocation();
+
+			if (!childComment.isStub() && commentLocationIsValid(childComment)) {
+				Drawable icon = getResources().getDrawable(
+						R.drawable.blue_map_pin);
+
+				CustomMarker replyMarker = new CustomMarker(
+						commentLocation, mapData.getMap(), icon);
+				replyMarker.createInfoWindow();
+				replyMarker.setTitle("Reply");
+
+				if (commentLocation.getLocationDescription() != null) {
+					replyMarker.setSubDescription(commentLocation
+							.getLocationDescription());
+				} else {
+					replyMarker.setSubDescription("Unknown Location");
 				}
+
+				setMarkerListeners(replyMarker);
+				replyPostClusterMarkers.add(replyMarker);
+				
+				markers.add(replyMarker);
+				replyMarkers.add(replyMarker);
+				
+				pushReversed(stack, childComment.getChildren());
 			}
 		}
 	}
 
+	private static void pushReversed(ArrayList<Comment> stack,
+			ArrayList<Comment> comments) {
+		for (int i = comments.size() - 1; i >= 0; --i) {
+			stack.add(comments.get(i));
+		}
+	}
+
 	/**
 	 * Hides infoWindows for every marker on the map
 	 */
@@ -376,7 +389,7 @@ public class MapViewFragment extends Fragment {
 	 */
 	public boolean commentLocationIsValid(Comment comment) {
 		GeoLocation location = comment.getLocation();
-		if (location.getLocation() == null) {
+		if (!location.hasCoordinates()) {
 			return false;
 		} else {
 			return (location.getLatitude() >= -90.0
@@ -406,7 +419,7 @@ public class MapViewFragment extends Fragment {
 	public void getDirections() {
 		GeoLocation currentLocation = new GeoLocation(locationListenerService);
 
-		if (currentLocation.getLocation() == null) {
+		if (!currentLocation.hasCoordinates()) {
 			ErrorDialog.show(getActivity(), "Could not retrieve your location");
 		} else {
 			hideInfoWindows();
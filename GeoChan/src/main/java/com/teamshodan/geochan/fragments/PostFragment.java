@@ -51,14 +51,15 @@ import com.teamshodan.geochan.helpers.ConnectivityHelper;
 import com.teamshodan.geochan.helpers.ErrorDialog;
 import com.teamshodan.geochan.helpers.ImageHelper;
 import com.teamshodan.geochan.helpers.LocationListenerService;
-import com.teamshodan.geochan.helpers.SortUtil;
 import com.teamshodan.geochan.helpers.Toaster;
 import com.teamshodan.geochan.managers.CacheManager;
+import com.teamshodan.geochan.managers.CommentTreeManager;
 import com.teamshodan.geochan.managers.PreferencesManager;
 import com.teamshodan.geochan.managers.ThreadManager;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.FavouritesLog;
 import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ModelRegistry;
 import com.teamshodan.geochan.models.ThreadComment;
 import com.teamshodan.geochan.models.ThreadList;
 
@@ -77,6 +78,8 @@ public class PostFragment extends Fragment {
 	private File imageFile = null;
 	private ThreadComment thread = null;
 	private Comment commentToReplyTo = null;
+	// Set if this was opened to reply, but the thread could not be found
+	private boolean replyLost = false;
 
 	/**
 	 * Initializes several of the member variables used
@@ -89,15 +92,22 @@ public class PostFragment extends Fragment {
 		locationListenerService = new LocationListenerService(getActivity());
 		locationListenerService.startListening();
 		Bundle args = getArguments();
-		if (args.getLong("id") != -1) {
-			commentToReplyTo = (Comment) args.getParcelable("cmt");
-	        boolean fromFavs = args.getBoolean("fromFavs");
-	        if (fromFavs) {
-	        	FavouritesLog log = FavouritesLog.getInstance(getActivity());
-	            thread = log.getThreads().get((int) args.getLong("id"));
-	        } else {
-				thread = ThreadList.getThreads().get((int) args.getLong("id"));
-	        }
+		String threadId = args.getString("threadId");
+		if (threadId != null) {
+			// Registered by the fragment that opened this one
+			thread = ModelRegistry.getThread(threadId);
+			if (thread == null) {
+		        boolean fromFavs = args.getBoolean("fromFavs");
+		        if (fromFavs) {
+		        	FavouritesLog log = FavouritesLog.getInstance(getActivity());
+		            thread = log.findThreadById(threadId);
+		        } else {
+					thread = ThreadList.findThreadById(threadId);
+		        }
+			}
+			commentToReplyTo = ModelRegistry.findComment(thread,
+					args.getString("commentId"));
+			replyLost = commentToReplyTo == null;
 		}
 	}
 
@@ -113,7 +123,7 @@ public class PostFragment extends Fragment {
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		setHasOptionsMenu(false);
-		if (thread == null) {
+		if (thread == null && !replyLost) {
 			return inflater.inflate(R.layout.fragment_post_thread, container, false);
 		} else {
 			return inflater.inflate(R.layout.fragment_post_comment, container, false);
@@ -126,6 +136,12 @@ public class PostFragment extends Fragment {
 	@Override
 	public void onStart() {
 		super.onStart();
+		if (replyLost) {
+			// Posting now would start a new thread instead of replying
+			ErrorDialog.show(getActivity(), "Thread is no longer available");
+			getFragmentManager().popBackStackImmediate();
+			return;
+		}
 		if (commentToReplyTo != null) {
 			TextView replyTo = (TextView) getActivity().findViewById(R.id.comment_replyingTo);
 			TextView bodyReplyTo = (TextView) getActivity().findViewById(R.id.reply_to_body);
@@ -150,10 +166,8 @@ public class PostFragment extends Fragment {
 				} else {
 					Double lat = args.getDouble("LATITUDE");
 					Double lon = args.getDouble("LONGITUDE");
-					geoLocation = new GeoLocation(lat, lon);
-
 					String locationDescription = args.getString("locationDescription");
-					geoLocation.setLocationDescription(locationDescription);
+					geoLocation = new GeoLocation(lat, lon, locationDescription);
 
 					locButton.setText("Location: Set");
 				}
@@ -176,7 +190,7 @@ public class PostFragment extends Fragment {
     	if (geoLocation == null) {
         	geoLocation = new GeoLocation(locationListenerService);
     	}
-    	if (geoLocation.getLocation() == null) {
+    	if (!geoLocation.hasCoordinates()) {
     		ErrorDialog.show(getActivity(), "Could not retrieve location. Please specify a custom location.");
     		return;
     	}
@@ -197,14 +211,13 @@ public class PostFragment extends Fragment {
                 if (commentToReplyTo != null) {
                     Comment c = thread.findCommentById(thread.getBodyComment(),
                             commentToReplyTo.getId());
-                    c.addChild(newComment);
                     int tag = PreferencesManager.getInstance().getCommentSort();
-                    SortUtil.sortComments(tag, thread.getBodyComment().getChildren());
+                    CommentTreeManager.insertComment(thread, c, newComment, tag);
+                    ThreadList.recordActivity(thread.getId(),
+                            newComment.getCommentTime());
                 } else {
                 	threadComment = new ThreadComment(newComment, title);
                     CacheManager.getInstance().serializeThreadList(ThreadList.getThreads());
-                    int tag = PreferencesManager.getInstance().getThreadSort();
-                    SortUtil.sortThreads(tag, ThreadList.getThreads());
                 }
             	if (!ConnectivityHelper.getInstance().isConnected()) {
             		CacheManager cacheManager = CacheManager.getInstance();
@@ -33,6 +33,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ListView;
@@ -49,10 +51,14 @@ import com.teamshodan.geochan.managers.CacheManager;
 import com.teamshodan.geochan.managers.PreferencesManager;
 import com.teamshodan.geochan.managers.ThreadManager;
 import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ModelRegistry;
 import com.teamshodan.geochan.models.ThreadComment;
 import com.teamshodan.geochan.models.ThreadList;
+import com.teamshodan.geochan.models.ThreadListSnapshot;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 
 import uk.co.senab.actionbarpulltorefresh.library.ActionBarPullToRefresh;
 import uk.co.senab.actionbarpulltorefresh.library.PullToRefreshLayout;
@@ -78,6 +84,11 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 	private PreferencesManager prefManager = null;
 	private static boolean refresh = false;
 	private static int locSortFlag = 0;
+	private static boolean nearbyOnly = false;
+	// Distance in meters from the user that a nearby thread can be
+	private static final int NEARBY_RADIUS = 5000;
+	// Threads past the visible ones that are ranked before they scroll in
+	private static final int RANK_MARGIN = 20;
 
 	/**
 	 * Set up the fragment UI.
@@ -125,12 +136,11 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 	public void onResume() {
 		if (locSortFlag == 1) {
 			prefManager.setThreadSort(SortUtil.SORT_LOCATION);
-			SortUtil.sortThreads(SortUtil.SORT_LOCATION,
-					ThreadList.getThreads());
-			adapter.notifyDataSetChanged();
+			ThreadList.sortThreads(SortUtil.SORT_LOCATION);
 			locSortFlag = 0;
 		}
-		adapter.notifyDataSetChanged();
+		// Threads may have moved while another fragment was shown
+		adapter.setList(getVisibleThreads());
 		super.onResume();
 	}
 	
@@ -142,6 +152,7 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 	public void onPrepareOptionsMenu(Menu menu){
 		int sortType = prefManager.getThreadSort();
 		setSortCheck(sortType, menu);
+		menu.findItem(R.id.action_nearby).setChecked(nearbyOnly);
 		super.onPrepareOptionsMenu(menu);
 	}
 
@@ -251,8 +262,8 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 				R.id.thread_list);
 		// On start, get the threadList from the cache
 		ArrayList<ThreadComment> list = cacheManager.deserializeThreadList();
-		ThreadList.setThreads(list);
-		adapter = new ThreadListAdapter(getActivity(), ThreadList.getThreads());
+		ThreadList.setThreads(list, prefManager.getThreadSort());
+		adapter = new ThreadListAdapter(getActivity(), getVisibleThreads());
 		threadListView.setAdapter(adapter);
 
 		threadListView.setOnItemClickListener(new OnItemClickListener() {
@@ -264,9 +275,10 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 					int position, long id) {
 				Fragment fragment = new ThreadViewFragment();
 				Bundle bundle = new Bundle();
-				bundle.putParcelable("thread",
-						ThreadList.getThreads().get((int) id));
-				bundle.putLong("id", id);
+				ThreadComment thread = adapter.getItem(position);
+				ModelRegistry.register(thread);
+				bundle.putString("threadId", thread.getId());
+				bundle.putParcelable("thread", thread);
 				fragment.setArguments(bundle);
 				getFragmentManager()
 						.beginTransaction()
@@ -276,11 +288,31 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 				getFragmentManager().executePendingTransactions();
 			}
 		});
-		
-		int sort = prefManager.getThreadSort();
-		SortUtil.sortThreads(sort, ThreadList.getThreads());
-		//setSortCheck(sort);
-		adapter.notifyDataSetChanged();
+
+		threadListView.setOnScrollListener(new OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+				if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+					prefetchVisibleThreads();
+				}
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) {
+				// Prefetching only happens once scrolling stops, but a
+				// partially ranked list is ranked ahead of the scroll
+				ThreadListSnapshot current = ThreadList.getSnapshot();
+				int needed = firstVisibleItem + visibleItemCount
+						+ RANK_MARGIN;
+				if (current.getSortRequest() != null
+						&& !current.isFullyRanked()
+						&& needed >= current.getRankedCount()) {
+					ThreadList.extendRanking(needed);
+					adapter.setList(getVisibleThreads());
+				}
+			}
+		});
 
 		// Toggle PullToRefresh programatically on start
 		if (!refresh && connectHelper.isConnected()) {
@@ -321,35 +353,31 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 			// User wants to push new threads to the top.
 			item.setChecked(true);
 			prefManager.setThreadSort(SortUtil.SORT_DATE_NEWEST);
-			SortUtil.sortThreads(SortUtil.SORT_DATE_NEWEST,
-					ThreadList.getThreads());
-			adapter.notifyDataSetChanged();
+			ThreadList.sortThreads(SortUtil.SORT_DATE_NEWEST);
+			adapter.setList(getVisibleThreads());
 			return true;
 		case R.id.thread_sort_date_old:
 			// User wants to push old threads to the top.
 			item.setChecked(true);
 			prefManager.setThreadSort(SortUtil.SORT_DATE_OLDEST);
-			SortUtil.sortThreads(SortUtil.SORT_DATE_OLDEST,
-					ThreadList.getThreads());
-			adapter.notifyDataSetChanged();
+			ThreadList.sortThreads(SortUtil.SORT_DATE_OLDEST);
+			adapter.setList(getVisibleThreads());
 			return true;
 		case R.id.thread_sort_score_high:
 			// User wants threads with high relevance/score at the top.
 			item.setChecked(true);
 			prefManager.setThreadSort(SortUtil.SORT_USER_SCORE_HIGHEST);
 			SortUtil.setThreadSortGeo(new GeoLocation(locationListener));
-			SortUtil.sortThreads(SortUtil.SORT_USER_SCORE_HIGHEST,
-					ThreadList.getThreads());
-			adapter.notifyDataSetChanged();
+			ThreadList.sortThreads(SortUtil.SORT_USER_SCORE_HIGHEST);
+			adapter.setList(getVisibleThreads());
 			return true;
 		case R.id.thread_sort_score_low:
 			// User wants threads with low relevance/score at the top.
 			item.setChecked(true);
 			prefManager.setThreadSort(SortUtil.SORT_USER_SCORE_LOWEST);
 			SortUtil.setThreadSortGeo(new GeoLocation(locationListener));
-			SortUtil.sortThreads(SortUtil.SORT_USER_SCORE_LOWEST,
-					ThreadList.getThreads());
-			adapter.notifyDataSetChanged();
+			ThreadList.sortThreads(SortUtil.SORT_USER_SCORE_LOWEST);
+			adapter.setList(getVisibleThreads());
 			return true;
 		case R.id.thread_sort_location:
 			// User wants threads close to a selected location at the top.
@@ -357,6 +385,12 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 			locSortFlag = 1;
 			this.getSortingLoc();
 			return true;
+		case R.id.action_nearby:
+			// User wants only the threads around them in the list.
+			nearbyOnly = !item.isChecked();
+			item.setChecked(nearbyOnly);
+			adapter.setList(getVisibleThreads());
+			return true;
 		default:
 			return super.onOptionsItemSelected(item);
 		}
@@ -372,19 +406,89 @@ public class ThreadListFragment extends Fragment implements OnRefreshListener, U
 	}
 
 	/**
-	 * Stores the retrieved ThreadComments in cache in case connection dies,
-	 * applies the current sorting method to the newly retrieved ThreadComments,
-	 * and refreshes the adapter so that they display properly.
+	 * Stores the retrieved ThreadComments in cache in case connection dies and
+	 * binds the adapter to the latest ThreadList snapshot. The snapshot has
+	 * already been sorted off the UI thread by the retrieving task.
 	 */
 	public void finishReload() {
 		cacheManager.serializeThreadList(ThreadList.getThreads());
-		SortUtil.sortThreads(prefManager.getThreadSort(),
-				ThreadList.getThreads());
-		adapter = new ThreadListAdapter(getActivity(), ThreadList.getThreads());
-		// Assign custom adapter to the thread listView.
-		threadListView.setAdapter(adapter);
-		adapter.notifyDataSetChanged();
+		adapter.setList(getVisibleThreads());
         pullToRefreshLayout.setRefreshComplete();
+		prefetchVisibleThreads();
+	}
+
+	/**
+	 * Shows a ThreadComment that was inserted into the ThreadList in sort
+	 * order, keeping the rows the user is looking at in place if it went in
+	 * above them.
+	 * 
+	 * @param position
+	 *            The position the ThreadComment was inserted at.
+	 */
+	public void onThreadInserted(int position) {
+		cacheManager.serializeThreadList(ThreadList.getThreads());
+		int first = threadListView.getFirstVisiblePosition();
+		View firstView = threadListView.getChildAt(0);
+		int top = firstView == null ? 0 : firstView.getTop();
+		ThreadComment inserted = ThreadList.getThreads().get(position);
+		List<ThreadComment> visible = getVisibleThreads();
+		adapter.setList(visible);
+		// The list may be filtered, so find where the thread is shown
+		position = visible.indexOf(inserted);
+		if (position >= 0 && position < first) {
+			threadListView.setSelectionFromTop(first + 1, top);
+		}
+	}
+
+	/**
+	 * Returns the ThreadComments the list shows: all of the ThreadList, or
+	 * only the threads within NEARBY_RADIUS of the user when the nearby
+	 * filter is on. Filtered threads keep the ThreadList's order, so a
+	 * partially ranked list is ranked in full before it is filtered.
+	 * 
+	 * @return The ThreadComments to bind to the adapter.
+	 */
+	private List<ThreadComment> getVisibleThreads() {
+		if (!nearbyOnly) {
+			return ThreadList.getThreads();
+		}
+		GeoLocation here = new GeoLocation(locationListener);
+		if (!here.hasCoordinates()) {
+			Toaster.toastShort("Could not get your location.");
+			return ThreadList.getThreads();
+		}
+		ThreadList.extendRanking(ThreadList.getSnapshot().size() - 1);
+		HashSet<String> nearbyIds = new HashSet<String>();
+		for (ThreadComment thread : ThreadList.findThreadsWithin(here,
+				NEARBY_RADIUS)) {
+			nearbyIds.add(thread.getId());
+		}
+		List<ThreadComment> visible = new ArrayList<ThreadComment>();
+		for (ThreadComment thread : ThreadList.getThreads()) {
+			if (nearbyIds.contains(thread.getId())) {
+				visible.add(thread);
+			}
+		}
+		return visible;
+	}
+
+	/**
+	 * Asks the ThreadManager to prefetch the comments of the threads currently
+	 * visible in the list, starting from the top of the screen.
+	 */
+	private void prefetchVisibleThreads() {
+		int first = threadListView.getFirstVisiblePosition();
+		int last = threadListView.getLastVisiblePosition();
+		if (last < first) {
+			// Not laid out yet, assume the top of the list is visible
+			last = adapter.getCount() - 1;
+		}
+		last = Math.min(last, adapter.getCount() - 1);
+		List<ThreadComment> visible = new ArrayList<ThreadComment>();
+		for (int i = first; i <= last; ++i) {
+			visible.add(adapter.getItem(i));
+		}
+		ThreadManager.startPrefetch(visible);
 	}
 
     @Override
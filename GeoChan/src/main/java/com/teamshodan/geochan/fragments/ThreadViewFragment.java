@@ -44,18 +44,23 @@ import com.teamshodan.geochan.R;
 import com.teamshodan.geochan.adapters.ThreadViewAdapter;
 import com.teamshodan.geochan.helpers.ConnectivityBroadcastReceiver;
 import com.teamshodan.geochan.helpers.ConnectivityHelper;
-import com.teamshodan.geochan.helpers.HashHelper;
 import com.teamshodan.geochan.helpers.LocationListenerService;
+import com.teamshodan.geochan.helpers.SortRequest;
 import com.teamshodan.geochan.helpers.SortUtil;
 import com.teamshodan.geochan.helpers.Toaster;
+import com.teamshodan.geochan.interfaces.CommentTreeListenerInterface;
 import com.teamshodan.geochan.interfaces.UpdateDialogListenerInterface;
 import com.teamshodan.geochan.managers.CacheManager;
+import com.teamshodan.geochan.managers.CommentTreeManager;
 import com.teamshodan.geochan.managers.PreferencesManager;
 import com.teamshodan.geochan.managers.ThreadManager;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.FavouritesLog;
 import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ModelRegistry;
 import com.teamshodan.geochan.models.ThreadComment;
+import com.teamshodan.geochan.models.ThreadList;
+import com.teamshodan.geochan.tasks.SortCommentsTask;
 
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
@@ -72,12 +77,12 @@ import uk.co.senab.actionbarpulltorefresh.library.listeners.OnRefreshListener;
  * @author Henry Pabst
  * @author Artem Chikin
  */
-public class ThreadViewFragment extends Fragment implements OnRefreshListener, UpdateDialogListenerInterface {
+public class ThreadViewFragment extends Fragment implements OnRefreshListener, UpdateDialogListenerInterface,
+        CommentTreeListenerInterface {
     private BroadcastReceiver updateReceiver;
     private PullToRefreshLayout pullToRefreshLayout;
     private ListView threadView;
     private ThreadViewAdapter adapter;
-    private int threadIndex;
     private CacheManager cache = null;
     private ThreadComment thread = null;
     private ConnectivityHelper connectHelper = null;
@@ -86,6 +91,9 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
     private int container;
     private int isFavCom;
     private boolean refresh = false;
+    private SortCommentsTask sortTask = null;
+    // Stubs whose replies are being loaded
+    private final ArrayList<Comment> loadingStubs = new ArrayList<Comment>();
     private static int locSortFlag = 0;
 
     /**
@@ -99,27 +107,44 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Bundle bundle = getArguments();
-        threadIndex = (int) bundle.getLong("id");
         isFavCom = bundle.getInt("favCom");
-        thread = bundle.getParcelable("thread");
-        // Assign custom adapter to the thread listView.
-        adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager(), threadIndex);
+        thread = ModelRegistry.getThread(bundle.getString("threadId"));
+        if (thread == null) {
+            // The process was restarted, so only the compact copy is left
+            thread = bundle.getParcelable("thread");
+        }
         if (isFavCom != -1) {
             connectHelper = ConnectivityHelper.getInstance();
             cache = CacheManager.getInstance();
             ArrayList<Comment> comments = cache.deserializeThreadCommentById(thread.getId());
             if (comments != null) {
-                thread.getBodyComment().setChildren(comments);
+                // The registered thread may be shown elsewhere, so the cached
+                // replies go on a copy published in its place
+                thread = thread.withReplies(comments);
+                ThreadList.replaceThread(thread);
             }
             if (!connectHelper.isConnected()) {
                 Toaster.toastShort("No network connection.");
             }
         }
+        ModelRegistry.register(thread);
+        // Assign custom adapter to the thread listView.
+        adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager());
+        CommentTreeManager.addListener(this);
         if (prefManager == null) {
             prefManager = PreferencesManager.getInstance();
         }
     }
 
+    /**
+     * Stops listening for changes to comment trees.
+     */
+    @Override
+    public void onDestroy() {
+        CommentTreeManager.removeListener(this);
+        super.onDestroy();
+    }
+
     /**
      * Sets the proper sort option in our options menu.
      *
@@ -183,11 +208,7 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
         }
         if (locSortFlag == 1) {
             prefManager.setCommentSort(SortUtil.SORT_LOCATION);
-            SortUtil.sortComments(SortUtil.SORT_LOCATION, thread.getBodyComment().getChildren());
-            adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager(),
-                    threadIndex);
-            threadView.setAdapter(adapter);
-            adapter.notifyDataSetChanged();
+            sortComments(SortUtil.SORT_LOCATION);
             locSortFlag = 0;
         }
         super.onResume();
@@ -232,15 +253,23 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
         pullToRefreshLayout = (PullToRefreshLayout) getActivity().findViewById(R.id.ptr_view);
         ActionBarPullToRefresh.from(getActivity()).allChildrenArePullable().listener(this).setup(pullToRefreshLayout);
         threadView = (ListView) getView().findViewById(R.id.thread_view_list);
-        adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager(), threadIndex);
+        // Changes made while another fragment was shown have been patched
+        // into the adapter already
+        if (adapter == null || adapter.getThread() != thread) {
+            adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager());
+        }
         threadView.setAdapter(adapter);
         adapter.notifyDataSetChanged();
         threadView.setOnItemClickListener(commentButtonListener);
 
-        // Toggle PullToRefresh programatically on start
+        // Toggle PullToRefresh programatically on start, unless the comments
+        // were just prefetched
+        if (!refresh && ThreadManager.hasFreshComments(thread.getId())) {
+            refresh = true;
+        }
         if (!refresh && isFavCom != -1 && connectHelper.isConnected()) {
             pullToRefreshLayout.setRefreshing(true);
-            ThreadManager.startGetComments(this, threadIndex);
+            ThreadManager.startGetComments(this, thread.getId());
             refresh = true;
         }
 
@@ -329,17 +358,17 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
 
     /**
      * Set up and launch the postCommentFragment when the user wishes to reply
-     * to a comment. The fragment takes as input the index of the thread and the
-     * comment object to reply to.
+     * to a comment. The fragment takes as input the ids of the thread and of
+     * the comment to reply to, and finds the thread in the ModelRegistry.
      *
      * @param comment     The Comment being replied to.
-     * @param threadIndex The index of the ThreadComment where the reply is taking place.
+     * @param threadId    The id of the ThreadComment where the reply is taking place.
      */
-    public void replyToComment(Comment comment, int threadIndex) {
+    public void replyToComment(Comment comment, String threadId) {
         Fragment fragment = new PostFragment();
         Bundle bundle = new Bundle();
-        bundle.putParcelable("cmt", comment);
-        bundle.putLong("id", threadIndex);
+        bundle.putString("commentId", comment.getId());
+        bundle.putString("threadId", threadId);
         fragment.setArguments(bundle);
         boolean fromFavs = false;
         Fragment fav = getFragmentManager().findFragmentByTag("favThrFragment");
@@ -367,10 +396,14 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
             if (getArguments().getInt("favCom") == -1) {
                 return;
             }
-            LayoutInflater inflater = (LayoutInflater) view.getContext().getSystemService(
-                    Context.LAYOUT_INFLATER_SERVICE);
             // "+1" is necessary because of PullToRefresh
             final Comment comment = (Comment) threadView.getItemAtPosition(position);
+            if (comment.isStub()) {
+                loadReplies(comment);
+                return;
+            }
+            LayoutInflater inflater = (LayoutInflater) view.getContext().getSystemService(
+                    Context.LAYOUT_INFLATER_SERVICE);
             RelativeLayout relativeInflater = (RelativeLayout) view
                     .findViewById(R.id.relative_inflater);
             View child = inflater.inflate(R.layout.comment_buttons, null);
@@ -405,7 +438,7 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
 
             // Check if the comment is by the user to decide
             // wether or not to display the edit button.
-            if (HashHelper.getHash(comment.getUser()).equals(comment.getHash())) {
+            if (comment.isByThisDevice()) {
                 final ImageButton editButton = (ImageButton) view
                         .findViewById(R.id.comment_edit_button);
                 editButton.setVisibility(View.VISIBLE);
@@ -443,7 +476,7 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
             replyButton.setOnClickListener(new View.OnClickListener() {
                 public void onClick(View v) {
                     // Perform action on click
-                    replyToComment(comment, threadIndex);
+                    replyToComment(comment, thread.getId());
                 }
             });
 
@@ -459,7 +492,7 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
         Fragment fragment = new EditFragment();
         Bundle bundle = new Bundle();
         boolean fromFavs = false;
-        bundle.putInt("threadIndex", threadIndex);
+        bundle.putString("threadId", thread.getId());
         bundle.putString("commentId", comment.getId());
         Fragment fav = getFragmentManager().findFragmentByTag("favThrFragment");
         if (fav != null) {
@@ -550,8 +583,38 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
      */
     private void sortByTag(int tag) {
         prefManager.setCommentSort(tag);
-        SortUtil.sortComments(tag, thread.getBodyComment().getChildren());
-        adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager(), threadIndex);
+        sortComments(tag);
+    }
+
+    /**
+     * Starts sorting the thread's comments off the UI thread, cancelling any
+     * sort still running. The adapter is reset in finishSort once the sorted
+     * tree is ready.
+     *
+     * @param tag tag to sort by. Tags are defined in SortUtil.java
+     */
+    private void sortComments(int tag) {
+        if (sortTask != null) {
+            sortTask.cancel();
+        }
+        sortTask = ThreadManager.startSortComments(this, thread,
+                SortRequest.forComments(tag));
+    }
+
+    /**
+     * Resets the adapter to show the sorted comment tree, unless a newer sort
+     * or thread has replaced the one the task sorted.
+     *
+     * @param task The task that sorted the comments.
+     */
+    public void finishSort(SortCommentsTask task) {
+        if (task != sortTask || task.getThreadComment() != thread
+                || threadView == null || getActivity() == null) {
+            return;
+        }
+        sortTask = null;
+        adapter = new ThreadViewAdapter(getActivity(), thread,
+                task.getFlattened(), getFragmentManager());
         threadView.setAdapter(adapter);
         adapter.notifyDataSetChanged();
     }
@@ -575,21 +638,82 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
      */
     @Override
     public void reload() {
-        ThreadManager.startGetComments(this, threadIndex);
+        ThreadManager.startGetComments(this, thread.getId());
     }
 
     /**
-     * On finishing pullToRefresh reload, notify the adapter.
+     * On finishing pullToRefresh reload, sort the comments off the UI thread
+     * and show them once sorted. The thread is
+     * looked up again by id in case the ThreadList was refreshed while the
+     * comments were loading.
      */
     public void finishReload() {
-        SortUtil.sortComments(prefManager.getCommentSort(), thread.getBodyComment().getChildren());
-        adapter = new ThreadViewAdapter(getActivity(), thread, getFragmentManager(), threadIndex);
-        // Assign custom adapter to the thread listView.
-        threadView.setAdapter(adapter);
-        adapter.notifyDataSetChanged();
+        finishReload(null);
+    }
+
+    /**
+     * On finishing a reload that produced a new copy of the thread with its
+     * comments, shows that copy instead of the thread shown before, and
+     * registers it so fragments opened from here work on it.
+     *
+     * @param loaded The loaded copy of the thread, or null if there is none.
+     */
+    public void finishReload(ThreadComment loaded) {
+        ThreadComment latest = loaded;
+        if (latest == null) {
+            latest = ThreadList.findThreadById(thread.getId());
+        }
+        if (latest != null) {
+            thread = latest;
+            ModelRegistry.register(thread);
+        }
+        // The adapter is assigned once the comments are sorted
+        sortComments(prefManager.getCommentSort());
         pullToRefreshLayout.setRefreshComplete();
     }
 
+    /**
+     * Starts loading the replies a stub stands in for, unless they are
+     * already being loaded.
+     *
+     * @param stub The stub that was selected.
+     */
+    private void loadReplies(Comment stub) {
+        if (!connectHelper.isConnected()) {
+            Toaster.toastShort("No network connection.");
+            return;
+        }
+        if (!loadingStubs.contains(stub)) {
+            loadingStubs.add(stub);
+            ThreadManager.startGetReplies(this, thread.getId(), stub);
+        }
+    }
+
+    /**
+     * Puts the replies loaded for a stub into the tree in its place. The
+     * adapter is updated through onRepliesLoaded.
+     *
+     * @param stub The stub the replies were loaded for.
+     * @param replies The loaded replies.
+     */
+    public void finishLoadReplies(Comment stub, ArrayList<Comment> replies) {
+        loadingStubs.remove(stub);
+        if (replies != null) {
+            CommentTreeManager.attachReplies(thread, stub, replies,
+                    prefManager.getCommentSort());
+        }
+    }
+
+    /**
+     * Lets a stub be selected again after loading its replies failed.
+     *
+     * @param stub The stub the replies were loaded for.
+     */
+    public void failLoadReplies(Comment stub) {
+        loadingStubs.remove(stub);
+        Toaster.toastShort("Could not load replies.");
+    }
+
     @Override
     public void onRefreshStarted(View view) {
         if (!connectHelper.isConnected()) {
@@ -601,4 +725,58 @@ public class ThreadViewFragment extends Fragment implements OnRefreshListener, U
             reload();
         }
     }
+
+    public ThreadComment getThread() {
+        return thread;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCommentInserted(ThreadComment changed, Comment comment) {
+        if (adapter != null && changed.getId().equals(thread.getId())) {
+            adapter.insertComment(comment);
+        }
+    }
+
+    /**
+     * Rebinds only the row of the edited Comment, if it is on screen.
+     */
+    @Override
+    public void onCommentChanged(ThreadComment changed, Comment comment) {
+        if (adapter == null || threadView == null || getView() == null
+                || !changed.getId().equals(thread.getId())) {
+            return;
+        }
+        int position = adapter.getPositionOfComment(comment);
+        int first = threadView.getFirstVisiblePosition();
+        if (position < first || position > threadView.getLastVisiblePosition()) {
+            return;
+        }
+        View row = threadView.getChildAt(position - first);
+        if (row != null) {
+            adapter.getView(position, row, threadView);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCommentRemoved(ThreadComment changed, Comment comment) {
+        if (adapter != null && changed.getId().equals(thread.getId())) {
+            adapter.removeComment(comment);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRepliesLoaded(ThreadComment changed, Comment parent) {
+        if (adapter != null && changed.getId().equals(thread.getId())) {
+            adapter.refreshReplies(parent);
+        }
+    }
 }
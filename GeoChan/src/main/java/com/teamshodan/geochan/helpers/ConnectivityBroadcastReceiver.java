@@ -26,6 +26,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 
+import com.teamshodan.geochan.interfaces.OutboxProgressListenerInterface;
 import com.teamshodan.geochan.managers.CacheManager;
 
 /**
@@ -57,7 +58,15 @@ public class ConnectivityBroadcastReceiver extends BroadcastReceiver {
         	packageManager.setComponentEnabledSetting(reciever, PackageManager.COMPONENT_ENABLED_STATE_DISABLED, PackageManager.DONT_KILL_APP);
         	
         	CacheManager cacheManager = CacheManager.getInstance();
-        	cacheManager.postAll();
+        	cacheManager.postAll(new OutboxProgressListenerInterface() {
+        		@Override
+        		public void onOutboxProgress(int posted, int failed, int total) {
+        			if (total > 0 && posted + failed == total) {
+        				Toaster.toastShort("Posted " + posted + " of " + total
+        						+ " offline posts.");
+        			}
+        		}
+        	});
         	
         	Intent i = new Intent();
         	i.setAction(UPDATE_FROM_SERVER_INTENT);
@@ -25,6 +25,7 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
 
 /**
  * Provides status about the user's current Internet connection.
@@ -108,6 +109,19 @@ public class ConnectivityHelper {
         return (isConnected() && (activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE));
     }
     
+    /**
+     * Returns true if device is connected to a network that is not metered,
+     * such as WiFi. Before Jelly Bean, only WiFi is treated as unmetered.
+     * 
+     * @return The unmetered status.
+     */
+    public boolean isUnmetered() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return (isConnected() && !connectivityManager.isActiveNetworkMetered());
+        }
+        return isWifi();
+    }
+    
     /* Getters and setters below */
     
     public void setWasNotConnected(boolean _wasNotConnected) {
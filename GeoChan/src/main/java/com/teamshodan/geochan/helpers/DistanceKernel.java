@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.helpers;
+
+import com.teamshodan.geochan.models.GeoLocation;
+
+/**
+ * Computes great-circle distances in meters from one fixed origin to many
+ * points. The origin's latitude is converted to radians and its cosine is
+ * computed once, so each distance only costs the trigonometry of the other
+ * point. Used when sorting or filtering many comments by distance.
+ */
+public class DistanceKernel {
+
+    // Distance given to a missing location: half way round the earth
+    public static final double UNKNOWN_DISTANCE = Math.PI
+            * GeoLocation.EARTH_RADIUS;
+
+    private final double originLat;
+    private final double originLong;
+    private final double cosOriginLat;
+
+    /**
+     * Constructs a kernel measuring distances from the passed coordinates.
+     * 
+     * @param latitude
+     *            The latitude of the origin in degrees.
+     * @param longitude
+     *            The longitude of the origin in degrees.
+     */
+    public DistanceKernel(double latitude, double longitude) {
+        this.originLat = Math.toRadians(latitude);
+        this.originLong = Math.toRadians(longitude);
+        this.cosOriginLat = Math.cos(originLat);
+    }
+
+    /**
+     * Constructs a kernel measuring distances from the passed GeoLocation.
+     * 
+     * @param origin
+     *            The GeoLocation to measure from.
+     */
+    public DistanceKernel(GeoLocation origin) {
+        this(origin.getLatitude(), origin.getLongitude());
+    }
+
+    /**
+     * Returns the haversine distance in meters from the origin to a point.
+     * 
+     * @param latitude
+     *            The latitude of the point in degrees.
+     * @param longitude
+     *            The longitude of the point in degrees.
+     * @return The distance in meters.
+     */
+    public double distance(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double sinHalfLat = Math.sin((lat - originLat) / 2);
+        double sinHalfLong = Math.sin((Math.toRadians(longitude) - originLong) / 2);
+        double a = sinHalfLat * sinHalfLat + cosOriginLat * Math.cos(lat)
+                * sinHalfLong * sinHalfLong;
+        return 2 * GeoLocation.EARTH_RADIUS
+                * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Returns the haversine distance in meters from the origin to a
+     * GeoLocation. A missing location is taken to be on the far side of the
+     * earth, so it is farther than any known location. Every sort and ranking
+     * of threads by distance measures through this, so they all place threads
+     * without a location the same way.
+     * 
+     * @param point
+     *            The GeoLocation, may be null.
+     * @return The distance in meters, or UNKNOWN_DISTANCE.
+     */
+    public double distance(GeoLocation point) {
+        if (point == null) {
+            return UNKNOWN_DISTANCE;
+        }
+        return distance(point.getLatitude(), point.getLongitude());
+    }
+
+    /**
+     * Computes the distance in meters from the origin to each point of a
+     * coordinate array.
+     * 
+     * @param latitudes
+     *            The latitudes of the points in degrees.
+     * @param longitudes
+     *            The longitudes of the points in degrees.
+     * @param distances
+     *            The array the distances are written to, at least as long as
+     *            the coordinate arrays.
+     */
+    public void distances(double[] latitudes, double[] longitudes,
+            double[] distances) {
+        for (int i = 0; i < latitudes.length; ++i) {
+            distances[i] = distance(latitudes[i], longitudes[i]);
+        }
+    }
+}
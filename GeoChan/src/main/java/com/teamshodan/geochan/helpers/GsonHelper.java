@@ -29,10 +29,12 @@ import com.google.gson.GsonBuilder;
 import com.teamshodan.geochan.json.BitmapJsonConverter;
 import com.teamshodan.geochan.json.CommentJsonConverter;
 import com.teamshodan.geochan.json.CommentOfflineJsonConverter;
+import com.teamshodan.geochan.json.GeoLocationJsonConverter;
 import com.teamshodan.geochan.json.LocationJsonConverter;
 import com.teamshodan.geochan.json.ThreadCommentJsonConverter;
 import com.teamshodan.geochan.json.ThreadCommentOfflineJsonConverter;
 import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.GeoLocation;
 import com.teamshodan.geochan.models.ThreadComment;
 
 /**
@@ -53,11 +55,13 @@ public class GsonHelper {
         builder.registerTypeAdapter(ThreadComment.class, new ThreadCommentJsonConverter());
         builder.registerTypeAdapter(Bitmap.class, new BitmapJsonConverter());
         builder.registerTypeAdapter(Location.class, new LocationJsonConverter());
+        builder.registerTypeAdapter(GeoLocation.class, new GeoLocationJsonConverter());
         onlineGson = builder.create();
         builder = new GsonBuilder();
         builder.registerTypeAdapter(Comment.class, new CommentOfflineJsonConverter());
         builder.registerTypeAdapter(ThreadComment.class, new ThreadCommentOfflineJsonConverter());
         builder.registerTypeAdapter(Location.class, new LocationJsonConverter());
+        builder.registerTypeAdapter(GeoLocation.class, new GeoLocationJsonConverter());
         offlineGson = builder.create();
         builder = new GsonBuilder();
         exposeGson = builder.excludeFieldsWithoutExposeAnnotation().create();
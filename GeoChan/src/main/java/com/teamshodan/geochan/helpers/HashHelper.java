@@ -22,15 +22,26 @@ package com.teamshodan.geochan.helpers;
 
 import java.util.Date;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.teamshodan.geochan.managers.PreferencesManager;
 
 /**
  * Helper class. Generates hashes used in identifying Comments and users.
+ * 
+ * The Android ID never changes, so its hashcode is read once. The hash of the
+ * current username is kept until the username changes, which also moves the
+ * identity version on, so that ownership flags cached on Comments are
+ * computed again.
+ * 
  * @author Artem Chikin
  * 
  */
 public class HashHelper {
+    private static volatile Integer deviceIdHash = null;
+    private static volatile String currentUserHash = null;
+    private static final AtomicInteger identityVersion = new AtomicInteger(1);
+
     /**
      * Returns a hashcode calculated based on the user's Android ID and
      * username.
@@ -38,10 +49,7 @@ public class HashHelper {
      * @return The hashcode as a String.
      */
     public static String getHash() {
-        String user = PreferencesManager.getInstance().getUser();
-        int id = PreferencesManager.getInstance().getId().hashCode();
-        int temp = (id + id + id * 3 + user.hashCode()) / 42;
-        return Integer.toHexString(temp + id);
+        return getCurrentUserHash();
     }
 
     /**
@@ -51,11 +59,54 @@ public class HashHelper {
      *            The username.
      */
     public static String getHash(String string) {
-        int id = PreferencesManager.getInstance().getId().hashCode();
+        int id = getDeviceIdHash();
         int temp = (id + id + id * 3 + string.hashCode()) / 42;
         return Integer.toHexString(temp + id);
     }
 
+    /**
+     * Returns the hash of the current username, computed once per username.
+     * 
+     * @return The hashcode as a String.
+     */
+    public static String getCurrentUserHash() {
+        String hash = currentUserHash;
+        if (hash == null) {
+            hash = getHash(PreferencesManager.getInstance().getUser());
+            currentUserHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the version of the user's identity, which changes whenever the
+     * username does. Values computed from the identity can be cached with the
+     * version they were computed at.
+     * 
+     * @return The identity version, never 0.
+     */
+    public static int getIdentityVersion() {
+        return identityVersion.get();
+    }
+
+    /**
+     * Records that the username changed, dropping the cached hash of the old
+     * one and moving the identity version on.
+     */
+    public static void identityChanged() {
+        currentUserHash = null;
+        identityVersion.incrementAndGet();
+    }
+
+    private static int getDeviceIdHash() {
+        Integer id = deviceIdHash;
+        if (id == null) {
+            id = PreferencesManager.getInstance().getId().hashCode();
+            deviceIdHash = id;
+        }
+        return id;
+    }
+
     /**
      * Generates an ID for a Comment.
      * 
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.teamshodan.geochan.models.ThreadComment;
+
+/**
+ * Ranks ThreadComments by a time-decayed "hot" score measured from one
+ * origin, and keeps the ranking up to date as threads gain activity.
+ *
+ * A thread's score is the sum of one term per piece of activity, each decaying
+ * exponentially with age, weighted by the thread's distance from the origin.
+ * Since every term decays at the same rate, the order of two threads never
+ * changes with the passage of time, so the score is kept in log space as
+ * time / DECAY_MILLIS rather than measured against the current time. Adding
+ * activity only raises one thread's score, which the indexed heap repairs in
+ * O(log n) without scoring any other thread again.
+ *
+ * Instances are not thread safe.
+ */
+public class HotRanking {
+
+    // Activity this much older counts for 1/e as much
+    public static final long DECAY_MILLIS = 12 * 60 * 60 * 1000;
+    // Threads closer than this all get the weight of this distance
+    private static final double MIN_DISTANCE = 100;
+    // A thread's weight falls with this power of its distance
+    private static final double DISTANCE_EXPONENT = 0.5;
+
+    private final double originLatitude;
+    private final double originLongitude;
+    private final DistanceKernel kernel;
+    private final HashMap<String, Integer> positions;
+    private ThreadComment[] heap;
+    private double[] scores;
+    private int size;
+
+    /**
+     * Constructs a HotRanking of the passed ThreadComments measured from the
+     * passed origin. Scoring every thread and building the heap takes O(n).
+     *
+     * @param originLatitude
+     *            The latitude of the origin in degrees.
+     * @param originLongitude
+     *            The longitude of the origin in degrees.
+     * @param threads
+     *            The ThreadComments to rank.
+     */
+    public HotRanking(double originLatitude, double originLongitude,
+            List<ThreadComment> threads) {
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.kernel = new DistanceKernel(originLatitude, originLongitude);
+        int capacity = Math.max(16, threads.size());
+        this.positions = new HashMap<String, Integer>(capacity * 2);
+        this.heap = new ThreadComment[capacity];
+        this.scores = new double[capacity];
+        for (ThreadComment thread : threads) {
+            if (positions.containsKey(thread.getId())) {
+                continue;
+            }
+            heap[size] = thread;
+            scores[size] = score(kernel, thread);
+            positions.put(thread.getId(), size);
+            size++;
+        }
+        for (int i = size / 2 - 1; i >= 0; --i) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Returns the log-space score of a single piece of activity at the passed
+     * time.
+     *
+     * @param time
+     *            The time of the activity in milliseconds since the epoch.
+     * @return The activity score.
+     */
+    public static double activityScore(long time) {
+        return time / (double) DECAY_MILLIS;
+    }
+
+    /**
+     * Adds a piece of activity to a log-space activity score. The terms are
+     * summed as exponentials, computed relative to the larger one so nothing
+     * overflows.
+     *
+     * @param activity
+     *            The activity score so far.
+     * @param time
+     *            The time of the new activity in milliseconds since the
+     *            epoch.
+     * @return The combined activity score.
+     */
+    public static double addActivity(double activity, long time) {
+        double added = activityScore(time);
+        double high = Math.max(activity, added);
+        double low = Math.min(activity, added);
+        return high + Math.log1p(Math.exp(low - high));
+    }
+
+    /**
+     * Returns the hot score of a thread from its distance to the origin and
+     * its activity score. Higher scores are hotter.
+     *
+     * @param distance
+     *            The distance in meters between the thread and the origin.
+     * @param activity
+     *            The thread's log-space activity score.
+     * @return The hot score.
+     */
+    private static double hotScore(double distance, double activity) {
+        double scaled = Math.max(distance, MIN_DISTANCE) / MIN_DISTANCE;
+        return activity - DISTANCE_EXPONENT * Math.log(scaled);
+    }
+
+    /**
+     * Computes the hot score of a ThreadComment measured with the passed
+     * DistanceKernel. A thread without a location is treated as being on the
+     * far side of the earth. Rankings kept here and batch sorts by SortUtil
+     * both score through this, so their orders agree exactly.
+     *
+     * @param kernel
+     *            The DistanceKernel measuring from the origin.
+     * @param thread
+     *            The ThreadComment to score.
+     * @return The hot score.
+     */
+    public static double score(DistanceKernel kernel, ThreadComment thread) {
+        return hotScore(kernel.distance(thread.getBodyComment().getLocation()),
+                thread.getActivityScore());
+    }
+
+    /**
+     * Returns whether the ranking measures from the passed origin.
+     *
+     * @param latitude
+     *            The latitude of the origin in degrees.
+     * @param longitude
+     *            The longitude of the origin in degrees.
+     * @return True if the origins are the same.
+     */
+    public boolean hasOrigin(double latitude, double longitude) {
+        return originLatitude == latitude && originLongitude == longitude;
+    }
+
+    /**
+     * Adds a ThreadComment to the ranking, or updates its score if it is
+     * already ranked. O(log n).
+     *
+     * @param thread
+     *            The ThreadComment to add.
+     */
+    public void add(ThreadComment thread) {
+        Integer position = positions.get(thread.getId());
+        if (position != null) {
+            heap[position] = thread;
+            update(thread);
+            return;
+        }
+        if (size == heap.length) {
+            ThreadComment[] newHeap = new ThreadComment[size * 2];
+            double[] newScores = new double[size * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            System.arraycopy(scores, 0, newScores, 0, size);
+            heap = newHeap;
+            scores = newScores;
+        }
+        heap[size] = thread;
+        scores[size] = score(kernel, thread);
+        positions.put(thread.getId(), size);
+        siftUp(size++);
+    }
+
+    /**
+     * Scores a ranked ThreadComment again after its activity changed and moves
+     * it to its new place. O(log n).
+     *
+     * @param thread
+     *            The ThreadComment whose activity changed.
+     * @return False if the ThreadComment is not ranked.
+     */
+    public boolean update(ThreadComment thread) {
+        Integer position = positions.get(thread.getId());
+        if (position == null) {
+            return false;
+        }
+        double old = scores[position];
+        scores[position] = score(kernel, thread);
+        if (scores[position] > old) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a ThreadComment from the ranking. O(log n).
+     *
+     * @param id
+     *            The id of the ThreadComment.
+     * @return False if the ThreadComment was not ranked.
+     */
+    public boolean remove(String id) {
+        Integer position = positions.remove(id);
+        if (position == null) {
+            return false;
+        }
+        size--;
+        if (position == size) {
+            heap[size] = null;
+            return true;
+        }
+        double removed = scores[position];
+        move(size, position);
+        heap[size] = null;
+        if (scores[position] > removed) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hot score of a ranked ThreadComment.
+     *
+     * @param id
+     *            The id of the ThreadComment.
+     * @return The hot score, or NaN if the ThreadComment is not ranked.
+     */
+    public double getScore(String id) {
+        Integer position = positions.get(id);
+        return position == null ? Double.NaN : scores[position];
+    }
+
+    /**
+     * Returns the hottest ThreadComments, hottest first. The heap is left as
+     * it is; a second small heap of candidate positions is walked down from
+     * the top instead, so this costs O(count log count).
+     *
+     * @param count
+     *            The number of ThreadComments to return.
+     * @return Up to count ThreadComments.
+     */
+    public List<ThreadComment> top(int count) {
+        int wanted = Math.min(count, size);
+        List<ThreadComment> result = new ArrayList<ThreadComment>(wanted);
+        if (wanted <= 0) {
+            return result;
+        }
+        // Candidate heap positions, ordered by their scores
+        int[] candidates = new int[wanted * 2 + 1];
+        int candidateCount = 0;
+        candidates[candidateCount++] = 0;
+        while (result.size() < wanted) {
+            int best = candidates[0];
+            candidates[0] = candidates[--candidateCount];
+            siftDownCandidate(candidates, candidateCount);
+            result.add(heap[best]);
+            for (int child = 2 * best + 1; child <= 2 * best + 2; ++child) {
+                if (child < size) {
+                    candidates[candidateCount] = child;
+                    siftUpCandidate(candidates, candidateCount++);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        scores[to] = scores[from];
+        positions.put(heap[to].getId(), to);
+    }
+
+    private void swap(int a, int b) {
+        ThreadComment thread = heap[a];
+        double score = scores[a];
+        heap[a] = heap[b];
+        scores[a] = scores[b];
+        heap[b] = thread;
+        scores[b] = score;
+        positions.put(heap[a].getId(), a);
+        positions.put(heap[b].getId(), b);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (scores[parent] >= scores[index]) {
+                return;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int best = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && scores[left] > scores[best]) {
+                best = left;
+            }
+            if (right < size && scores[right] > scores[best]) {
+                best = right;
+            }
+            if (best == index) {
+                return;
+            }
+            swap(best, index);
+            index = best;
+        }
+    }
+
+    private void siftUpCandidate(int[] candidates, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (scores[candidates[parent]] >= scores[candidates[index]]) {
+                return;
+            }
+            int temp = candidates[parent];
+            candidates[parent] = candidates[index];
+            candidates[index] = temp;
+            index = parent;
+        }
+    }
+
+    private void siftDownCandidate(int[] candidates, int count) {
+        int index = 0;
+        while (true) {
+            int best = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < count
+                    && scores[candidates[left]] > scores[candidates[best]]) {
+                best = left;
+            }
+            if (right < count
+                    && scores[candidates[right]] > scores[candidates[best]]) {
+                best = right;
+            }
+            if (best == index) {
+                return;
+            }
+            int temp = candidates[best];
+            candidates[best] = candidates[index];
+            candidates[index] = temp;
+            index = best;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.helpers;
+
+import java.util.Date;
+
+import com.teamshodan.geochan.models.GeoLocation;
+
+/**
+ * An immutable description of one sort: the SortUtil sort type, the origin
+ * that distances are measured from, and the time that ages are measured
+ * against. Everything a sort reads comes from its SortRequest, so sorts with
+ * different origins can run at the same time on different threads, and a
+ * request can be kept to sort more items the same way later.
+ */
+public class SortRequest {
+
+    // Score sorts started within the same span of time share cached results
+    private static final long SCORE_TIME_BUCKET = 5 * 60 * 1000;
+
+    private final int sortType;
+    private final double originLatitude;
+    private final double originLongitude;
+    // False if no location was known to measure from
+    private final boolean hasOrigin;
+    private final long referenceTime;
+
+    /**
+     * Constructs a SortRequest. Without an origin, either null or a
+     * GeoLocation without coordinates, score and location sorts fall back to
+     * sorting by date, as they did when the device had never gotten a
+     * location.
+     *
+     * @param sortType
+     *            The SortUtil sort type.
+     * @param origin
+     *            The GeoLocation to measure distances from, may be null.
+     * @param referenceTime
+     *            The time to measure ages against, in milliseconds since the
+     *            epoch.
+     */
+    public SortRequest(int sortType, GeoLocation origin, long referenceTime) {
+        this.sortType = sortType;
+        if (origin == null || !origin.hasCoordinates()) {
+            this.originLatitude = 0;
+            this.originLongitude = 0;
+            this.hasOrigin = false;
+        } else {
+            this.originLatitude = origin.getLatitude();
+            this.originLongitude = origin.getLongitude();
+            this.hasOrigin = true;
+        }
+        this.referenceTime = referenceTime;
+    }
+
+    private SortRequest(int sortType, double originLatitude,
+            double originLongitude, boolean hasOrigin, long referenceTime) {
+        this.sortType = sortType;
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.hasOrigin = hasOrigin;
+        this.referenceTime = referenceTime;
+    }
+
+    /**
+     * Constructs a SortRequest for sorting ThreadComments, measured from the
+     * thread sorting location chosen in SortUtil and the current time.
+     *
+     * @param sortType
+     *            The SortUtil sort type.
+     * @return The SortRequest.
+     */
+    public static SortRequest forThreads(int sortType) {
+        return new SortRequest(sortType, SortUtil.getThreadSortGeo(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a SortRequest for sorting Comments, measured from the
+     * comment sorting location chosen in SortUtil and the current time.
+     *
+     * @param sortType
+     *            The SortUtil sort type.
+     * @return The SortRequest.
+     */
+    public static SortRequest forComments(int sortType) {
+        return new SortRequest(sortType, SortUtil.getCommentSortGeo(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a SortRequest with the same origin and reference time but a
+     * different sort type.
+     *
+     * @param newSortType
+     *            The SortUtil sort type of the new request.
+     * @return The new SortRequest.
+     */
+    public SortRequest withSortType(int newSortType) {
+        return new SortRequest(newSortType, originLatitude, originLongitude,
+                hasOrigin, referenceTime);
+    }
+
+    /**
+     * Returns the sort type whose keys the request is sorted by. This is the
+     * request's own sort type, except without an origin, where highest score
+     * and location sorts are sorted by newest date and lowest score sorts by
+     * oldest date.
+     *
+     * @return The SortUtil sort type the keys are computed for.
+     */
+    public int getKeyType() {
+        if (hasOrigin) {
+            return sortType;
+        }
+        switch (sortType) {
+        case SortUtil.SORT_USER_SCORE_HIGHEST:
+        case SortUtil.SORT_LOCATION:
+            return SortUtil.SORT_DATE_NEWEST;
+        case SortUtil.SORT_USER_SCORE_LOWEST:
+            return SortUtil.SORT_DATE_OLDEST;
+        default:
+            return sortType;
+        }
+    }
+
+    /**
+     * Returns a DistanceKernel measuring distances from the request's origin.
+     *
+     * @return The DistanceKernel.
+     */
+    public DistanceKernel makeDistanceKernel() {
+        return new DistanceKernel(originLatitude, originLongitude);
+    }
+
+    /**
+     * Returns a key identifying the result of the request, for caching
+     * sorted orders. Requests with the same key sort any list the same way:
+     * date sorts depend only on the sort type, location sorts also on the
+     * geohash cell of the origin, and score sorts also on the span of time
+     * the reference time falls in. Score and location sorts without an origin
+     * are sorted by date, so they only depend on the sort type and the
+     * missing origin.
+     *
+     * @return The cache key of the request.
+     */
+    public String getCacheKey() {
+        StringBuilder key = new StringBuilder().append(sortType);
+        if (getKeyType() != sortType) {
+            return key.append("/none").toString();
+        }
+        switch (sortType) {
+        case SortUtil.SORT_USER_SCORE_HIGHEST:
+        case SortUtil.SORT_USER_SCORE_LOWEST:
+            key.append('/').append(referenceTime / SCORE_TIME_BUCKET);
+            key.append('/').append(
+                    SpatialIndex.geohash(originLatitude, originLongitude));
+            break;
+        case SortUtil.SORT_LOCATION:
+            key.append('/').append(
+                    SpatialIndex.geohash(originLatitude, originLongitude));
+            break;
+        default:
+            break;
+        }
+        return key.toString();
+    }
+
+    /* Getters below */
+
+    public int getSortType() {
+        return sortType;
+    }
+
+    public double getOriginLatitude() {
+        return originLatitude;
+    }
+
+    public double getOriginLongitude() {
+        return originLongitude;
+    }
+
+    public boolean hasOrigin() {
+        return hasOrigin;
+    }
+
+    public long getReferenceTime() {
+        return referenceTime;
+    }
+
+    public Date getReferenceDate() {
+        return new Date(referenceTime);
+    }
+}
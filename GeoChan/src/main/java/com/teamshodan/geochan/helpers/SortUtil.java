@@ -21,8 +21,7 @@
 package com.teamshodan.geochan.helpers;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.GeoLocation;
@@ -48,20 +47,27 @@ public class SortUtil {
     public static final int SORT_LOCATION = 7;
     public static final int SORT_IMAGE = 8;
 
-    private static GeoLocation commentSortGeo = null;
-    private static GeoLocation threadSortGeo = null;
+    // Locations chosen by the user to sort by, read when a SortRequest is made
+    private static volatile GeoLocation commentSortGeo = null;
+    private static volatile GeoLocation threadSortGeo = null;
 
+    /**
+     * Returns the location chosen to sort comments by, or null if none was
+     * chosen, in which case sorts measure from latitude and longitude 0.
+     * 
+     * @return The comment sorting location.
+     */
     public static GeoLocation getCommentSortGeo() {
-        if (commentSortGeo == null) {
-            return new GeoLocation(0, 0);
-        }
         return commentSortGeo;
     }
 
+    /**
+     * Returns the location chosen to sort threads by, or null if none was
+     * chosen, in which case sorts measure from latitude and longitude 0.
+     * 
+     * @return The thread sorting location.
+     */
     public static GeoLocation getThreadSortGeo() {
-        if (threadSortGeo == null) {
-            return new GeoLocation(0, 0);
-        }
         return threadSortGeo;
     }
 
@@ -74,336 +80,543 @@ public class SortUtil {
     }
 
     /**
-     * Sorts the ArrayList of ThreadComments passed to it according to the tag
-     * passed. The passed GeoLocation is used in sorting by location or score.
+     * Sorts the List of ThreadComments passed to it according to the tag
+     * passed, measuring from the current thread sorting location and time.
      * 
      * @param tag
      *            Tag specifying the sorting method to be used.
      * @param threads
-     *            The ArrayList of ThreadComments to be sorted.
+     *            The List of ThreadComments to be sorted.
+     * @return The ascending sort key of each ThreadComment, in the new order
+     *         of the list, or null if the tag is not a sorting method.
      */
-    public static void sortThreads(int tag, ArrayList<ThreadComment> threads) {
-        switch (tag) {
-        case (SORT_DATE_OLDEST):
-            Collections.sort(threads, sortThreadsByDateOldest());
-            break;
-        case (SORT_DATE_NEWEST):
-            Collections.sort(threads, sortThreadsByDateNewest());
-            break;
-        case (SORT_USER_SCORE_HIGHEST):
-        	try{
-            Collections.sort(threads, sortThreadsByUserScoreHighest());
-        	} catch (NullPointerException e) {
-        		//If the device has never gotten a location, we fall back on
-        		//sorting by newest date, and approximation to relevance.
-        		Collections.sort(threads, sortThreadsByDateNewest());
-        	}
-            break;
-        case (SORT_USER_SCORE_LOWEST):
-        	try{
-            Collections.sort(threads, sortThreadsByUserScoreLowest());
-        	} catch (NullPointerException e){
-        		//Fallback for if the device has never gotten a location.
-        		Collections.sort(threads, sortThreadsByDateOldest());
-        	}
-            break;
-        case (SORT_LOCATION):
-            Collections.sort(threads, sortThreadsByLocation());
-            break;
+    public static double[] sortThreads(int tag, List<ThreadComment> threads) {
+        return sortThreads(SortRequest.forThreads(tag), threads);
+    }
+
+    /**
+     * Sorts the List of ThreadComments passed to it as the SortRequest
+     * describes. The request's origin is used in sorting by location or
+     * score. Sorting by score uses HotRanking's time-decayed hot score, whose
+     * order does not depend on when the sort runs. Each ThreadComment's
+     * sort key is computed once up front, the keys are sorted as primitives,
+     * and the list is then permuted into that order. The keys are returned in
+     * their sorted order, so that further threads can be inserted in place by
+     * binary search on them.
+     * 
+     * @param request
+     *            The SortRequest describing the sort.
+     * @param threads
+     *            The List of ThreadComments to be sorted.
+     * @return The ascending sort key of each ThreadComment, in the new order
+     *         of the list, or null if the request's sort type is not a
+     *         sorting method.
+     */
+    public static double[] sortThreads(SortRequest request,
+            List<ThreadComment> threads) {
+        double[] keys = threadKeys(request, threads);
+        if (keys == null) {
+            return null;
+        }
+        int size = keys.length;
+        int[] order = sortIndices(keys);
+        permute(threads, order);
+        double[] sortedKeys = new double[size];
+        for (int i = 0; i < size; ++i) {
+            sortedKeys[i] = keys[order[i]];
         }
+        return sortedKeys;
     }
 
     /**
-     * Sorts the ArrayList of Comments according to the tag passed to it.
-     * Recursively sorts all the children of these comments according to the
-     * same measure.
+     * Moves the first count ThreadComments of the order the SortRequest
+     * describes to the front of the list, in sorted order, without sorting
+     * the rest. The rest keep their relative order behind them. Selecting the
+     * front with a bounded heap costs O(n log count) instead of the
+     * O(n log n) of a full sort, which is all the first screen of a long list
+     * needs. More of the list can be ranked later with rankMore.
+     * 
+     * @param request
+     *            The SortRequest describing the sort.
+     * @param threads
+     *            The List of ThreadComments to be ranked.
+     * @param count
+     *            The number of ThreadComments to rank.
+     * @return The ascending sort key of each ThreadComment, in the new order
+     *         of the list, or null if the request's sort type is not a
+     *         sorting method.
+     */
+    public static double[] rankThreads(SortRequest request,
+            List<ThreadComment> threads, int count) {
+        double[] keys = threadKeys(request, threads);
+        if (keys == null) {
+            return null;
+        }
+        rankMore(threads, keys, 0, count);
+        return keys;
+    }
+
+    /**
+     * Extends a partial ranking made by rankThreads. The count items with the
+     * lowest keys among those from the passed position on are moved, in
+     * sorted order, to that position. Ties keep their order in the list, as
+     * with a stable sort.
+     * 
+     * @param list
+     *            The List being ranked.
+     * @param keys
+     *            The sort key of each item, in list order. Rearranged along
+     *            with the list.
+     * @param from
+     *            The number of items already ranked at the front of the list.
+     * @param count
+     *            The number of further items to rank.
+     * @return The number of items now ranked at the front of the list.
+     */
+    public static <T> int rankMore(List<T> list, double[] keys, int from,
+            int count) {
+        int size = keys.length;
+        int remaining = size - from;
+        if (count >= remaining) {
+            // Ranking everything left is just a sort
+            double[] tail = new double[remaining];
+            System.arraycopy(keys, from, tail, 0, remaining);
+            int[] order = sortIndices(tail);
+            permute(list.subList(from, size), order);
+            for (int i = 0; i < remaining; ++i) {
+                keys[from + i] = tail[order[i]];
+            }
+            return size;
+        }
+        if (count <= 0) {
+            return from;
+        }
+        // Max-heap of the count best positions seen so far, worst on top
+        int[] heap = new int[count];
+        int heapSize = 0;
+        for (int i = from; i < size; ++i) {
+            if (heapSize < count) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize, keys);
+                heapSize++;
+            } else if (ranksBefore(i, heap[0], keys)) {
+                heap[0] = i;
+                siftDown(heap, heapSize, keys);
+            }
+        }
+        // Empty the heap from the back to get the best positions in order
+        int[] best = new int[count];
+        for (int i = count - 1; i >= 0; --i) {
+            best[i] = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, keys);
+        }
+        boolean[] chosen = new boolean[remaining];
+        for (int position : best) {
+            chosen[position - from] = true;
+        }
+        int[] order = new int[remaining];
+        double[] tail = new double[remaining];
+        for (int i = 0; i < count; ++i) {
+            order[i] = best[i] - from;
+        }
+        int next = count;
+        for (int i = 0; i < remaining; ++i) {
+            if (!chosen[i]) {
+                order[next++] = i;
+            }
+        }
+        for (int i = 0; i < remaining; ++i) {
+            tail[i] = keys[from + order[i]];
+        }
+        System.arraycopy(tail, 0, keys, from, remaining);
+        permute(list.subList(from, size), order);
+        return from + count;
+    }
+
+    /**
+     * Returns whether the item at position a ranks before the item at
+     * position b: by key, then by position so that ties stay stable.
+     */
+    private static boolean ranksBefore(int a, int b, double[] keys) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    private static void siftUp(int[] heap, int index, double[] keys) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!ranksBefore(heap[parent], heap[index], keys)) {
+                return;
+            }
+            int temp = heap[parent];
+            heap[parent] = heap[index];
+            heap[index] = temp;
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, double[] keys) {
+        int index = 0;
+        while (true) {
+            int worst = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && ranksBefore(heap[worst], heap[left], keys)) {
+                worst = left;
+            }
+            if (right < size && ranksBefore(heap[worst], heap[right], keys)) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            int temp = heap[worst];
+            heap[worst] = heap[index];
+            heap[index] = temp;
+            index = worst;
+        }
+    }
+
+    /**
+     * Returns whether a sorting method ranks threads only partially up front.
+     * Score and location sorts need a key from every thread but are read from
+     * the top, so only the top of the list is ranked at first.
      * 
      * @param tag
-     *            Tag specifying the type of sorting to be done.
-     * @param coms
-     *            The ArrayList of Comments to be sorted.
+     *            Tag specifying the sorting method.
+     * @return True if the tag sorts by score or location.
      */
+    public static boolean isPartialRankSort(int tag) {
+        return tag == SORT_USER_SCORE_HIGHEST || tag == SORT_USER_SCORE_LOWEST
+                || tag == SORT_LOCATION;
+    }
 
-    public static void sortComments(int tag, ArrayList<Comment> coms) {
-        switch (tag) {
+    /**
+     * Computes the ascending sort key of each ThreadComment as the SortRequest
+     * describes.
+     * 
+     * @param request
+     *            The SortRequest describing the sort.
+     * @param threads
+     *            The ThreadComments.
+     * @return The key of each ThreadComment, in list order, or null if the
+     *         request's sort type is not a sorting method.
+     */
+    private static double[] threadKeys(SortRequest request,
+            List<ThreadComment> threads) {
+        int size = threads.size();
+        double[] keys = new double[size];
+        switch (request.getKeyType()) {
         case (SORT_DATE_OLDEST):
-            Collections.sort(coms, sortCommentsByDateOldest());
-            for (Comment c : coms) {
-                sortComments(tag, c.getChildren());
+            for (int i = 0; i < size; ++i) {
+                keys[i] = threads.get(i).getThreadTime();
             }
             break;
         case (SORT_DATE_NEWEST):
-            Collections.sort(coms, sortCommentsByDateNewest());
-            for (Comment c : coms) {
-                sortComments(tag, c.getChildren());
-            }
-            break;
-        case (SORT_LOCATION):
-            Collections.sort(coms, sortCommentsByLocation());
-            for (Comment c : coms) {
-                sortComments(tag, c.getChildren());
+            for (int i = 0; i < size; ++i) {
+                keys[i] = -threads.get(i).getThreadTime();
             }
             break;
         case (SORT_USER_SCORE_HIGHEST):
-            Collections.sort(coms, sortCommentsByUserScoreHighest());
-            for (Comment c : coms) {
-                sortComments(tag, c.getChildren());
+            DistanceKernel highKernel = request.makeDistanceKernel();
+            for (int i = 0; i < size; ++i) {
+                keys[i] = -HotRanking.score(highKernel, threads.get(i));
             }
             break;
         case (SORT_USER_SCORE_LOWEST):
-            Collections.sort(coms, sortCommentsByUserScoreLowest());
-            for (Comment c : coms) {
-                sortComments(tag, c.getChildren());
+            DistanceKernel lowKernel = request.makeDistanceKernel();
+            for (int i = 0; i < size; ++i) {
+                keys[i] = HotRanking.score(lowKernel, threads.get(i));
             }
             break;
-        case (SORT_IMAGE):
-            Collections.sort(coms, sortCommentsByImage());
-            for (Comment c : coms) {
-                sortComments(tag, c.getChildren());
-            }
+        case (SORT_LOCATION):
+            keys = threadDistances(request, threads);
             break;
+        default:
+            return null;
         }
+        return keys;
     }
 
     /**
-     * Comparator for pushing comments with images to the top. Uses comment date
-     * to break ties if both comments have images, or do not have images.
+     * Computes the sort key of a single ThreadComment, as sortThreads would
+     * for the same SortRequest.
      * 
-     * @return A comparator used to sort comments by image.
+     * @param request
+     *            The SortRequest describing the sort.
+     * @param thread
+     *            The ThreadComment.
+     * @return The ascending sort key of the ThreadComment, or NaN if the
+     *         request's sort type is not a sorting method.
      */
-    private static Comparator<Comment> sortCommentsByImage() {
-        return new Comparator<Comment>() {
-            public int compare(Comment c1, Comment c2) {
-                if (c1.hasImage() && !(c2.hasImage())) {
-                    return -1;
-                } else if (!(c1.hasImage()) && c2.hasImage()) {
-                    return 1;
-                } else if (c1.hasImage() == c2.hasImage()) {
-                    int val = c1.getCommentDate().compareTo(c2.getCommentDate());
-                    if (val < 0) {
-                        return -1;
-                    } else if (val > 0) {
-                        return 1;
-                    } else {
-                        return 0;
-                    }
-                } else {
-                    return 0;
-                }
-            }
-        };
+    public static double threadSortKey(SortRequest request, ThreadComment thread) {
+        ArrayList<ThreadComment> single = new ArrayList<ThreadComment>(1);
+        single.add(thread);
+        double[] keys = sortThreads(request, single);
+        return keys == null ? Double.NaN : keys[0];
     }
 
     /**
-     * Comparator for pushing old comments in a thread to the top.
+     * Returns whether a sorting method orders threads by a key that does not
+     * change over time or with the sorting location.
      * 
-     * @return a Comparator for sorting Comments by oldest date.
+     * @param tag
+     *            Tag specifying the sorting method.
+     * @return True if the tag sorts by date.
      */
-    private static Comparator<Comment> sortCommentsByDateOldest() {
-        return new Comparator<Comment>() {
-            public int compare(Comment c1, Comment c2) {
-                int val = c1.getCommentDate().compareTo(c2.getCommentDate());
-                if (val < 0) {
-                    return -1;
-                } else if (val > 0) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-        };
+    public static boolean isFixedKeySort(int tag) {
+        return tag == SORT_DATE_NEWEST || tag == SORT_DATE_OLDEST;
     }
 
     /**
-     * Comparator for pushing new comments in a thread to the top.
+     * Sorts the List of Comments according to the tag passed to it,
+     * measuring from the current comment sorting location and time.
+     * Recursively sorts all the children of these comments according to the
+     * same measure.
      * 
-     * @return A Comparator for sorting Comments by newest Date.
+     * @param tag
+     *            Tag specifying the type of sorting to be done.
+     * @param coms
+     *            The List of Comments to be sorted.
      */
-    private static Comparator<Comment> sortCommentsByDateNewest() {
-        return new Comparator<Comment>() {
-            public int compare(Comment c1, Comment c2) {
-                int val = c1.getCommentDate().compareTo(c2.getCommentDate());
-                if (val < 0) {
-                    return 1;
-                } else if (val > 0) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        };
+    public static void sortComments(int tag, List<Comment> coms) {
+        sortComments(SortRequest.forComments(tag), coms);
     }
 
     /**
-     * Returns a comparator for pushing higher scored comments to the top.
+     * Sorts the List of Comments as the SortRequest describes, then all the
+     * children of these comments with the same request. The levels are kept
+     * on an explicit stack rather than sorted recursively, so a deep reply
+     * chain cannot overflow the stack. As with threads, each Comment's key is
+     * computed once before sorting.
      * 
-     * @return A Comparator for pushing higher scored comments to the top.
+     * @param request
+     *            The SortRequest describing the sort.
+     * @param coms
+     *            The List of Comments to be sorted.
      */
-    private static Comparator<Comment> sortCommentsByUserScoreHighest() {
-        return new Comparator<Comment>() {
-            public int compare(Comment c1, Comment c2) {
-                double val1 = c1.getScoreFromUser(SortUtil.getCommentSortGeo());
-                double val2 = c2.getScoreFromUser(SortUtil.getCommentSortGeo());
-                if (val1 > val2) {
-                    return -1;
-                } else if (val1 < val2) {
-                    return 1;
-                } else {
-                    return 0;
+    public static void sortComments(SortRequest request, List<Comment> coms) {
+        ArrayList<List<Comment>> stack = new ArrayList<List<Comment>>();
+        stack.add(coms);
+        while (!stack.isEmpty()) {
+            List<Comment> level = stack.remove(stack.size() - 1);
+            if (level.size() > 1) {
+                int[] order = commentOrder(request, level);
+                if (order == null) {
+                    return;
                 }
+                permute(level, order);
             }
-        };
-    }
-
-    /**
-     * Comparator for pushing lower scored comments (relative to user set
-     * location) to the top.
-     * 
-     * @return A comparator for sorting comments by score relative to user set
-     *         location.
-     */
-    private static Comparator<Comment> sortCommentsByUserScoreLowest() {
-        return new Comparator<Comment>() {
-            public int compare(Comment c1, Comment c2) {
-                double val1 = c1.getScoreFromUser(SortUtil.getCommentSortGeo());
-                double val2 = c2.getScoreFromUser(SortUtil.getCommentSortGeo());
-                if (val1 > val2) {
-                    return 1;
-                } else if (val1 < val2) {
-                    return -1;
-                } else {
-                    return 0;
+            for (Comment c : level) {
+                if (!c.getChildren().isEmpty()) {
+                    stack.add(c.getChildren());
                 }
             }
-        };
+        }
     }
 
     /**
-     * Comparator for sorting comments in a thread based on the current
-     * SortUtil.commentSortGeo.
+     * Computes the order one level of Comments sorts into as the SortRequest
+     * describes, without changing the list or sorting any children. Used to
+     * sort the levels of a comment tree in parallel. A stub standing in for
+     * replies that were not loaded always goes last.
      * 
-     * @return the comparator
+     * @param request
+     *            The SortRequest describing the sort.
+     * @param coms
+     *            The List of Comments to order.
+     * @return The index of the Comment that belongs at each position, or null
+     *         if the request's sort type is not a sorting method.
      */
-    private static Comparator<Comment> sortCommentsByLocation() {
-        return new Comparator<Comment>() {
-            public int compare(Comment c1, Comment c2) {
-                double val1 = c1.getDistanceFrom(SortUtil.getCommentSortGeo());
-                double val2 = c2.getDistanceFrom(SortUtil.getCommentSortGeo());
-                if (val1 > val2) {
-                    return 1;
-                } else if (val1 < val2) {
-                    return -1;
-                } else {
-                    return 0;
+    public static int[] commentOrder(SortRequest request, List<Comment> coms) {
+        int[] order = keyOrder(request, coms);
+        if (order == null) {
+            return null;
+        }
+        int stubs = 0;
+        for (int i = 0; i < order.length; ++i) {
+            if (coms.get(order[i]).isStub()) {
+                stubs++;
+            } else {
+                order[i - stubs] = order[i];
+            }
+        }
+        if (stubs > 0) {
+            int next = order.length - stubs;
+            for (int i = 0; i < coms.size(); ++i) {
+                if (coms.get(i).isStub()) {
+                    order[next++] = i;
                 }
             }
-        };
+        }
+        return order;
     }
 
     /**
-     * Comparator for pushing old threads to the top.
-     * 
-     * @return a Comparator for sorting threads by oldest date.
+     * Computes the order of one level of Comments by the request's sort key
+     * alone.
      */
-    private static Comparator<ThreadComment> sortThreadsByDateOldest() {
-        return new Comparator<ThreadComment>() {
-            public int compare(ThreadComment t1, ThreadComment t2) {
-                int val = t1.getThreadDate().compareTo(t2.getThreadDate());
-                if (val < 0) {
-                    return -1;
-                } else if (val > 0) {
-                    return 1;
-                } else {
-                    return 0;
-                }
+    private static int[] keyOrder(SortRequest request, List<Comment> coms) {
+        int size = coms.size();
+        double[] keys = new double[size];
+        switch (request.getKeyType()) {
+        case (SORT_DATE_OLDEST):
+            for (int i = 0; i < size; ++i) {
+                keys[i] = coms.get(i).getCommentTime();
             }
-        };
+            break;
+        case (SORT_DATE_NEWEST):
+            for (int i = 0; i < size; ++i) {
+                keys[i] = -coms.get(i).getCommentTime();
+            }
+            break;
+        case (SORT_LOCATION):
+            keys = commentDistances(request, coms);
+            break;
+        case (SORT_USER_SCORE_HIGHEST):
+            double[] highDistances = commentDistances(request, coms);
+            long highNow = request.getReferenceTime();
+            for (int i = 0; i < size; ++i) {
+                keys[i] = -coms.get(i).getScoreFromDistance(highDistances[i],
+                        highNow);
+            }
+            break;
+        case (SORT_USER_SCORE_LOWEST):
+            double[] lowDistances = commentDistances(request, coms);
+            long lowNow = request.getReferenceTime();
+            for (int i = 0; i < size; ++i) {
+                keys[i] = coms.get(i).getScoreFromDistance(lowDistances[i],
+                        lowNow);
+            }
+            break;
+        case (SORT_IMAGE):
+            // Comments with images go to the top, ties broken by oldest date.
+            // The second sort is stable, so it keeps the date order.
+            for (int i = 0; i < size; ++i) {
+                keys[i] = coms.get(i).getCommentTime();
+            }
+            int[] dateOrder = sortIndices(keys);
+            for (int i = 0; i < size; ++i) {
+                keys[i] = coms.get(dateOrder[i]).hasImage() ? 0 : 1;
+            }
+            int[] imageOrder = sortIndices(keys);
+            for (int i = 0; i < size; ++i) {
+                imageOrder[i] = dateOrder[imageOrder[i]];
+            }
+            return imageOrder;
+        default:
+            return null;
+        }
+        return sortIndices(keys);
     }
 
     /**
-     * Comparator for pushing new threads to the top.
+     * Computes the distance in meters from the request's origin to each
+     * ThreadComment's location with one DistanceKernel. A ThreadComment
+     * without a location is put on the far side of the earth, as it is when
+     * scored.
      * 
-     * @return a Comparator for sorting Comments by newest Date.
+     * @param request
+     *            The SortRequest holding the origin.
+     * @param threads
+     *            The ThreadComments to measure to.
+     * @return The distance of each ThreadComment, in list order.
      */
-    private static Comparator<ThreadComment> sortThreadsByDateNewest() {
-        return new Comparator<ThreadComment>() {
-            public int compare(ThreadComment t1, ThreadComment t2) {
-                int val = t1.getThreadDate().compareTo(t2.getThreadDate());
-                if (val < 0) {
-                    return 1;
-                } else if (val > 0) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        };
+    private static double[] threadDistances(SortRequest request,
+            List<ThreadComment> threads) {
+        int size = threads.size();
+        DistanceKernel kernel = request.makeDistanceKernel();
+        double[] distances = new double[size];
+        for (int i = 0; i < size; ++i) {
+            distances[i] = kernel.distance(threads.get(i).getBodyComment()
+                    .getLocation());
+        }
+        return distances;
     }
 
     /**
-     * Comparator for passing higher scored Threads to the top.
+     * Computes the distance in meters from the request's origin to each
+     * Comment's location in a single pass of a DistanceKernel.
      * 
-     * @return A Comparator used to sort ThreadComments according to highest
-     *         score.
+     * @param request
+     *            The SortRequest holding the origin.
+     * @param coms
+     *            The Comments to measure to.
+     * @return The distance of each Comment, in list order.
      */
-    private static Comparator<ThreadComment> sortThreadsByUserScoreHighest() {
-        return new Comparator<ThreadComment>() {
-            public int compare(ThreadComment t1, ThreadComment t2) {
-                double val1 = t1.getScoreFromUser(SortUtil.getThreadSortGeo());
-                double val2 = t2.getScoreFromUser(SortUtil.getThreadSortGeo());
-                if (val1 > val2) {
-                    return -1;
-                } else if (val1 < val2) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-        };
+    private static double[] commentDistances(SortRequest request,
+            List<Comment> coms) {
+        int size = coms.size();
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; ++i) {
+            GeoLocation loc = coms.get(i).getLocation();
+            latitudes[i] = loc.getLatitude();
+            longitudes[i] = loc.getLongitude();
+        }
+        double[] distances = new double[size];
+        request.makeDistanceKernel().distances(latitudes, longitudes,
+                distances);
+        return distances;
     }
 
     /**
-     * Comparator for pushing lower scored Threads to the top.
+     * Returns the order of indices that sorts the passed keys ascending. The
+     * sort is a stable bottom-up merge sort on primitive indices, so elements
+     * with equal keys keep their relative order, as with Collections.sort.
      * 
-     * @return A Comparator used to sort ThreadComments according to lowest
-     *         score.
+     * @param keys
+     *            The sort key of each element.
+     * @return The index of the element that belongs at each position.
      */
-    private static Comparator<ThreadComment> sortThreadsByUserScoreLowest() {
-        return new Comparator<ThreadComment>() {
-            public int compare(ThreadComment t1, ThreadComment t2) {
-                double val1 = t1.getScoreFromUser(SortUtil.getThreadSortGeo());
-                double val2 = t2.getScoreFromUser(SortUtil.getThreadSortGeo());
-                if (val1 > val2) {
-                    return 1;
-                } else if (val1 < val2) {
-                    return -1;
-                } else {
-                    return 0;
+    private static int[] sortIndices(double[] keys) {
+        int size = keys.length;
+        int[] order = new int[size];
+        int[] buffer = new int[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int mid = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int left = low;
+                int right = mid;
+                int out = low;
+                while (left < mid && right < high) {
+                    if (keys[order[right]] < keys[order[left]]) {
+                        buffer[out++] = order[right++];
+                    } else {
+                        buffer[out++] = order[left++];
+                    }
+                }
+                while (left < mid) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < high) {
+                    buffer[out++] = order[right++];
                 }
             }
-        };
+            int[] temp = order;
+            order = buffer;
+            buffer = temp;
+        }
+        return order;
     }
 
     /**
-     * Comparator for pushing ThreadComments closer to SortUtil's threadSortGeo
-     * to the top.
+     * Rearranges a list so that position i holds the element previously at
+     * position order[i].
      * 
-     * @return A Comparator used to sort ThreadComments according to location.
+     * @param list
+     *            The List to rearrange.
+     * @param order
+     *            The index of the element that belongs at each position.
      */
-    private static Comparator<ThreadComment> sortThreadsByLocation() {
-        return new Comparator<ThreadComment>() {
-            public int compare(ThreadComment t1, ThreadComment t2) {
-                double val1 = t1.getDistanceFrom(SortUtil.getThreadSortGeo());
-                double val2 = t2.getDistanceFrom(SortUtil.getThreadSortGeo());
-                if (val1 > val2) {
-                    return 1;
-                } else if (val1 < val2) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        };
+    public static <T> void permute(List<T> list, int[] order) {
+        ArrayList<T> copy = new ArrayList<T>(list);
+        for (int i = 0; i < order.length; ++i) {
+            list.set(i, copy.get(order[i]));
+        }
     }
-
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import com.teamshodan.geochan.models.GeoLocation;
+import com.teamshodan.geochan.models.ThreadComment;
+
+/**
+ * A spatial index over located items, stored as a map from geohash cell to
+ * the items inside that cell. Cells are 25-bit geohashes, roughly 5 km on a
+ * side, so a radius query only measures the items in the few cells around
+ * the query instead of every item.
+ *
+ * An index is built once and then only read, so it can be shared between
+ * threads.
+ * @param <T>
+ *            The type of the indexed items.
+ */
+public class SpatialIndex<T> {
+
+    // Bits of longitude and latitude in a cell's geohash
+    private static final int LONG_BITS = 13;
+    private static final int LAT_BITS = 12;
+    private static final int LONG_CELLS = 1 << LONG_BITS;
+    private static final int LAT_CELLS = 1 << LAT_BITS;
+    private static final double CELL_WIDTH = 360.0 / LONG_CELLS;
+    private static final double CELL_HEIGHT = 180.0 / LAT_CELLS;
+
+    private final HashMap<Long, ArrayList<Entry<T>>> cells = new HashMap<Long, ArrayList<Entry<T>>>();
+    private final ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>();
+
+    /**
+     * Builds a SpatialIndex over the ThreadComments passed, located at their
+     * body comments. ThreadComments without a location are not indexed.
+     *
+     * @param threads
+     *            The ThreadComments to index.
+     * @return The SpatialIndex.
+     */
+    public static SpatialIndex<ThreadComment> ofThreads(
+            Collection<ThreadComment> threads) {
+        SpatialIndex<ThreadComment> index = new SpatialIndex<ThreadComment>();
+        for (ThreadComment thread : threads) {
+            GeoLocation loc = thread.getBodyComment().getLocation();
+            if (loc != null) {
+                index.add(thread, loc.getLatitude(), loc.getLongitude());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds an item to the index.
+     *
+     * @param item
+     *            The item to add.
+     * @param latitude
+     *            The latitude of the item in degrees.
+     * @param longitude
+     *            The longitude of the item in degrees.
+     */
+    public void add(T item, double latitude, double longitude) {
+        Entry<T> entry = new Entry<T>(item, latitude, longitude);
+        Long key = Long.valueOf(geohash(latitude, longitude));
+        ArrayList<Entry<T>> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Entry<T>>();
+            cells.put(key, cell);
+        }
+        cell.add(entry);
+        entries.add(entry);
+    }
+
+    /**
+     * Finds every item within a distance of a point.
+     *
+     * @param latitude
+     *            The latitude of the point in degrees.
+     * @param longitude
+     *            The longitude of the point in degrees.
+     * @param radius
+     *            The distance in meters.
+     * @return The items within the radius, in no particular order.
+     */
+    public List<T> findWithin(double latitude, double longitude, double radius) {
+        DistanceKernel kernel = new DistanceKernel(latitude, longitude);
+        double latSpan = radius / GeoLocation.METERS_PER_DEGREE;
+        double longSpan = longitudeSpan(latitude, latSpan);
+        ArrayList<T> found = new ArrayList<T>();
+        for (Entry<T> entry : candidates(latitude - latSpan, latitude
+                + latSpan, longitude - longSpan, longitude + longSpan)) {
+            if (kernel.distance(entry.latitude, entry.longitude) <= radius) {
+                found.add(entry.item);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the 25-bit geohash of the cell holding a point. Longitude and
+     * latitude bits are interleaved, longitude first, as in a geohash string.
+     *
+     * @param latitude
+     *            The latitude of the point in degrees.
+     * @param longitude
+     *            The longitude of the point in degrees.
+     * @return The geohash of the point's cell.
+     */
+    public static long geohash(double latitude, double longitude) {
+        return interleave(longitudeCell(longitude), latitudeCell(latitude));
+    }
+
+    /**
+     * Collects the entries of every cell overlapping a bounding box. Falls
+     * back to all entries when the box spans more cells than are occupied.
+     */
+    private Collection<Entry<T>> candidates(double minLat, double maxLat,
+            double minLong, double maxLong) {
+        int minY = latitudeCell(minLat);
+        int maxY = latitudeCell(maxLat);
+        long width = (long) Math.floor(maxLong / CELL_WIDTH)
+                - (long) Math.floor(minLong / CELL_WIDTH) + 1;
+        if (width >= LONG_CELLS || width * (maxY - minY + 1) > cells.size()) {
+            return entries;
+        }
+        int minX = longitudeCell(minLong);
+        ArrayList<Entry<T>> found = new ArrayList<Entry<T>>();
+        for (int y = minY; y <= maxY; ++y) {
+            for (int i = 0; i < width; ++i) {
+                ArrayList<Entry<T>> cell = cells.get(Long.valueOf(interleave(
+                        (minX + i) % LONG_CELLS, y)));
+                if (cell != null) {
+                    found.addAll(cell);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the longitude span in degrees covering a latitude span around
+     * a point, or a full circle near the poles.
+     */
+    private static double longitudeSpan(double latitude, double latSpan) {
+        double edgeLat = Math.abs(latitude) + latSpan;
+        if (edgeLat >= 90) {
+            return 180;
+        }
+        return Math.min(180, latSpan / Math.cos(Math.toRadians(edgeLat)));
+    }
+
+    private static int longitudeCell(double longitude) {
+        double wrapped = ((longitude + 180) % 360 + 360) % 360;
+        return Math.min(LONG_CELLS - 1, (int) (wrapped / CELL_WIDTH));
+    }
+
+    private static int latitudeCell(double latitude) {
+        double clamped = Math.max(-90, Math.min(90, latitude)) + 90;
+        return Math.min(LAT_CELLS - 1, (int) (clamped / CELL_HEIGHT));
+    }
+
+    private static long interleave(int x, int y) {
+        long hash = 0;
+        for (int bit = LONG_BITS - 1; bit >= 0; --bit) {
+            hash = (hash << 1) | ((x >> bit) & 1);
+            if (bit > 0) {
+                hash = (hash << 1) | ((y >> (bit - 1)) & 1);
+            }
+        }
+        return hash;
+    }
+
+    /* Getters below */
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * An indexed item and its coordinates.
+     */
+    private static class Entry<T> {
+        final T item;
+        final double latitude;
+        final double longitude;
+
+        Entry(T item, double latitude, double longitude) {
+            this.item = item;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+}
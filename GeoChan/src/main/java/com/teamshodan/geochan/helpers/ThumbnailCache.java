@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.helpers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the decoded thumbnails of Comments. A Comment keeps its thumbnail as
+ * the JPEG data it is sent and stored as, which is a fraction of the size of
+ * the decoded Bitmap, together with a key into this cache. Thumbnails are
+ * decoded when they are first shown and kept up to a fixed number of bytes,
+ * least recently used first out, so a long thread list does not keep every
+ * thumbnail decoded at once.
+ */
+public class ThumbnailCache {
+
+    // Bytes of decoded thumbnails kept at once
+    private static final int MAX_BYTES = (int) Math.min(
+            Runtime.getRuntime().maxMemory() / 16, 8 * 1024 * 1024);
+    // Quality thumbnails are compressed at, as the server stores them
+    private static final int JPEG_QUALITY = 90;
+
+    private static final LruCache<String, Bitmap> bitmaps = new LruCache<String, Bitmap>(
+            MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+    private static final AtomicLong nextKey = new AtomicLong();
+
+    /**
+     * Returns a new key to keep a thumbnail under. Keys are not reused, so a
+     * Comment's key stays valid even if its id changes.
+     * 
+     * @return The key.
+     */
+    public static String newKey() {
+        return Long.toString(nextKey.getAndIncrement());
+    }
+
+    /**
+     * Returns a thumbnail, decoding it from its data if it is not cached.
+     * 
+     * @param key
+     *            The key of the thumbnail.
+     * @param data
+     *            The JPEG data of the thumbnail.
+     * @return The thumbnail, or null if the data could not be decoded.
+     */
+    public static Bitmap get(String key, byte[] data) {
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = decode(data);
+            if (bitmap != null) {
+                bitmaps.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Caches a thumbnail that is already decoded.
+     * 
+     * @param key
+     *            The key of the thumbnail.
+     * @param bitmap
+     *            The thumbnail.
+     */
+    public static void put(String key, Bitmap bitmap) {
+        bitmaps.put(key, bitmap);
+    }
+
+    /**
+     * Compresses a thumbnail into the JPEG data a Comment keeps.
+     * 
+     * (http://stackoverflow.com/questions/9224056/android-bitmap-to-base64-string)
+     * 
+     * @param bitmap
+     *            The thumbnail.
+     * @return The JPEG data.
+     */
+    public static byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY,
+                byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Decodes the JPEG data of a thumbnail.
+     * 
+     * (http://stackoverflow.com/a/5878773, Sando's workaround for running out
+     * of memory on decoding bitmaps)
+     * 
+     * @param data
+     *            The JPEG data.
+     * @return The thumbnail, or null if the data could not be decoded.
+     */
+    public static Bitmap decode(byte[] data) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inDither = false;
+        opts.inPurgeable = true;
+        opts.inInputShareable = true;
+        opts.inTempStorage = new byte[32 * 1024];
+        return BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+    }
+}
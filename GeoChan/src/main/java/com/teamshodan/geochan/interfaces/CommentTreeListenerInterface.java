@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.interfaces;
+
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.ThreadComment;
+
+/**
+ * Provides an interface for classes showing a comment tree that want to hear
+ * about single changes made to it through the CommentTreeManager, so they can
+ * update only what changed.
+ */
+public interface CommentTreeListenerInterface {
+
+	/**
+	 * Called after a reply was added to the thread's comment tree.
+	 * @param thread The ThreadComment whose tree changed.
+	 * @param comment The added Comment, already in its parent's children.
+	 */
+	void onCommentInserted(ThreadComment thread, Comment comment);
+
+	/**
+	 * Called after the contents of a Comment of the thread were edited.
+	 * @param thread The ThreadComment whose tree changed.
+	 * @param comment The edited Comment.
+	 */
+	void onCommentChanged(ThreadComment thread, Comment comment);
+
+	/**
+	 * Called after a Comment and its replies were removed from the thread's
+	 * comment tree.
+	 * @param thread The ThreadComment whose tree changed.
+	 * @param comment The removed Comment.
+	 */
+	void onCommentRemoved(ThreadComment thread, Comment comment);
+
+	/**
+	 * Called after the replies a stub stood in for were loaded into the
+	 * thread's comment tree in its place.
+	 * @param thread The ThreadComment whose tree changed.
+	 * @param parent The Comment whose replies changed.
+	 */
+	void onRepliesLoaded(ThreadComment thread, Comment parent);
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.interfaces;
+
+/**
+ * Provides an interface for classes that want to be told about the progress
+ * of posting the queue of Comments and ThreadComments made while offline.
+ */
+public interface OutboxProgressListenerInterface {
+
+	/**
+	 * Called on the UI thread every time a queued post is started or finishes.
+	 * The flush is over once posted and failed add up to total.
+	 * @param posted The number of queued posts that were posted.
+	 * @param failed The number of queued posts left in the queue because the flush gave up on them.
+	 * @param total The number of queued posts in this flush.
+	 */
+	void onOutboxProgress(int posted, int failed, int total);
+}
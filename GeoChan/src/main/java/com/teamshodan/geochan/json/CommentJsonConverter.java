@@ -20,8 +20,6 @@
 
 package com.teamshodan.geochan.json;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Base64;
 
 import com.google.gson.JsonDeserializationContext;
@@ -32,7 +30,6 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
-import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.List;
@@ -68,7 +65,7 @@ public class CommentJsonConverter implements JsonSerializer<Comment>,
 
 		JsonObject object = new JsonObject();
 
-		object.addProperty("commentDate", comment.getCommentDate().getTime());
+		object.addProperty("commentDate", comment.getCommentTime());
 
 		if (comment.getLocation() != null) {
 			object.addProperty("location", comment.getLocation().getLatitude()
@@ -90,19 +87,11 @@ public class CommentJsonConverter implements JsonSerializer<Comment>,
 		object.addProperty("hasImage", comment.hasImage());
 		if (comment.hasImage()) {
 			/*
-			 * http://stackoverflow.com/questions/9224056/android-bitmap-to-base64
-			 * -string
-			 * 
-			 * Serialize just the thumbnail as the image is serialized
-			 * separately
+			 * Serialize just the thumbnail, as the JPEG data the Comment keeps,
+			 * as the image is serialized separately
 			 */
-			Bitmap bitmapThumb = comment.getImageThumb();
-			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-			bitmapThumb.compress(Bitmap.CompressFormat.JPEG, 90,
-					byteArrayOutputStream);
-			byte[] byteThumbArray = byteArrayOutputStream.toByteArray();
-			String encodedThumb = Base64.encodeToString(byteThumbArray,
-					Base64.NO_WRAP);
+			String encodedThumb = Base64.encodeToString(
+					comment.getImageThumbData(), Base64.NO_WRAP);
 			object.addProperty("imageThumbnail", encodedThumb);
 		}
 
@@ -143,8 +132,8 @@ public class CommentJsonConverter implements JsonSerializer<Comment>,
 			locationDescription = object.get("locationDescription")
 					.getAsString();
 		}
-		GeoLocation location = new GeoLocation(latitude, longitude);
-		location.setLocationDescription(locationDescription);
+		GeoLocation location = new GeoLocation(latitude, longitude,
+				locationDescription);
 		
 		String user = object.get("user").getAsString();
 		String hash = object.get("hash").getAsString();
@@ -152,40 +141,23 @@ public class CommentJsonConverter implements JsonSerializer<Comment>,
 		
 		String textPost = object.get("textPost").getAsString();
 		
-		Bitmap thumbnail = null;
+		byte[] thumbnail = null;
 		boolean hasImage = object.get("hasImage").getAsBoolean();
 		if (hasImage) {
-			/*
-			 * http://stackoverflow.com/questions/20594833/convert-byte-array-or-
-			 * bitmap-to-picture
-			 *
-			 * http://stackoverflow.com/a/5878773
-			 * Sando's workaround for running out of memory on decoding bitmaps.
-			 * 
-			 * Only deserialize the thumbnail as the full image is downloaded
-			 * and deserialized separately.
-			 */
-			BitmapFactory.Options opts = new BitmapFactory.Options();
-			opts.inDither = false;
-			opts.inPurgeable = true;
-			opts.inInputShareable = true;
-			opts.inTempStorage = new byte[32 * 1024];
 			String encodedThumb = object.get("imageThumbnail").getAsString();
-			byte[] thumbArray = Base64.decode(encodedThumb, Base64.NO_WRAP);
-			thumbnail = BitmapFactory.decodeByteArray(thumbArray, 0,
-					thumbArray.length, opts);
+			thumbnail = Base64.decode(encodedThumb, Base64.NO_WRAP);
 		}
 		
 		int depth = object.get("depth").getAsInt();
 		
 		final Comment comment = new Comment(textPost, null, location, null);
-		comment.getCommentDate().setTime(commentDate);
+		comment.setCommentTime(commentDate);
 		comment.setUser(user);
 		comment.setHash(hash);
 		comment.setDepth(depth);
 		comment.setId(Long.parseLong(id));
 		if (hasImage) {
-			comment.setImageThumb(thumbnail);
+			comment.setImageThumbData(thumbnail);
 		}
 		
 		return comment;
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.json;
+
+import android.location.Location;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+import java.lang.reflect.Type;
+
+import com.teamshodan.geochan.models.GeoLocation;
+
+/**
+ * Handles the serialization and deserialization of a GeoLocation to and from
+ * JSON format. The coordinates are nested in a "location" object, in the form
+ * LocationJsonConverter used when a GeoLocation held an android Location, so
+ * the GeoLocationLog saved by earlier versions still reads.
+ */
+public class GeoLocationJsonConverter implements JsonSerializer<GeoLocation>,
+        JsonDeserializer<GeoLocation> {
+
+    /**
+     * Serializes a GeoLocation into JSON format.
+     * 
+     * @param geoLocation
+     *            the GeoLocation to serialize
+     * @param type
+     *            the Type
+     * @param jsc
+     *            the JSON serialization context
+     * 
+     * @return A JsonElement representing the serialized GeoLocation.
+     */
+    @Override
+    public JsonElement serialize(GeoLocation geoLocation, Type type,
+            JsonSerializationContext jsc) {
+        JsonObject jo = new JsonObject();
+        if (geoLocation.hasCoordinates()) {
+            JsonObject location = new JsonObject();
+            location.addProperty("latitude", geoLocation.getLatitude());
+            location.addProperty("longitude", geoLocation.getLongitude());
+            jo.add("location", location);
+        }
+        if (geoLocation.getLocationDescription() != null) {
+            jo.addProperty("locationDescription",
+                    geoLocation.getLocationDescription());
+        }
+        return jo;
+    }
+
+    /**
+     * Deserializes a GeoLocation from JSON format.
+     * 
+     * @param je
+     *            the JSON element to deserialize
+     * @param type
+     *            the Type
+     * @param jdc
+     *            the JSON deserialization context
+     * 
+     * @return The deserialized GeoLocation object.
+     * 
+     * @throws JsonParseException
+     */
+    @Override
+    public GeoLocation deserialize(JsonElement je, Type type,
+            JsonDeserializationContext jdc) throws JsonParseException {
+        JsonObject jo = je.getAsJsonObject();
+        GeoLocation geoLocation;
+        if (jo.has("location") && jo.get("location").isJsonObject()) {
+            JsonObject location = jo.getAsJsonObject("location");
+            geoLocation = new GeoLocation(location.getAsJsonPrimitive(
+                    "latitude").getAsDouble(), location.getAsJsonPrimitive(
+                    "longitude").getAsDouble());
+        } else {
+            geoLocation = new GeoLocation((Location) null);
+        }
+        if (jo.has("locationDescription")
+                && !jo.get("locationDescription").isJsonNull()) {
+            geoLocation.setLocationDescription(jo.get("locationDescription")
+                    .getAsString());
+        }
+        return geoLocation;
+    }
+}
@@ -20,8 +20,6 @@
 
 package com.teamshodan.geochan.json;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Base64;
 
 import com.google.gson.JsonDeserializationContext;
@@ -32,10 +30,8 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
-import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Type;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 
 import com.teamshodan.geochan.models.Comment;
@@ -69,7 +65,7 @@ public class ThreadCommentJsonConverter implements JsonSerializer<ThreadComment>
     public JsonElement serialize(ThreadComment thread, Type type, JsonSerializationContext context) {
         JsonObject object = new JsonObject();
         object.addProperty("title", thread.getTitle());
-        object.addProperty("threadDate", thread.getThreadDate().getTime());
+        object.addProperty("threadDate", thread.getThreadTime());
         object.addProperty("hasImage", thread.getBodyComment().hasImage());
         object.addProperty("id", thread.getId());
         if (thread.getBodyComment().getLocation() != null) {
@@ -86,16 +82,9 @@ public class ThreadCommentJsonConverter implements JsonSerializer<ThreadComment>
         object.addProperty("hash", thread.getBodyComment().getHash());
         object.addProperty("textPost", thread.getBodyComment().getTextPost());
         if (thread.getBodyComment().hasImage()) {
-            Bitmap bitmapThumb = thread.getBodyComment().getImageThumb();
-
-            /*
-             * http://stackoverflow.com/questions/9224056/android-bitmap-to-base64
-             * -string
-             */
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            bitmapThumb.compress(Bitmap.CompressFormat.JPEG, 90, byteArrayOutputStream);
-            byte[] byteThumbArray = byteArrayOutputStream.toByteArray();
-            String encodedThumb = Base64.encodeToString(byteThumbArray, Base64.NO_WRAP);
+            // Serialize just the thumbnail, as the JPEG data the Comment keeps
+            String encodedThumb = Base64.encodeToString(
+                    thread.getBodyComment().getImageThumbData(), Base64.NO_WRAP);
             object.addProperty("imageThumbnail", encodedThumb);
         }
         return object;
@@ -131,40 +120,22 @@ public class ThreadCommentJsonConverter implements JsonSerializer<ThreadComment>
         if (object.get("locationDescription") != null) {
             locationDescription = object.get("locationDescription").getAsString();
         }
-        Bitmap thumbnail = null;
+        byte[] thumbnail = null;
         if (hasImage) {
-            /*
-             * http://stackoverflow.com/questions/20594833/convert-byte-array-or-
-             * bitmap-to-picture
-             */
-            // http://stackoverflow.com/a/5878773
-            // Sando's workaround for running out of memory on decoding bitmaps.
-            BitmapFactory.Options opts = new BitmapFactory.Options();
-            opts.inDither = false; // Disable Dithering mode
-            opts.inPurgeable = true; // Tell to gc that whether it needs free
-                                     // memory, the Bitmap can be cleared
-            opts.inInputShareable = true; // Which kind of reference will be
-                                          // used to recover the Bitmap data
-                                          // after being clear, when it will be
-                                          // used in the future
-            opts.inTempStorage = new byte[32 * 1024];
-
             String encodedThumb = object.get("imageThumbnail").getAsString();
-            byte[] thumbArray = Base64.decode(encodedThumb, Base64.NO_WRAP);
-            thumbnail = BitmapFactory.decodeByteArray(thumbArray, 0, thumbArray.length, opts);
+            thumbnail = Base64.decode(encodedThumb, Base64.NO_WRAP);
         }
-        GeoLocation location = new GeoLocation(latitude, longitude);
-        location.setLocationDescription(locationDescription);
+        GeoLocation location = new GeoLocation(latitude, longitude, locationDescription);
         final Comment c = new Comment(textPost, null, location, null);
-        c.getCommentDate().setTime(threadDate);
+        c.setCommentTime(threadDate);
         c.setUser(user);
         c.setHash(hash);
         c.setId(Long.parseLong(id));
         if (hasImage) {
-            c.setImageThumb(thumbnail);
+            c.setImageThumbData(thumbnail);
         }
         final ThreadComment comment = new ThreadComment(c, title);
-        comment.setThreadDate(new Date(threadDate));
+        comment.setThreadTime(threadDate);
         comment.setId(Long.parseLong(id));
         return comment;
     }
@@ -20,10 +20,9 @@
 
 package com.teamshodan.geochan.json;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Base64;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -34,15 +33,14 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
-import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 
 import com.teamshodan.geochan.helpers.GsonHelper;
 import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.CommentList;
 import com.teamshodan.geochan.models.GeoLocation;
 import com.teamshodan.geochan.models.ThreadComment;
 
@@ -56,6 +54,9 @@ import com.teamshodan.geochan.models.ThreadComment;
 public class ThreadCommentOfflineJsonConverter implements JsonSerializer<ThreadComment>,
         JsonDeserializer<ThreadComment> {
 
+    // Prefixes the parent id under which the replies behind a stub are kept
+    private static final String HIDDEN_PREFIX = "hidden:";
+
     /*
      * (non-Javadoc)
      * 
@@ -75,7 +76,7 @@ public class ThreadCommentOfflineJsonConverter implements JsonSerializer<ThreadC
     public JsonElement serialize(ThreadComment thread, Type type, JsonSerializationContext context) {
         JsonObject object = new JsonObject();
         object.addProperty("title", thread.getTitle());
-        object.addProperty("threadDate", thread.getThreadDate().getTime());
+        object.addProperty("threadDate", thread.getThreadTime());
         object.addProperty("hasImage", thread.getBodyComment().hasImage());
         object.addProperty("id", thread.getId());
         if (thread.getBodyComment().getLocation() != null) {
@@ -93,19 +94,12 @@ public class ThreadCommentOfflineJsonConverter implements JsonSerializer<ThreadC
         object.addProperty("textPost", thread.getBodyComment().getTextPost());
 
         if (thread.getBodyComment().hasImage()) {
-            Bitmap bitmapThumb = thread.getBodyComment().getImageThumb();
-
-            /*
-             * http://stackoverflow.com/questions/9224056/android-bitmap-to-base64
-             * -string
-             */
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            bitmapThumb.compress(Bitmap.CompressFormat.JPEG, 90, byteArrayOutputStream);
-            byte[] byteThumbArray = byteArrayOutputStream.toByteArray();
-            String encodedThumb = Base64.encodeToString(byteThumbArray, Base64.NO_WRAP);
+            // Serialize just the thumbnail, as the JPEG data the Comment keeps
+            String encodedThumb = Base64.encodeToString(
+                    thread.getBodyComment().getImageThumbData(), Base64.NO_WRAP);
             object.addProperty("imageThumbnail", encodedThumb);
         }
-        recursiveSerialize(object, thread.getBodyComment(), thread.getBodyComment().getChildren());
+        serializeTree(object, thread.getBodyComment());
         
         // Serialize all the images in the thread.
         return object;
@@ -140,51 +134,140 @@ public class ThreadCommentOfflineJsonConverter implements JsonSerializer<ThreadC
             locationDescription = object.get("locationDescription").getAsString();
         }
         ArrayList<Comment> topList = new ArrayList<Comment>();
-        recursiveDeserialize(object, id, topList);
-        Bitmap thumbnail = null;
+        deserializeTree(object, id, topList);
+        byte[] thumbnail = null;
         if (hasImage) {
-            /*
-             * http://stackoverflow.com/questions/20594833/convert-byte-array-or-
-             * bitmap-to-picture
-             */
             String encodedThumb = object.get("imageThumbnail").getAsString();
-            byte[] thumbArray = Base64.decode(encodedThumb, Base64.NO_WRAP);
-            thumbnail = BitmapFactory.decodeByteArray(thumbArray, 0, thumbArray.length);
+            thumbnail = Base64.decode(encodedThumb, Base64.NO_WRAP);
         }
-        GeoLocation location = new GeoLocation(latitude, longitude);
-        location.setLocationDescription(locationDescription);
+        GeoLocation location = new GeoLocation(latitude, longitude, locationDescription);
         final Comment c = new Comment(textPost, null, location, null);
-        c.getCommentDate().setTime(threadDate);
+        c.setCommentTime(threadDate);
         c.setUser(user);
         c.setHash(hash);
         c.setId(Long.parseLong(id));
         c.setChildren(topList);
+        for (Comment child : topList) {
+            child.setParent(c);
+        }
         if (hasImage) {
-            c.setImageThumb(thumbnail);
+            c.setImageThumbData(thumbnail);
         }
         final ThreadComment comment = new ThreadComment(c, title);
-        comment.setThreadDate(new Date(threadDate));
+        comment.setThreadTime(threadDate);
         comment.setId(Long.parseLong(id));
         return comment;
     }
 
-    private void recursiveSerialize(JsonObject object, Comment parent, ArrayList<Comment> list) {
-        object.addProperty(parent.getId(), GsonHelper.getOfflineGson().toJson(list));
-        for (Comment comment : list) {
-            recursiveSerialize(object, comment, comment.getChildren());
+    /**
+     * Adds the children of every Comment in the tree to the JsonObject, keyed
+     * by the id of their parent, in depth-first order. The tree is walked with
+     * an explicit stack, so a deep reply chain cannot overflow the stack.
+     * Stubs for replies that were never loaded are not saved as Comments;
+     * the CommentLists of the replies they stand in for are saved under the
+     * parent's id with HIDDEN_PREFIX instead, in the form ElasticSearch
+     * keeps them.
+     * 
+     * @param object The JsonObject to add to.
+     * @param root The root Comment of the tree.
+     */
+    private void serializeTree(JsonObject object, Comment root) {
+        Gson gson = GsonHelper.getOfflineGson();
+        Gson exposeGson = GsonHelper.getExposeGson();
+        ArrayList<Comment> stack = new ArrayList<Comment>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Comment parent = stack.remove(stack.size() - 1);
+            ArrayList<Comment> children = withoutStubs(parent.getChildren());
+            object.addProperty(parent.getId(), gson.toJson(children));
+            if (children.size() != parent.getChildren().size()) {
+                object.addProperty(HIDDEN_PREFIX + parent.getId(),
+                        exposeGson.toJson(hiddenReplies(parent.getChildren())));
+            }
+            for (int i = children.size() - 1; i >= 0; --i) {
+                stack.add(children.get(i));
+            }
         }
     }
 
-    private void recursiveDeserialize(JsonObject object, String id, ArrayList<Comment> list) {
+    /**
+     * Rebuilds the tree below the Comment with the passed id from the
+     * JsonObject written by serializeTree, linking every Comment to its
+     * parent. Replies that were not loaded when the tree was saved are put
+     * behind a stub again, after the loaded replies of their parent.
+     * 
+     * @param object The JsonObject to read from.
+     * @param id The id of the root Comment.
+     * @param list The list to add the root's children to.
+     */
+    private void deserializeTree(JsonObject object, String id, ArrayList<Comment> list) {
+        Gson gson = GsonHelper.getOfflineGson();
         JsonParser parser = new JsonParser();
-        JsonArray array = parser.parse(object.get(id).getAsString()).getAsJsonArray();
-        for (int i = 0; i < array.size(); ++i) {
-            list.add(GsonHelper.getOfflineGson().fromJson(array.get(i), Comment.class));
-        }
-        for (Comment comment : list) {
+        readChildren(object, id, list, parser, gson);
+        ArrayList<Comment> stack = new ArrayList<Comment>(list);
+        readStub(object, id, list, parser);
+        while (!stack.isEmpty()) {
+            Comment comment = stack.remove(stack.size() - 1);
             ArrayList<Comment> childList = new ArrayList<Comment>();
-            recursiveDeserialize(object, comment.getId(), childList);
+            readChildren(object, comment.getId(), childList, parser, gson);
+            stack.addAll(childList);
+            readStub(object, comment.getId(), childList, parser);
             comment.setChildren(childList);
+            for (Comment child : childList) {
+                child.setParent(comment);
+            }
+        }
+    }
+
+    /**
+     * Collects the CommentLists every stub among the children stands in for.
+     */
+    private ArrayList<CommentList> hiddenReplies(ArrayList<Comment> children) {
+        ArrayList<CommentList> hidden = new ArrayList<CommentList>();
+        for (Comment child : children) {
+            if (child.isStub()) {
+                hidden.addAll(child.getHiddenReplies());
+            }
+        }
+        return hidden;
+    }
+
+    /**
+     * Adds a stub for the replies saved as hidden under the passed id to the
+     * list, if any were.
+     */
+    private void readStub(JsonObject object, String id, ArrayList<Comment> list,
+            JsonParser parser) {
+        JsonElement saved = object.get(HIDDEN_PREFIX + id);
+        if (saved == null) {
+            return;
+        }
+        Gson exposeGson = GsonHelper.getExposeGson();
+        JsonArray array = parser.parse(saved.getAsString()).getAsJsonArray();
+        ArrayList<CommentList> hidden = new ArrayList<CommentList>(array.size());
+        for (int i = 0; i < array.size(); ++i) {
+            hidden.add(exposeGson.fromJson(array.get(i), CommentList.class));
+        }
+        list.add(Comment.makeStub(hidden));
+    }
+
+    private ArrayList<Comment> withoutStubs(ArrayList<Comment> children) {
+        ArrayList<Comment> loaded = null;
+        for (int i = 0; i < children.size(); ++i) {
+            if (children.get(i).isStub() && loaded == null) {
+                loaded = new ArrayList<Comment>(children.subList(0, i));
+            } else if (!children.get(i).isStub() && loaded != null) {
+                loaded.add(children.get(i));
+            }
+        }
+        return loaded == null ? children : loaded;
+    }
+
+    private void readChildren(JsonObject object, String id, ArrayList<Comment> list,
+            JsonParser parser, Gson gson) {
+        JsonArray array = parser.parse(object.get(id).getAsString()).getAsJsonArray();
+        for (int i = 0; i < array.size(); ++i) {
+            list.add(gson.fromJson(array.get(i), Comment.class));
         }
     }
 }
@@ -24,6 +24,9 @@ import android.content.Context;
 import android.graphics.Bitmap;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.BufferedReader;
@@ -36,8 +39,13 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.teamshodan.geochan.helpers.GsonHelper;
+import com.teamshodan.geochan.interfaces.OutboxProgressListenerInterface;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.ThreadComment;
 
@@ -62,8 +70,39 @@ public class CacheManager {
 	private static final String FILENAME2 = "commentq.sav";
 	// File for the Queue of ChreadComments to post
 	private static final String FILENAME3 = "threadq.sav";
+	// Log of changes to a thread's comments since it was last saved whole
+	private static final String PATCH_EXTENSION = ".patch";
+	public static final String PATCH_INSERT = "insert";
+	public static final String PATCH_EDIT = "edit";
+	public static final String PATCH_DELETE = "delete";
 	private ArrayList<Comment> commentQueue;
 	private ArrayList<ThreadComment> threadCommentQueue;
+	// Posts taken off the queues that have not been posted yet, in the order
+	// they were taken. They are saved with the queues so none is lost.
+	private final ArrayList<Comment> commentsInFlight;
+	private final ArrayList<ThreadComment> threadsInFlight;
+	// Copies of the queues waiting to be written by queueSaver, null when
+	// there is nothing to write. Guarded by the CacheManager.
+	private ArrayList<Comment> unsavedCommentQueue = null;
+	private ArrayList<ThreadComment> unsavedThreadCommentQueue = null;
+	// Writes the queues one save at a time, off the UI thread
+	private final ThreadPoolExecutor saveExecutor;
+
+	private final Runnable queueSaver = new Runnable() {
+		@Override
+		public void run() {
+			ArrayList<Comment> comments;
+			ArrayList<ThreadComment> threads;
+			synchronized (CacheManager.this) {
+				comments = unsavedCommentQueue;
+				threads = unsavedThreadCommentQueue;
+				unsavedCommentQueue = null;
+				unsavedThreadCommentQueue = null;
+			}
+			writeQueue(FILENAME2, offlineGson.toJson(comments));
+			writeQueue(FILENAME3, offlineGson.toJson(threads));
+		}
+	};
 
 	/**
 	 * Initializes the CacheManager fields, private because of the Singleton
@@ -78,48 +117,149 @@ public class CacheManager {
 		this.onlineGson = GsonHelper.getOnlineGson();
 		commentQueue = deserializeCommentQueue();
 		threadCommentQueue = deserializeThreadCommentQueue();
+		commentsInFlight = new ArrayList<Comment>();
+		threadsInFlight = new ArrayList<ThreadComment>();
+		saveExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		saveExecutor.allowCoreThreadTimeOut(true);
 	}
 
 	/**
 	 * Adds a comment to the Queue of comments to post when Internet connection
-	 * is acquired. Serializes the queue.
+	 * is acquired. Saves the queues.
 	 * 
 	 * @param comment The Comment to be added to the queue.
 	 */
 	public void addCommentToQueue(Comment comment) {
 		commentQueue.add(comment);
-		serializeCommentQueue();
+		saveQueues();
 	}
 
 	/**
 	 * Adds a threadComment to the Queue of threadComments to post when Internet
-	 * connection is acquired. Serializes the queue.
+	 * connection is acquired. Saves the queues.
 	 * 
 	 * @param thread The ThreadComment to be added to the queue.
 	 */
 	public void addThreadCommentToQueue(ThreadComment thread) {
 		threadCommentQueue.add(thread);
-		serializeThreadCommentQueue();
+		saveQueues();
+	}
+
+	/**
+	 * Puts a comment taken off the Queue of comments to post back at the
+	 * passed position, such as at the front after posting it failed. The
+	 * queues are not saved, as the comment was saved with them all along.
+	 * 
+	 * @param position The position in the queue, clamped to its size.
+	 * @param comment The Comment to be put back.
+	 */
+	public void addCommentToQueue(int position, Comment comment) {
+		commentsInFlight.remove(comment);
+		commentQueue.add(Math.min(position, commentQueue.size()), comment);
+	}
+
+	/**
+	 * Puts a threadComment taken off the Queue of threadComments to post back
+	 * at the passed position, such as at the front after posting it failed.
+	 * The queues are not saved, as the threadComment was saved with them all
+	 * along.
+	 * 
+	 * @param position The position in the queue, clamped to its size.
+	 * @param thread The ThreadComment to be put back.
+	 */
+	public void addThreadCommentToQueue(int position, ThreadComment thread) {
+		threadsInFlight.remove(thread);
+		threadCommentQueue.add(Math.min(position, threadCommentQueue.size()),
+				thread);
+	}
+
+	/**
+	 * Forgets a comment taken off the Queue of comments to post once it was
+	 * posted. It is left out of the queues from their next save on.
+	 * 
+	 * @param comment The posted Comment.
+	 */
+	public void removePostedComment(Comment comment) {
+		commentsInFlight.remove(comment);
+	}
+
+	/**
+	 * Forgets a threadComment taken off the Queue of threadComments to post
+	 * once it was posted. It is left out of the queues from their next save
+	 * on.
+	 * 
+	 * @param thread The posted ThreadComment.
+	 */
+	public void removePostedThreadComment(ThreadComment thread) {
+		threadsInFlight.remove(thread);
+	}
+
+	/**
+	 * Saves both queues, along with the posts taken off them that were not
+	 * posted yet. The queues are copied on the calling thread and written on
+	 * a background thread. Saves asked for while a write is waiting are
+	 * merged into it, so a burst of changes is written once.
+	 */
+	public void saveQueues() {
+		ArrayList<Comment> comments = new ArrayList<Comment>(commentsInFlight);
+		comments.addAll(commentQueue);
+		ArrayList<ThreadComment> threads = new ArrayList<ThreadComment>(
+				threadsInFlight);
+		threads.addAll(threadCommentQueue);
+		boolean waiting;
+		synchronized (this) {
+			waiting = unsavedCommentQueue != null;
+			unsavedCommentQueue = comments;
+			unsavedThreadCommentQueue = threads;
+		}
+		if (!waiting) {
+			saveExecutor.execute(queueSaver);
+		}
 	}
 
 	/**
 	 * Using the ThreadManager, posts all the comments and threadComments in the
-	 * queue, called once internet connection is acquired.
+	 * queue, called once internet connection is acquired. The queues are
+	 * drained a few posts at a time so they do not compete with the user's
+	 * foreground requests.
+	 * 
+	 * @param listener The listener to report progress to, may be null.
 	 */
-	public void postAll() {
-		for (Comment comment : commentQueue) {
-			ThreadManager.startPost(comment, null, comment.getLocation(), null,
-					false);
-			commentQueue.remove(comment);
+	public void postAll(OutboxProgressListenerInterface listener) {
+		ThreadManager.startDrainOutbox(listener);
+	}
+
+	/**
+	 * Takes the first Comment off the queue to be posted. Nothing is written;
+	 * the Comment is still saved with the queues until removePostedComment
+	 * is called for it.
+	 * 
+	 * @return The removed Comment, or null if the queue is empty.
+	 */
+	public Comment pollCommentQueue() {
+		if (commentQueue.isEmpty()) {
+			return null;
 		}
-		for (ThreadComment threadComment : threadCommentQueue) {
-			Comment bodyComment = threadComment.getBodyComment();
-			ThreadManager.startPost(bodyComment, threadComment.getTitle(),
-					bodyComment.getLocation(), null, false);
-			threadCommentQueue.remove(threadComment);
+		Comment comment = commentQueue.remove(0);
+		commentsInFlight.add(comment);
+		return comment;
+	}
+
+	/**
+	 * Takes the first ThreadComment off the queue to be posted. Nothing is
+	 * written; the ThreadComment is still saved with the queues until
+	 * removePostedThreadComment is called for it.
+	 * 
+	 * @return The removed ThreadComment, or null if the queue is empty.
+	 */
+	public ThreadComment pollThreadCommentQueue() {
+		if (threadCommentQueue.isEmpty()) {
+			return null;
 		}
-		serializeCommentQueue();
-		serializeThreadCommentQueue();
+		ThreadComment threadComment = threadCommentQueue.remove(0);
+		threadsInFlight.add(threadComment);
+		return threadComment;
 	}
 
 	public static CacheManager getInstance() {
@@ -148,12 +288,14 @@ public class CacheManager {
 	}
 
 	/**
-	 * Serializes the comment queue to JSON.
+	 * Writes a serialized queue to its file.
+	 * 
+	 * @param filename The file of the queue.
+	 * @param json The queue as JSON.
 	 */
-	public void serializeCommentQueue() {
+	private void writeQueue(String filename, String json) {
 		try {
-			String json = offlineGson.toJson(getCommentQueue());
-			FileOutputStream f = context.openFileOutput(FILENAME2,
+			FileOutputStream f = context.openFileOutput(filename,
 					Context.MODE_PRIVATE);
 			BufferedWriter w = new BufferedWriter(new OutputStreamWriter(f));
 			w.write(json);
@@ -195,25 +337,6 @@ public class CacheManager {
 		return list;
 	}
 
-	/**
-	 * Serializes the ThreadComment queue to JSON.
-	 */
-	public void serializeThreadCommentQueue() {
-		try {
-			String json = offlineGson.toJson(getThreadCommentQueue());
-			FileOutputStream f = context.openFileOutput(FILENAME3,
-					Context.MODE_PRIVATE);
-			BufferedWriter w = new BufferedWriter(new OutputStreamWriter(f));
-			w.write(json);
-			w.close();
-			f.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
 	/**
 	 * Deserializes the ThreadComment queue from JSON.
 	 * @return An ArrayList of the deserialized ThreadComments.
@@ -296,11 +419,11 @@ public class CacheManager {
 	 * Serialize the list of threads with all the data with the exception of all
 	 * the comment children of the Thread body comment.
 	 * 
-	 * @param list The ArrayList of ThreadComments to serialize.
+	 * @param list The List of ThreadComments to serialize.
 	 */
-	public void serializeThreadList(ArrayList<ThreadComment> list) {
+	public void serializeThreadList(List<ThreadComment> list) {
 		try {
-			String json = onlineGson.toJson(list);
+			String json = onlineGson.toJson(new ArrayList<ThreadComment>(list));
 			FileOutputStream f = context.openFileOutput(FILENAME,
 					Context.MODE_PRIVATE);
 			BufferedWriter w = new BufferedWriter(new OutputStreamWriter(f));
@@ -350,7 +473,7 @@ public class CacheManager {
 	 * 
 	 * @param thread The ThreadComment to serialize.
 	 */
-	public void serializeThreadCommentById(ThreadComment thread) {
+	public synchronized void serializeThreadCommentById(ThreadComment thread) {
 		try {
 			String json = offlineGson.toJson(thread);
 			FileOutputStream f = context.openFileOutput(thread.getId()
@@ -359,6 +482,8 @@ public class CacheManager {
 			w.write(json);
 			w.close();
 			f.close();
+			// The whole tree is saved, so the changes logged before are in it
+			context.deleteFile(thread.getId() + PATCH_EXTENSION);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -376,7 +501,7 @@ public class CacheManager {
 	 * @param id The id of the ThreadComment to deserialize.
 	 * @return An ArrayList of the ThreadComment's body comment's children.
 	 */
-	public ArrayList<Comment> deserializeThreadCommentById(String id) {
+	public synchronized ArrayList<Comment> deserializeThreadCommentById(String id) {
 		ThreadComment thread = null;
 		try {
 			FileInputStream f = context.openFileInput(id + EXTENSION);
@@ -397,9 +522,118 @@ public class CacheManager {
 			e.printStackTrace();
 		}
 		if (thread != null) {
+			replayCommentPatches(thread);
 			return thread.getBodyComment().getChildren();
 		} else {
 			return null;
 		}
 	}
+
+	/**
+	 * Records a single change to a ThreadComment's comment tree by appending
+	 * it to the thread's patch log, instead of saving the whole tree again.
+	 * The log is applied when the tree is next read from the cache, and
+	 * cleared when the whole tree is next saved.
+	 * 
+	 * @param threadId The id of the ThreadComment.
+	 * @param op One of PATCH_INSERT, PATCH_EDIT or PATCH_DELETE.
+	 * @param comment The inserted, edited or deleted Comment.
+	 */
+	public void appendCommentPatch(String threadId, String op,
+			Comment comment) {
+		ArrayList<Comment> comments = new ArrayList<Comment>(1);
+		comments.add(comment);
+		appendCommentPatches(threadId, op, comments);
+	}
+
+	/**
+	 * Records the same change to several Comments of a ThreadComment's
+	 * comment tree in one write to the thread's patch log, such as the
+	 * replies loaded in place of a stub. Inserted Comments must be listed
+	 * after their parents.
+	 * 
+	 * @param threadId The id of the ThreadComment.
+	 * @param op One of PATCH_INSERT, PATCH_EDIT or PATCH_DELETE.
+	 * @param comments The inserted, edited or deleted Comments.
+	 */
+	public synchronized void appendCommentPatches(String threadId, String op,
+			List<Comment> comments) {
+		try {
+			FileOutputStream f = context.openFileOutput(threadId
+					+ PATCH_EXTENSION, Context.MODE_APPEND);
+			BufferedWriter w = new BufferedWriter(new OutputStreamWriter(f));
+			for (Comment comment : comments) {
+				JsonObject patch = new JsonObject();
+				patch.addProperty("op", op);
+				if (PATCH_DELETE.equals(op)) {
+					patch.addProperty("id", comment.getId());
+				} else {
+					patch.add("comment", offlineGson.toJsonTree(comment));
+				}
+				w.write(patch.toString());
+				w.newLine();
+			}
+			w.close();
+			f.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Applies the changes in a ThreadComment's patch log to the tree read
+	 * from its cache file, in the order they were logged.
+	 * 
+	 * @param thread The ThreadComment read from the cache.
+	 */
+	private void replayCommentPatches(ThreadComment thread) {
+		Comment body = thread.getBodyComment();
+		JsonParser parser = new JsonParser();
+		try {
+			FileInputStream f = context.openFileInput(thread.getId()
+					+ PATCH_EXTENSION);
+			BufferedReader r = new BufferedReader(new InputStreamReader(f));
+			String line = r.readLine();
+			while (line != null) {
+				JsonObject patch = parser.parse(line).getAsJsonObject();
+				String op = patch.get("op").getAsString();
+				if (PATCH_DELETE.equals(op)) {
+					Comment target = body.findCommentById(body, patch.get("id")
+							.getAsString());
+					if (target != null && target.getParent() != null) {
+						target.getParent().removeChild(target);
+					}
+				} else {
+					JsonObject json = patch.get("comment").getAsJsonObject();
+					Comment comment = offlineGson.fromJson(json, Comment.class);
+					Comment target = body.findCommentById(body,
+							comment.getId());
+					if (PATCH_EDIT.equals(op) && target != null) {
+						target.setTextPost(comment.getTextPost());
+						target.setLocation(comment.getLocation());
+						target.setImageThumbData(comment.getImageThumbData());
+					} else if (PATCH_INSERT.equals(op) && target == null
+							&& json.has("parent")) {
+						Comment parent = body.findCommentById(body,
+								json.get("parent").getAsString());
+						if (parent != null) {
+							parent.addChild(comment);
+						}
+					}
+				}
+				line = r.readLine();
+			}
+			r.close();
+			f.close();
+		} catch (FileNotFoundException e) {
+			// No changes were logged since the tree was saved
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (JsonParseException e) {
+			// A torn last line from an interrupted write is skipped
+			e.printStackTrace();
+		}
+	}
 }
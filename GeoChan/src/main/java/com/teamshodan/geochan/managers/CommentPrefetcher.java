@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.managers;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import com.teamshodan.geochan.helpers.ConnectivityHelper;
+import com.teamshodan.geochan.models.ThreadComment;
+import com.teamshodan.geochan.tasks.GetCommentsTask;
+
+/**
+ * Decides which ThreadComments get their comments fetched speculatively, so
+ * that opening a thread from the ThreadListFragment is usually served from the
+ * cache. Only the first few threads visible in the list are prefetched, only
+ * on unmetered networks, and only until the byte budget set in the
+ * preferences is spent for the current thread list. All methods must be called
+ * on the UI thread.
+ */
+public class CommentPrefetcher {
+
+	// Maximum number of visible threads to prefetch at a time
+	private static final int MAXIMUM_PREFETCH_COUNT = 5;
+	// How long prefetched comments are considered fresh, in milliseconds
+	private static final long FRESH_TIME = 5 * 60 * 1000;
+
+	private final HashMap<String, Long> prefetchTimes;
+	private final HashSet<String> inFlight;
+	private long bytesUsed = 0;
+
+	/**
+	 * Constructs the prefetcher.
+	 */
+	public CommentPrefetcher() {
+		prefetchTimes = new HashMap<String, Long>();
+		inFlight = new HashSet<String>();
+	}
+
+	/**
+	 * Prefetches the comments of the first few of the passed threads that are
+	 * not already fresh or being fetched.
+	 * 
+	 * @param visibleThreads
+	 *            the ThreadComments visible in the list, in display order
+	 */
+	public void prefetch(List<ThreadComment> visibleThreads) {
+		ConnectivityHelper helper = ConnectivityHelper.getInstance();
+		if (helper == null || !helper.isUnmetered()) {
+			return;
+		}
+		long budget = PreferencesManager.getInstance().getPrefetchBudget();
+		int count = Math.min(MAXIMUM_PREFETCH_COUNT, visibleThreads.size());
+		for (int i = 0; i < count; ++i) {
+			if (bytesUsed >= budget) {
+				return;
+			}
+			String id = visibleThreads.get(i).getId();
+			if (inFlight.contains(id) || isFresh(id)) {
+				continue;
+			}
+			inFlight.add(id);
+			ThreadManager.startPrefetchComments(id);
+		}
+	}
+
+	/**
+	 * Records the result of a prefetch task.
+	 * 
+	 * @param task
+	 *            the finished prefetch task
+	 * @param success
+	 *            whether the comments were fetched and cached
+	 */
+	public void onPrefetchFinished(GetCommentsTask task, boolean success) {
+		inFlight.remove(task.getThreadId());
+		bytesUsed += task.getBytesLoaded();
+		if (success) {
+			prefetchTimes.put(task.getThreadId(), SystemClock.elapsedRealtime());
+		}
+	}
+
+	/**
+	 * Records that the comments of a thread were just loaded in the
+	 * foreground, so they do not need to be prefetched again.
+	 * 
+	 * @param threadId
+	 *            the id of the ThreadComment
+	 */
+	public void onLoaded(String threadId) {
+		prefetchTimes.put(threadId, SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Returns whether the comments of a thread were fetched recently enough
+	 * to be shown without reloading them.
+	 * 
+	 * @param threadId
+	 *            the id of the ThreadComment
+	 * @return true if the cached comments are fresh
+	 */
+	public boolean isFresh(String threadId) {
+		Long time = prefetchTimes.get(threadId);
+		return time != null
+				&& SystemClock.elapsedRealtime() - time < FRESH_TIME;
+	}
+
+	/**
+	 * Starts a new byte budget, called when a new thread list is loaded.
+	 */
+	public void resetBudget() {
+		bytesUsed = 0;
+	}
+}
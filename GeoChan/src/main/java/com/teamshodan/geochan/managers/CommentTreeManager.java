@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.managers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.helpers.SortUtil;
+import com.teamshodan.geochan.interfaces.CommentTreeListenerInterface;
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.ThreadComment;
+
+/**
+ * Applies single changes to the comment tree of a ThreadComment: a reply
+ * inserted, a Comment edited or a Comment deleted. Each change touches only
+ * the affected level of the tree, is appended to the thread's patch log in
+ * the CacheManager instead of saving the whole tree again, and is passed on
+ * to the registered listeners so views can update only the affected rows. All
+ * methods must be called on the UI thread.
+ */
+public class CommentTreeManager {
+
+	private static final List<CommentTreeListenerInterface> listeners = new ArrayList<CommentTreeListenerInterface>();
+
+	/**
+	 * Registers a listener for changes to any comment tree.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public static void addListener(CommentTreeListenerInterface listener) {
+		if (!listeners.contains(listener)) {
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Stops a listener from hearing about changes.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public static void removeListener(CommentTreeListenerInterface listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Adds a reply to a Comment of the thread. Only the parent's children are
+	 * sorted again to put the reply in its place; the rest of the tree is left
+	 * as it is.
+	 * 
+	 * @param thread
+	 *            the ThreadComment whose tree gets the reply
+	 * @param parent
+	 *            the Comment replied to
+	 * @param reply
+	 *            the new Comment
+	 * @param sortType
+	 *            the SortUtil sort type the thread's comments are shown in
+	 */
+	public static void insertComment(ThreadComment thread, Comment parent,
+			Comment reply, int sortType) {
+		parent.addChild(reply);
+		List<Comment> siblings = parent.getChildren();
+		if (siblings.size() > 1) {
+			int[] order = SortUtil.commentOrder(
+					SortRequest.forComments(sortType), siblings);
+			if (order != null) {
+				SortUtil.permute(siblings, order);
+			}
+		}
+		ThreadManager.invalidateCommentSorts(thread.getId());
+		CacheManager.getInstance().appendCommentPatch(thread.getId(),
+				CacheManager.PATCH_INSERT, reply);
+		for (CommentTreeListenerInterface listener : new ArrayList<CommentTreeListenerInterface>(
+				listeners)) {
+			listener.onCommentInserted(thread, reply);
+		}
+	}
+
+	/**
+	 * Records that the contents of a Comment of the thread were edited in
+	 * place. The tree's shape is unchanged.
+	 * 
+	 * @param thread
+	 *            the ThreadComment the Comment belongs to
+	 * @param comment
+	 *            the edited Comment
+	 */
+	public static void commentEdited(ThreadComment thread, Comment comment) {
+		CacheManager.getInstance().appendCommentPatch(thread.getId(),
+				CacheManager.PATCH_EDIT, comment);
+		for (CommentTreeListenerInterface listener : new ArrayList<CommentTreeListenerInterface>(
+				listeners)) {
+			listener.onCommentChanged(thread, comment);
+		}
+	}
+
+	/**
+	 * Puts replies loaded from the server in the place of the stub that stood
+	 * in for them. The replies' own levels are sorted, then the stub's
+	 * siblings, so only the levels that changed are sorted again.
+	 * 
+	 * @param thread
+	 *            the ThreadComment whose tree gets the replies
+	 * @param stub
+	 *            the stub the replies were loaded for
+	 * @param replies
+	 *            the loaded replies, possibly followed by a stub for those
+	 *            still not loaded
+	 * @param sortType
+	 *            the SortUtil sort type the thread's comments are shown in
+	 * @return false if the stub is no longer in the tree, for instance
+	 *         because the thread was reloaded
+	 */
+	public static boolean attachReplies(ThreadComment thread, Comment stub,
+			List<Comment> replies, int sortType) {
+		Comment parent = stub.getParent();
+		if (parent == null || parent.getRoot() != thread.getBodyComment()
+				|| !parent.removeChild(stub)) {
+			return false;
+		}
+		SortRequest request = SortRequest.forComments(sortType);
+		for (Comment reply : replies) {
+			SortUtil.sortComments(request, reply.getChildren());
+			parent.addChild(reply);
+		}
+		List<Comment> siblings = parent.getChildren();
+		if (siblings.size() > 1) {
+			int[] order = SortUtil.commentOrder(request, siblings);
+			if (order != null) {
+				SortUtil.permute(siblings, order);
+			}
+		}
+		ThreadManager.invalidateCommentSorts(thread.getId());
+		// Logged parents first, so each reply's parent exists when replayed
+		ArrayList<Comment> loaded = new ArrayList<Comment>();
+		ArrayList<Comment> stack = new ArrayList<Comment>(replies);
+		while (!stack.isEmpty()) {
+			Comment comment = stack.remove(stack.size() - 1);
+			if (!comment.isStub()) {
+				loaded.add(comment);
+				stack.addAll(comment.getChildren());
+			}
+		}
+		CacheManager.getInstance().appendCommentPatches(thread.getId(),
+				CacheManager.PATCH_INSERT, loaded);
+		for (CommentTreeListenerInterface listener : new ArrayList<CommentTreeListenerInterface>(
+				listeners)) {
+			listener.onRepliesLoaded(thread, parent);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a Comment and its replies from the thread's tree.
+	 * 
+	 * @param thread
+	 *            the ThreadComment whose tree loses the Comment
+	 * @param comment
+	 *            the Comment to delete
+	 * @return false if the Comment is not in a tree
+	 */
+	public static boolean deleteComment(ThreadComment thread, Comment comment) {
+		Comment parent = comment.getParent();
+		if (parent == null || !parent.removeChild(comment)) {
+			return false;
+		}
+		ThreadManager.invalidateCommentSorts(thread.getId());
+		CacheManager.getInstance().appendCommentPatch(thread.getId(),
+				CacheManager.PATCH_DELETE, comment);
+		for (CommentTreeListenerInterface listener : new ArrayList<CommentTreeListenerInterface>(
+				listeners)) {
+			listener.onCommentRemoved(thread, comment);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.teamshodan.geochan.managers;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.teamshodan.geochan.helpers.ConnectivityHelper;
+
+/**
+ * Sizes the ThreadManager's network thread pools according to the type of
+ * network the device is on and the latency and throughput observed for recent
+ * requests.
+ *
+ * Uses additive-increase/multiplicative-decrease. Latency is judged per pool,
+ * against the best latency seen for that pool's kind of request, so a quick
+ * point of interest lookup does not make every image download look congested.
+ * A failed request, or a pool whose smoothed latency rises above the tolerated
+ * multiple of its own best latency, halves the limit, at most once per
+ * smoothed round trip. Failed requests are not taken as latency samples.
+ *
+ * Every time a full window of requests completes without congestion, the
+ * throughput of the window is measured in completed requests per second. If
+ * requests were left waiting in a pool's queue, the limit grows by one, up to
+ * the cap for the current network type. If the window after a growth got
+ * fewer requests done per second than the window before it, the extra request
+ * only added contention: the limit goes back down by one and stays there
+ * until the next decrease or change of network. Fast links therefore ramp up
+ * while more requests in flight still get more done, and slow links settle on
+ * few enough requests that they do not queue behind each other.
+ */
+public class ConcurrencyController {
+
+	private static final int MINIMUM_LIMIT = 1;
+	private static final int WIFI_MAXIMUM_LIMIT = 8;
+	private static final int MOBILE_MAXIMUM_LIMIT = 4;
+	private static final int OTHER_MAXIMUM_LIMIT = 2;
+	// Latency above this multiple of a pool's best latency counts as congestion
+	private static final double LATENCY_TOLERANCE = 2.0;
+	// Weight of the newest sample in the smoothed latency
+	private static final double SMOOTHING_FACTOR = 0.2;
+	// How often the network type is re-checked, in milliseconds
+	private static final long NETWORK_CHECK_INTERVAL = 5000;
+
+	private final ThreadPoolExecutor[] pools;
+	// Latency history of each pool, by its index in pools
+	private final double[] smoothedLatency;
+	private final long[] minimumLatency;
+	// The tracked request running on each pool thread
+	private final ThreadLocal<Request> currentRequest = new ThreadLocal<Request>();
+	private int limit;
+	private int maximumLimit;
+	// Highest limit that still raised throughput, until the next decrease
+	private int throughputLimit;
+	private int completedInWindow = 0;
+	private long windowStartTime = 0;
+	// Throughput of the window before the last increase, or 0
+	private double throughputBeforeIncrease = 0;
+	private long lastDecreaseTime = 0;
+	private long lastNetworkCheckTime = 0;
+
+	/**
+	 * Constructs the controller for the passed pools and sizes them for the
+	 * current network.
+	 *
+	 * @param pools
+	 *            The network thread pools to size.
+	 */
+	public ConcurrencyController(ThreadPoolExecutor... pools) {
+		this.pools = pools;
+		this.smoothedLatency = new double[pools.length];
+		this.minimumLatency = new long[pools.length];
+		this.maximumLimit = OTHER_MAXIMUM_LIMIT;
+		this.limit = OTHER_MAXIMUM_LIMIT;
+		long now = SystemClock.elapsedRealtime();
+		resetHistory(now);
+		checkNetwork(now);
+	}
+
+	/**
+	 * Wraps a runnable so that its run time is reported to the controller when
+	 * it finishes, unless it reported a failure while running. Runnables for
+	 * pools the controller does not size are returned as they are.
+	 *
+	 * @param pool
+	 *            The pool the runnable is executed on.
+	 * @param runnable
+	 *            The runnable performing network work.
+	 * @return A runnable that runs the passed runnable and records its latency.
+	 */
+	public Runnable track(ThreadPoolExecutor pool, final Runnable runnable) {
+		final int index = indexOf(pool);
+		if (index < 0) {
+			return runnable;
+		}
+		return new Runnable() {
+			@Override
+			public void run() {
+				Request request = new Request();
+				currentRequest.set(request);
+				long start = SystemClock.elapsedRealtime();
+				try {
+					runnable.run();
+				} finally {
+					currentRequest.remove();
+					if (!request.failed) {
+						onRequestComplete(index,
+								SystemClock.elapsedRealtime() - start);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Records the latency of a request that completed successfully and grows
+	 * or shrinks the concurrency limit accordingly.
+	 *
+	 * @param pool
+	 *            The index of the pool the request ran on.
+	 * @param latency
+	 *            The time the request took, in milliseconds.
+	 */
+	private synchronized void onRequestComplete(int pool, long latency) {
+		long now = SystemClock.elapsedRealtime();
+		checkNetwork(now);
+		if (smoothedLatency[pool] == 0) {
+			smoothedLatency[pool] = latency;
+		} else {
+			smoothedLatency[pool] += SMOOTHING_FACTOR
+					* (latency - smoothedLatency[pool]);
+		}
+		minimumLatency[pool] = Math.max(1,
+				Math.min(minimumLatency[pool], latency));
+		if (smoothedLatency[pool] > LATENCY_TOLERANCE * minimumLatency[pool]) {
+			decrease(now);
+			return;
+		}
+		completedInWindow++;
+		if (completedInWindow < limit) {
+			return;
+		}
+		double throughput = completedInWindow * 1000.0
+				/ Math.max(1, now - windowStartTime);
+		startWindow(now);
+		if (throughputBeforeIncrease > 0
+				&& throughput < throughputBeforeIncrease) {
+			// The last increase only added contention
+			throughputBeforeIncrease = 0;
+			throughputLimit = Math.max(MINIMUM_LIMIT, limit - 1);
+			setLimit(throughputLimit);
+		} else if (limit < Math.min(maximumLimit, throughputLimit)
+				&& hasQueuedRequests()) {
+			throughputBeforeIncrease = throughput;
+			setLimit(limit + 1);
+		} else {
+			throughputBeforeIncrease = 0;
+		}
+	}
+
+	/**
+	 * Records a failed request. Failures are treated as congestion and halve
+	 * the concurrency limit. A request that fails while running on a tracked
+	 * pool is not used as a latency sample.
+	 */
+	public synchronized void onRequestFailed() {
+		Request request = currentRequest.get();
+		if (request != null) {
+			request.failed = true;
+		}
+		decrease(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Halves the limit, unless it was already decreased within the last
+	 * smoothed round trip.
+	 *
+	 * @param now
+	 *            The current time, from SystemClock.elapsedRealtime.
+	 */
+	private void decrease(long now) {
+		startWindow(now);
+		throughputBeforeIncrease = 0;
+		if (now - lastDecreaseTime < roundTrip()) {
+			return;
+		}
+		lastDecreaseTime = now;
+		throughputLimit = Integer.MAX_VALUE;
+		setLimit(Math.max(MINIMUM_LIMIT, limit / 2));
+	}
+
+	/**
+	 * Re-reads the network type, at most once per NETWORK_CHECK_INTERVAL. On a
+	 * change of network the latency and throughput history is discarded and
+	 * the limit is clamped to the cap of the new network.
+	 *
+	 * @param now
+	 *            The current time, from SystemClock.elapsedRealtime.
+	 */
+	private void checkNetwork(long now) {
+		if (lastNetworkCheckTime != 0
+				&& now - lastNetworkCheckTime < NETWORK_CHECK_INTERVAL) {
+			return;
+		}
+		lastNetworkCheckTime = now;
+		ConnectivityHelper helper = ConnectivityHelper.getInstance();
+		int newMaximum = OTHER_MAXIMUM_LIMIT;
+		if (helper != null && helper.isWifi()) {
+			newMaximum = WIFI_MAXIMUM_LIMIT;
+		} else if (helper != null && helper.isMobile()) {
+			newMaximum = MOBILE_MAXIMUM_LIMIT;
+		}
+		if (newMaximum != maximumLimit) {
+			maximumLimit = newMaximum;
+			resetHistory(now);
+		}
+		setLimit(Math.min(limit, maximumLimit));
+	}
+
+	/**
+	 * Forgets the latency and throughput seen so far.
+	 *
+	 * @param now
+	 *            The current time, from SystemClock.elapsedRealtime.
+	 */
+	private void resetHistory(long now) {
+		for (int i = 0; i < pools.length; ++i) {
+			smoothedLatency[i] = 0;
+			minimumLatency[i] = Long.MAX_VALUE;
+		}
+		throughputLimit = Integer.MAX_VALUE;
+		throughputBeforeIncrease = 0;
+		startWindow(now);
+	}
+
+	/**
+	 * Starts a new window of completed requests.
+	 *
+	 * @param now
+	 *            The current time, from SystemClock.elapsedRealtime.
+	 */
+	private void startWindow(long now) {
+		completedInWindow = 0;
+		windowStartTime = now;
+	}
+
+	/**
+	 * Returns the longest smoothed latency of any pool, in milliseconds.
+	 */
+	private double roundTrip() {
+		double longest = 0;
+		for (double latency : smoothedLatency) {
+			longest = Math.max(longest, latency);
+		}
+		return longest;
+	}
+
+	/**
+	 * Returns whether any pool has requests waiting for a thread, so that a
+	 * higher limit would put more requests in flight.
+	 */
+	private boolean hasQueuedRequests() {
+		for (ThreadPoolExecutor pool : pools) {
+			if (!pool.getQueue().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the index of a pool in pools, or -1 if it is not sized here.
+	 */
+	private int indexOf(ThreadPoolExecutor pool) {
+		for (int i = 0; i < pools.length; ++i) {
+			if (pools[i] == pool) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Applies a new concurrency limit to every pool. The pools are backed by
+	 * unbounded queues, so the core size is the number of requests in flight.
+	 *
+	 * @param newLimit
+	 *            The new concurrency limit.
+	 */
+	private void setLimit(int newLimit) {
+		limit = newLimit;
+		for (ThreadPoolExecutor pool : pools) {
+			if (newLimit > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(newLimit);
+				pool.setCorePoolSize(newLimit);
+			} else {
+				pool.setCorePoolSize(newLimit);
+				pool.setMaximumPoolSize(newLimit);
+			}
+		}
+	}
+
+	/* Getters below */
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * A tracked request, marked when it reports a failure.
+	 */
+	private static class Request {
+		boolean failed;
+	}
+}
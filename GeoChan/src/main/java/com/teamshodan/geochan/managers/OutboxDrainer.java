@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.teamshodan.geochan.managers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import com.teamshodan.geochan.interfaces.OutboxProgressListenerInterface;
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.ThreadComment;
+import com.teamshodan.geochan.tasks.PostTask;
+
+/**
+ * Posts the Comments and ThreadComments queued in the CacheManager while the
+ * device was offline. Instead of starting every queued post at once, only a
+ * few posts are kept in flight, new posts are started no faster than a fixed
+ * rate, and the drain pauses while the user is waiting on a foreground fetch.
+ * A post that fails is put back at the front of its queue, in the order the
+ * posts were started, so replies and edits are never posted ahead of what
+ * they depend on; the drain backs off and then tries it again. After
+ * MAXIMUM_ATTEMPTS failures of one post the drain gives up until the next
+ * time it is started, and reports the posts it did not get to as failed so
+ * the listener still sees the drain finish. The queues are changed in memory
+ * while draining; posted posts are dropped from the saved queues at most every
+ * SAVE_INTERVAL, and once more when the drain ends, with the writing done off
+ * the UI thread. All methods must be called on the UI thread.
+ */
+public class OutboxDrainer {
+
+	private static final int MAXIMUM_IN_FLIGHT = 2;
+	// Minimum time between starting two queued posts, in milliseconds
+	private static final long MINIMUM_POST_INTERVAL = 500;
+	// Longest a pause is honoured, in case a fetch never reports back
+	private static final long MAXIMUM_PAUSE = 30000;
+	// Times a post is tried in one drain before the drain gives up
+	private static final int MAXIMUM_ATTEMPTS = 3;
+	// Wait after a first failure, doubled for each further failure
+	private static final long INITIAL_BACKOFF = 2000;
+	// Longest the saved queues lag behind the posts made, in milliseconds
+	private static final long SAVE_INTERVAL = 5000;
+
+	private final Handler handler;
+	private final HashMap<PostTask, Comment> inFlightComments;
+	private final HashMap<PostTask, ThreadComment> inFlightThreads;
+	// Order in which the posts in flight were started
+	private final HashMap<PostTask, Long> startOrder;
+	// Start order of the posts put back at the front of each queue
+	private final ArrayList<Long> requeuedComments;
+	private final ArrayList<Long> requeuedThreads;
+	// Failed attempts of each post in this drain
+	private final IdentityHashMap<Object, Integer> attempts;
+	private OutboxProgressListenerInterface listener;
+	private boolean draining = false;
+	private boolean paused = false;
+	private long pauseTime = 0;
+	private long lastPostTime = 0;
+	private long retryTime = 0;
+	private long nextStart = 0;
+	private boolean saveScheduled = false;
+	private int posted;
+	private int failed;
+	private int total;
+
+	private final Runnable drainStep = new Runnable() {
+		@Override
+		public void run() {
+			drainNext();
+		}
+	};
+
+	private final Runnable saveStep = new Runnable() {
+		@Override
+		public void run() {
+			saveScheduled = false;
+			CacheManager.getInstance().saveQueues();
+		}
+	};
+
+	/**
+	 * Constructs the drainer.
+	 */
+	public OutboxDrainer() {
+		handler = new Handler(Looper.getMainLooper());
+		inFlightComments = new HashMap<PostTask, Comment>();
+		inFlightThreads = new HashMap<PostTask, ThreadComment>();
+		startOrder = new HashMap<PostTask, Long>();
+		requeuedComments = new ArrayList<Long>();
+		requeuedThreads = new ArrayList<Long>();
+		attempts = new IdentityHashMap<Object, Integer>();
+	}
+
+	/**
+	 * Starts draining the CacheManager's queues. If a drain is already running
+	 * the listener is replaced and the newly queued posts are added to it.
+	 *
+	 * @param listener
+	 *            the listener to report progress to, may be null
+	 */
+	public void start(OutboxProgressListenerInterface listener) {
+		this.listener = listener;
+		CacheManager cache = CacheManager.getInstance();
+		int queued = cache.getCommentQueue().size()
+				+ cache.getThreadCommentQueue().size();
+		if (!draining) {
+			draining = true;
+			posted = 0;
+			failed = 0;
+			retryTime = 0;
+			attempts.clear();
+		}
+		total = posted + failed + getInFlightCount() + queued;
+		scheduleNext(0);
+	}
+
+	/**
+	 * Stops starting new posts until resume is called, or until MAXIMUM_PAUSE
+	 * has passed. Posts already in flight are left to finish.
+	 */
+	public void pause() {
+		paused = true;
+		pauseTime = SystemClock.elapsedRealtime();
+		scheduleNext(0);
+	}
+
+	/**
+	 * Resumes a drain paused by pause.
+	 */
+	public void resume() {
+		paused = false;
+		scheduleNext(0);
+	}
+
+	/**
+	 * Called by the ThreadManager when a PostTask reaches a final state. Tasks
+	 * not started by this drainer are ignored.
+	 *
+	 * @param task
+	 *            the finished PostTask
+	 * @param success
+	 *            whether the post succeeded
+	 */
+	public void onPostFinished(PostTask task, boolean success) {
+		Comment comment = inFlightComments.remove(task);
+		ThreadComment threadComment = inFlightThreads.remove(task);
+		Long order = startOrder.remove(task);
+		if (comment == null && threadComment == null) {
+			return;
+		}
+		Object post = comment != null ? comment : threadComment;
+		if (success) {
+			posted++;
+			attempts.remove(post);
+			retryTime = 0;
+			if (comment != null) {
+				CacheManager.getInstance().removePostedComment(comment);
+			} else {
+				CacheManager.getInstance().removePostedThreadComment(
+						threadComment);
+			}
+			scheduleSave();
+		} else {
+			requeue(comment, threadComment, order);
+			Integer tries = attempts.get(post);
+			int failures = tries == null ? 1 : tries + 1;
+			attempts.put(post, failures);
+			if (!draining) {
+				// The drain already gave up and counted the queue as failed
+				failed++;
+			} else if (failures >= MAXIMUM_ATTEMPTS) {
+				// Give up on this drain, counting what is left as failed
+				draining = false;
+				failed = total - posted - getInFlightCount();
+				saveNow();
+			} else {
+				retryTime = SystemClock.elapsedRealtime()
+						+ (INITIAL_BACKOFF << (failures - 1));
+			}
+		}
+		reportProgress();
+		scheduleNext(0);
+	}
+
+	/**
+	 * Puts a failed post back at the front of its queue, behind any post put
+	 * back before it that was started before it.
+	 */
+	private void requeue(Comment comment, ThreadComment threadComment,
+			Long order) {
+		ArrayList<Long> requeued = comment != null ? requeuedComments
+				: requeuedThreads;
+		int position = 0;
+		while (position < requeued.size() && requeued.get(position) < order) {
+			position++;
+		}
+		requeued.add(position, order);
+		if (comment != null) {
+			CacheManager.getInstance().addCommentToQueue(position, comment);
+		} else {
+			CacheManager.getInstance().addThreadCommentToQueue(position,
+					threadComment);
+		}
+	}
+
+	/**
+	 * Starts the next queued post if the drain is running, not paused, under
+	 * the in-flight limit and past the rate limit and any backoff.
+	 */
+	private void drainNext() {
+		if (paused) {
+			long remaining = pauseTime + MAXIMUM_PAUSE
+					- SystemClock.elapsedRealtime();
+			if (remaining > 0) {
+				if (draining) {
+					scheduleNext(remaining);
+				}
+				return;
+			}
+			paused = false;
+		}
+		if (!draining || getInFlightCount() >= MAXIMUM_IN_FLIGHT) {
+			return;
+		}
+		long wait = Math.max(lastPostTime + MINIMUM_POST_INTERVAL, retryTime)
+				- SystemClock.elapsedRealtime();
+		if (wait > 0) {
+			scheduleNext(wait);
+			return;
+		}
+		CacheManager cache = CacheManager.getInstance();
+		PostTask task;
+		Comment comment = cache.pollCommentQueue();
+		if (comment != null) {
+			if (!requeuedComments.isEmpty()) {
+				requeuedComments.remove(0);
+			}
+			task = ThreadManager.startPost(comment, null,
+					comment.getLocation(), null, false);
+			inFlightComments.put(task, comment);
+		} else {
+			ThreadComment threadComment = cache.pollThreadCommentQueue();
+			if (threadComment == null) {
+				if (getInFlightCount() == 0) {
+					draining = false;
+					saveNow();
+				}
+				return;
+			}
+			if (!requeuedThreads.isEmpty()) {
+				requeuedThreads.remove(0);
+			}
+			Comment bodyComment = threadComment.getBodyComment();
+			task = ThreadManager.startPost(bodyComment,
+					threadComment.getTitle(), bodyComment.getLocation(), null,
+					false);
+			inFlightThreads.put(task, threadComment);
+		}
+		startOrder.put(task, nextStart++);
+		lastPostTime = SystemClock.elapsedRealtime();
+		reportProgress();
+		scheduleNext(MINIMUM_POST_INTERVAL);
+	}
+
+	/**
+	 * Schedules a drain step, replacing any step already scheduled.
+	 *
+	 * @param delay
+	 *            the delay in milliseconds
+	 */
+	private void scheduleNext(long delay) {
+		handler.removeCallbacks(drainStep);
+		handler.postDelayed(drainStep, delay);
+	}
+
+	/**
+	 * Saves the queues within SAVE_INTERVAL, unless a save is already
+	 * scheduled.
+	 */
+	private void scheduleSave() {
+		if (!saveScheduled) {
+			saveScheduled = true;
+			handler.postDelayed(saveStep, SAVE_INTERVAL);
+		}
+	}
+
+	/**
+	 * Saves the queues now, in place of any scheduled save.
+	 */
+	private void saveNow() {
+		handler.removeCallbacks(saveStep);
+		saveScheduled = false;
+		CacheManager.getInstance().saveQueues();
+	}
+
+	/**
+	 * Reports the current progress to the listener, if there is one.
+	 */
+	private void reportProgress() {
+		if (listener != null) {
+			listener.onOutboxProgress(posted, failed, total);
+		}
+	}
+
+	/* Getters below */
+
+	public int getInFlightCount() {
+		return inFlightComments.size() + inFlightThreads.size();
+	}
+
+	public boolean isDraining() {
+		return draining;
+	}
+}
@@ -26,6 +26,7 @@ import android.content.SharedPreferences.Editor;
 import android.preference.PreferenceManager;
 import android.provider.Settings.Secure;
 
+import com.teamshodan.geochan.helpers.HashHelper;
 import com.teamshodan.geochan.helpers.SortUtil;
 
 /**
@@ -37,10 +38,20 @@ public class PreferencesManager {
     private static Context context;
     private static SharedPreferences preferences;
     private static PreferencesManager instance = null;
+    // Held here, as SharedPreferences only keeps weak references to listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener usernameListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if ("username".equals(key)) {
+                HashHelper.identityChanged();
+            }
+        }
+    };
 
     protected PreferencesManager(Context _context) {
         context = _context;
         preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        preferences.registerOnSharedPreferenceChangeListener(usernameListener);
     }
 
     /**
@@ -80,6 +91,20 @@ public class PreferencesManager {
         return Secure.getString(context.getContentResolver(), Secure.ANDROID_ID);
     }
 
+    /**
+     * Retrieves the number of bytes that may be spent prefetching comments
+     * for each loaded thread list. Stored in kilobytes.
+     * 
+     * @return the prefetch budget in bytes
+     */
+    public long getPrefetchBudget() {
+        try {
+            return Long.parseLong(preferences.getString("prefetch_budget", "512")) * 1024;
+        } catch (NumberFormatException e) {
+            return 512 * 1024;
+        }
+    }
+
     /**
      * Returns the thread sort type as an integer
      * 
@@ -32,6 +32,8 @@ import android.widget.ImageView;
 
 import org.osmdroid.bonuspack.overlays.Marker;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -40,7 +42,8 @@ import java.util.concurrent.TimeUnit;
 
 import com.teamshodan.geochan.fragments.ThreadListFragment;
 import com.teamshodan.geochan.fragments.ThreadViewFragment;
-import com.teamshodan.geochan.helpers.SortUtil;
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.interfaces.OutboxProgressListenerInterface;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.CommentList;
 import com.teamshodan.geochan.models.GeoLocation;
@@ -51,6 +54,7 @@ import com.teamshodan.geochan.tasks.GetImageTask;
 import com.teamshodan.geochan.tasks.GetPOITask;
 import com.teamshodan.geochan.tasks.GetThreadCommentsTask;
 import com.teamshodan.geochan.tasks.PostTask;
+import com.teamshodan.geochan.tasks.SortCommentsTask;
 
 /**
  * Responsible for managing various threads that require to run in the
@@ -104,18 +108,29 @@ public class ThreadManager {
 	public static final int POST_GET_POI_RUNNING = 25;
 	public static final int POST_GET_POI_COMPLETE = 26;
 	public static final int POST_TASK_COMPLETE = 27;
+	// Sort a comment tree off the UI thread
+	public static final int SORT_COMMENTS_COMPLETE = 28;
 
 	private static final int KEEP_ALIVE_TIME = 1;
 	private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
+	// Initial pool sizes, adjusted at runtime by the ConcurrencyController
 	private static final int CORE_POOL_SIZE = 8;
 	private static final int MAXIMUM_POOL_SIZE = 8;
+	// Prefetches run one at a time so they never crowd out user requests
+	private static final int PREFETCH_POOL_SIZE = 1;
+	// Comment sorting is CPU bound, so it gets one thread per core
+	private static final int SORT_POOL_SIZE = Runtime.getRuntime()
+			.availableProcessors();
 	private static final int MAXIMUM_CACHE_SIZE = 1024 * 1024 * 10; // Start at
 	// 10MB??
+	// Number of comment tree sorts remembered
+	private static final int SORT_CACHE_SIZE = 8;
 
 	// Caches for download tasks
 	private final LruCache<String, CommentList> commentListCache;
 	private final LruCache<String, Bitmap> getImageCache;
 	private final LruCache<String, String> getPOICache;
+	private final LruCache<String, SortCommentsTask.SortedLevels> commentSortCache;
 
 	// Queues of runnables required by tasks
 	// es GetCommentList task
@@ -133,6 +148,12 @@ public class ThreadManager {
 	// get Point of Interest Task
 	private final BlockingQueue<Runnable> getPOIRunnableQueue;
 
+	// Speculative comment prefetches
+	private final BlockingQueue<Runnable> prefetchRunnableQueue;
+
+	// Parts of comment tree sorts
+	private final BlockingQueue<Runnable> sortCommentsRunnableQueue;
+
 	// Queues of tasks this manager is responsible for
 	private final Queue<GetCommentsTask> getCommentsTaskQueue;
 	private final Queue<PostTask> postTaskQueue;
@@ -149,6 +170,17 @@ public class ThreadManager {
 	private final ThreadPoolExecutor getImagePool;
 	private final ThreadPoolExecutor getThreadCommentsPool;
 	private final ThreadPoolExecutor getPOIPool;
+	private final ThreadPoolExecutor prefetchPool;
+	private final ThreadPoolExecutor sortCommentsPool;
+
+	// Sizes the pools above according to network type and latency
+	private final ConcurrencyController concurrency;
+	// Posts the offline queues, paused while foreground fetches run
+	private final OutboxDrainer outbox;
+	// Number of thread list and comment fetches the user is waiting on
+	private int foregroundFetches = 0;
+	// Decides which threads have their comments prefetched
+	private final CommentPrefetcher prefetcher;
 
 	private Context context;
 	private Handler handler;
@@ -161,6 +193,8 @@ public class ThreadManager {
 		commentListCache = new LruCache<String, CommentList>(MAXIMUM_CACHE_SIZE);
 		getImageCache = new LruCache<String, Bitmap>(MAXIMUM_CACHE_SIZE);
 		getPOICache = new LruCache<String, String>(MAXIMUM_CACHE_SIZE);
+		commentSortCache = new LruCache<String, SortCommentsTask.SortedLevels>(
+				SORT_CACHE_SIZE);
 
 		getCommentListRunnableQueue = new LinkedBlockingQueue<Runnable>();
 		getCommentsRunnableQueue = new LinkedBlockingQueue<Runnable>();
@@ -170,6 +204,8 @@ public class ThreadManager {
 		getImageRunnableQueue = new LinkedBlockingQueue<Runnable>();
 		getThreadCommentsRunnableQueue = new LinkedBlockingQueue<Runnable>();
 		getPOIRunnableQueue = new LinkedBlockingQueue<Runnable>();
+		prefetchRunnableQueue = new LinkedBlockingQueue<Runnable>();
+		sortCommentsRunnableQueue = new LinkedBlockingQueue<Runnable>();
 
 		getCommentsTaskQueue = new LinkedBlockingQueue<GetCommentsTask>();
 		postTaskQueue = new LinkedBlockingQueue<PostTask>();
@@ -199,6 +235,19 @@ public class ThreadManager {
 		getPOIPool = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE,
 				KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, getPOIRunnableQueue);
 
+		prefetchPool = new ThreadPoolExecutor(PREFETCH_POOL_SIZE,
+				PREFETCH_POOL_SIZE, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
+				prefetchRunnableQueue);
+		sortCommentsPool = new ThreadPoolExecutor(SORT_POOL_SIZE,
+				SORT_POOL_SIZE, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
+				sortCommentsRunnableQueue);
+
+		concurrency = new ConcurrencyController(getCommentListPool,
+				getCommentsPool, postImagePool, postPool, updatePool,
+				getImagePool, getThreadCommentsPool, getPOIPool);
+		outbox = new OutboxDrainer();
+		prefetcher = new CommentPrefetcher();
+
 		handler = new Handler(Looper.getMainLooper()) {
 
 			@Override
@@ -212,45 +261,73 @@ public class ThreadManager {
 					ThreadComment threadComment = postTaskComplete
 							.getThreadComment();
 					if (threadComment != null) {
-						if (!postTaskComplete.isEdit()) {
-							// Update the model and sort accordingly
-							ThreadList.addThread(threadComment);
-							SortUtil.sortThreads(PreferencesManager
-									.getInstance().getThreadSort(), ThreadList
-									.getThreads());
-						}
 						FragmentActivity activity = (FragmentActivity) context;
 						ThreadListFragment fragment = (ThreadListFragment) activity
 								.getSupportFragmentManager().findFragmentByTag(
 										"threadListFrag");
-						if (fragment != null) {
+						if (!postTaskComplete.isEdit()) {
+							// Insert the new thread at its place in the sort
+							int position = ThreadList
+									.insertThread(threadComment);
+							if (fragment != null) {
+								fragment.onThreadInserted(position);
+							}
+						} else if (fragment != null) {
 							fragment.finishReload();
 						}
 					}
+					outbox.onPostFinished(postTaskComplete, true);
                     recyclePostTask(postTaskComplete);
 					break;
 
 				case GET_THREADS_COMPLETE:
 					GetThreadCommentsTask threadTask = (GetThreadCommentsTask) inputMessage.obj;
+					prefetcher.resetBudget();
 					threadTask.getFragment().finishReload();
+					endForegroundFetch();
 					recycleGetThreadCommentsTask(threadTask);
 					break;
 
 				case GET_THREADS_FAILED:
 					GetThreadCommentsTask threadTaskFail = (GetThreadCommentsTask) inputMessage.obj;
 					threadTaskFail.getFragment().finishReload();
+					endForegroundFetch();
 					recycleGetThreadCommentsTask(threadTaskFail);
 					break;
 
 				case GET_COMMENTS_COMPLETE:
 					GetCommentsTask task = (GetCommentsTask) inputMessage.obj;
-					task.getFragment().finishReload();
+					if (task.isPrefetch()) {
+						prefetcher.onPrefetchFinished(task, true);
+						recycleCommentsTask(task);
+						break;
+					}
+					if (task.getStub() != null) {
+						task.getFragment().finishLoadReplies(task.getStub(),
+								task.getLoadedReplies());
+						endForegroundFetch();
+						recycleCommentsTask(task);
+						break;
+					}
+					prefetcher.onLoaded(task.getThreadId());
+					task.getFragment().finishReload(task.getLoadedThread());
+					endForegroundFetch();
 					recycleCommentsTask(task);
 					break;
 
 				case GET_COMMENTS_FAILED:
 					GetCommentsTask taskFail = (GetCommentsTask) inputMessage.obj;
-					taskFail.getFragment().finishReload();
+					if (taskFail.isPrefetch()) {
+						prefetcher.onPrefetchFinished(taskFail, false);
+						recycleCommentsTask(taskFail);
+						break;
+					}
+					if (taskFail.getStub() != null) {
+						taskFail.getFragment().failLoadReplies(taskFail.getStub());
+					} else {
+						taskFail.getFragment().finishReload();
+					}
+					endForegroundFetch();
 					recycleCommentsTask(taskFail);
 					break;
 
@@ -259,7 +336,13 @@ public class ThreadManager {
 
 				case GET_COMMENT_LIST_FAILED:
 					GetCommentsTask taskListFail = (GetCommentsTask) inputMessage.obj;
+					if (taskListFail.isPrefetch()) {
+						prefetcher.onPrefetchFinished(taskListFail, false);
+						recycleCommentsTask(taskListFail);
+						break;
+					}
 					taskListFail.getFragment().finishReload();
+					endForegroundFetch();
 					recycleCommentsTask(taskListFail);
 					break;
 
@@ -358,6 +441,7 @@ public class ThreadManager {
 					if (postTaskUpdateFailed.getDialog() != null) {
 						postTaskUpdateFailed.getDialog().dismiss();
 					}
+					outbox.onPostFinished(postTaskUpdateFailed, false);
 					break;
 
 				case POST_FAILED:
@@ -365,6 +449,7 @@ public class ThreadManager {
 					if (postTaskFailed.getDialog() != null) {
 						postTaskFailed.getDialog().dismiss();
 					}
+					outbox.onPostFinished(postTaskFailed, false);
 					break;
 
 				case POST_RUNNING:
@@ -380,6 +465,22 @@ public class ThreadManager {
 					if (postTaskImageFailed.getDialog() != null) {
 						postTaskImageFailed.getDialog().dismiss();
 					}
+					outbox.onPostFinished(postTaskImageFailed, false);
+					break;
+
+				case SORT_COMMENTS_COMPLETE:
+					SortCommentsTask sortTask = (SortCommentsTask) inputMessage.obj;
+					if (!sortTask.isCancelled()) {
+						sortTask.applyOrders();
+						if (!sortTask.isFromCache()) {
+							commentSortCache.put(commentSortKey(sortTask
+									.getThreadComment(), sortTask
+									.getSortRequest()), sortTask
+									.captureSortedLevels());
+						}
+						sortTask.getFragment().finishSort(sortTask);
+					}
+					sortTask.recycle();
 					break;
 
 				default:
@@ -416,7 +517,7 @@ public class ThreadManager {
 		}
 		task.initGetImageTask(instance, id, imageView, dialog);
 		task.setImageCache(instance.getImageCache.get(id));
-		instance.getImagePool.execute(task.getGetImageRunnable());
+		instance.execute(instance.getImagePool, task.getGetImageRunnable());
 		return task;
 	}
 
@@ -434,7 +535,8 @@ public class ThreadManager {
 			task = new GetThreadCommentsTask();
 		}
 		task.initGetThreadCommentsTask(instance, fragment);
-		instance.getThreadCommentsPool.execute(task
+		instance.beginForegroundFetch();
+		instance.execute(instance.getThreadCommentsPool, task
 				.getGetThreadCommentsRunnable());
 		return task;
 	}
@@ -445,22 +547,172 @@ public class ThreadManager {
 	 * 
 	 * @param fragment
 	 *            the ThreadViewFragment displaying the ThreadComment
-	 * @param threadIndex
+	 * @param threadId
 	 *            id of the ThreadComment for which to get Comments
 	 */
 	public static GetCommentsTask startGetComments(ThreadViewFragment fragment,
-			int threadIndex) {
+			String threadId) {
+		GetCommentsTask task = instance.getCommentsTaskQueue.poll();
+		if (task == null) {
+			task = new GetCommentsTask();
+		}
+		task.initCommentsTask(instance, fragment, threadId);
+		instance.beginForegroundFetch();
+		task.setCommentListCache(instance.commentListCache.get(threadId));
+		instance.execute(instance.getCommentListPool,
+				task.getGetCommentListRunnable());
+		return task;
+	}
+
+	/**
+	 * Start fetching the replies a stub in a ThreadComment's comment tree
+	 * stands in for. The stub carries the CommentLists of its replies, so the
+	 * comment list is not fetched again; only the GetCommentsRunnable runs.
+	 * 
+	 * @param fragment
+	 *            the ThreadViewFragment showing the stub
+	 * @param threadId
+	 *            id of the ThreadComment the stub is in
+	 * @param stub
+	 *            the stub to expand
+	 */
+	public static GetCommentsTask startGetReplies(ThreadViewFragment fragment,
+			String threadId, Comment stub) {
 		GetCommentsTask task = instance.getCommentsTaskQueue.poll();
 		if (task == null) {
 			task = new GetCommentsTask();
 		}
-		task.initCommentsTask(instance, fragment, threadIndex);
-		task.setCommentListCache(instance.commentListCache.get(ThreadList
-				.getThreads().get(threadIndex).getId()));
-		instance.getCommentListPool.execute(task.getGetCommentListRunnable());
+		task.initRepliesTask(instance, fragment, threadId, stub);
+		instance.beginForegroundFetch();
+		instance.execute(instance.getCommentsPool,
+				task.getGetCommentsRunnable());
 		return task;
 	}
 
+	/**
+	 * Start a low priority task that fetches the comments of a ThreadComment
+	 * into the caches before the user opens it. Runs on its own single thread
+	 * pool and does not report to any fragment.
+	 * 
+	 * @param threadId
+	 *            id of the ThreadComment for which to get Comments
+	 */
+	static GetCommentsTask startPrefetchComments(String threadId) {
+		GetCommentsTask task = instance.getCommentsTaskQueue.poll();
+		if (task == null) {
+			task = new GetCommentsTask();
+		}
+		task.initPrefetchTask(instance, threadId);
+		task.setCommentListCache(instance.commentListCache.get(threadId));
+		instance.execute(instance.prefetchPool,
+				task.getGetCommentListRunnable());
+		return task;
+	}
+
+	/**
+	 * Start sorting the comment tree of a ThreadComment off the UI thread. The
+	 * tree is left untouched until the sort completes, when it is rearranged
+	 * on the UI thread and the fragment is told to show it. If the same tree
+	 * was recently sorted the same way, the remembered order is used instead
+	 * of sorting again.
+	 * 
+	 * @param fragment
+	 *            the ThreadViewFragment displaying the ThreadComment
+	 * @param threadComment
+	 *            the ThreadComment whose comments to sort
+	 * @param request
+	 *            the SortRequest describing the sort
+	 * @return the task, which can be cancelled if a newer sort is started
+	 */
+	public static SortCommentsTask startSortComments(
+			ThreadViewFragment fragment, ThreadComment threadComment,
+			SortRequest request) {
+		SortCommentsTask task = new SortCommentsTask();
+		task.initSortCommentsTask(instance, fragment, threadComment, request);
+		SortCommentsTask.SortedLevels cached = instance.commentSortCache
+				.get(commentSortKey(threadComment, request));
+		if (cached != null && cached.matches(threadComment.getBodyComment())) {
+			task.initFromCache(cached);
+			instance.handleSortCommentsState(task, SORT_COMMENTS_COMPLETE);
+			return task;
+		}
+		task.copyLevels();
+		ArrayList<Comment> root = new ArrayList<Comment>();
+		root.add(threadComment.getBodyComment());
+		task.fork(root);
+		return task;
+	}
+
+	/**
+	 * Forgets the remembered sorts of a ThreadComment's comment tree. Must be
+	 * called when comments are added to the tree.
+	 * 
+	 * @param threadId
+	 *            id of the ThreadComment
+	 */
+	public static void invalidateCommentSorts(String threadId) {
+		String prefix = threadId + "/";
+		for (String key : instance.commentSortCache.snapshot().keySet()) {
+			if (key.startsWith(prefix)) {
+				instance.commentSortCache.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the key a sort of a ThreadComment's comments is remembered by.
+	 */
+	private static String commentSortKey(ThreadComment threadComment,
+			SortRequest request) {
+		return threadComment.getId() + "/" + request.getCacheKey();
+	}
+
+	/**
+	 * Runs part of a comment tree sort on the sort pool.
+	 * 
+	 * @param runnable
+	 *            the runnable sorting part of the tree
+	 */
+	public void executeSortComments(Runnable runnable) {
+		sortCommentsPool.execute(runnable);
+	}
+
+	/**
+	 * Handles the possible states of the sort comments task. Passes the state
+	 * to the Handler that runs on the UI thread.
+	 * 
+	 * @param task
+	 *            the sort comments task
+	 * @param state
+	 *            the state
+	 */
+	public void handleSortCommentsState(SortCommentsTask task, int state) {
+		instance.handler.obtainMessage(state, task).sendToTarget();
+	}
+
+	/**
+	 * Prefetches the comments of the first few of the passed ThreadComments,
+	 * if the network and the prefetch budget allow it.
+	 * 
+	 * @param visibleThreads
+	 *            the ThreadComments visible in the list, in display order
+	 */
+	public static void startPrefetch(List<ThreadComment> visibleThreads) {
+		instance.prefetcher.prefetch(visibleThreads);
+	}
+
+	/**
+	 * Returns whether the comments of a ThreadComment were loaded recently
+	 * enough that opening it does not need to reload them.
+	 * 
+	 * @param threadId
+	 *            id of the ThreadComment
+	 * @return true if the cached comments are fresh
+	 */
+	public static boolean hasFreshComments(String threadId) {
+		return instance.prefetcher.isFresh(threadId);
+	}
+
 	/**
 	 * Start the post comment to elasticSearch task, initialize a task instance
 	 * and add the appropriate runnable to the thread pool
@@ -484,11 +736,10 @@ public class ThreadManager {
 		}
 		task.initPostTask(instance, comment, title, location, dialog, isEdit);
 		if (location.getLocationDescription() == null) {
-			task.setPOICache(instance.getPOICache.get(location.getLocation()
-					.toString()));
-			instance.getPOIPool.execute(task.getGetPOIRunnable());
+			task.setPOICache(instance.getPOICache.get(poiCacheKey(location)));
+			instance.execute(instance.getPOIPool, task.getGetPOIRunnable());
 		} else {
-			instance.postPool.execute(task.getPostRunnable());
+			instance.execute(instance.postPool, task.getPostRunnable());
 		}
 		return task;
 	}
@@ -511,12 +762,22 @@ public class ThreadManager {
 			task = new GetPOITask();
 		}
 		task.initGetPOITask(instance, location, dialog, marker);
-		task.setPOICache(instance.getPOICache.get(location.getLocation()
-				.toString()));
-		instance.getPOIPool.execute(task.getGetPOIRunnable());
+		task.setPOICache(instance.getPOICache.get(poiCacheKey(location)));
+		instance.execute(instance.getPOIPool, task.getGetPOIRunnable());
 		return task;
 	}
 
+	/**
+	 * Returns the key of a GeoLocation's point of interest in the POI cache.
+	 * 
+	 * @param location
+	 *            the GeoLocation
+	 * @return the cache key
+	 */
+	private static String poiCacheKey(GeoLocation location) {
+		return location.getLatitude() + "," + location.getLongitude();
+	}
+
 	/**
 	 * Handles the possible states of the get POI task. Passes the state to the
 	 * Handler that runs on the UI thread.
@@ -535,6 +796,7 @@ public class ThreadManager {
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case GET_POI_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		default:
@@ -543,6 +805,53 @@ public class ThreadManager {
 		}
 	}
 
+	/**
+	 * Starts posting the Comments and ThreadComments queued while offline, a
+	 * few at a time. The drain pauses while foreground fetches are running.
+	 * 
+	 * @param listener
+	 *            the listener to report progress to, may be null
+	 */
+	public static void startDrainOutbox(OutboxProgressListenerInterface listener) {
+		instance.outbox.start(listener);
+	}
+
+	/**
+	 * Records the start of a fetch the user is waiting on, pausing the
+	 * offline queue drain. Must be called on the UI thread.
+	 */
+	private void beginForegroundFetch() {
+		foregroundFetches++;
+		outbox.pause();
+	}
+
+	/**
+	 * Records the end of a fetch the user was waiting on, resuming the offline
+	 * queue drain once no foreground fetches remain. Must be called on the UI
+	 * thread.
+	 */
+	private void endForegroundFetch() {
+		if (foregroundFetches > 0) {
+			foregroundFetches--;
+		}
+		if (foregroundFetches == 0) {
+			outbox.resume();
+		}
+	}
+
+	/**
+	 * Executes a runnable on one of the network pools, reporting its latency
+	 * to the ConcurrencyController when it finishes without failing.
+	 * 
+	 * @param pool
+	 *            the pool to execute on
+	 * @param runnable
+	 *            the runnable to execute
+	 */
+	private void execute(ThreadPoolExecutor pool, Runnable runnable) {
+		pool.execute(concurrency.track(pool, runnable));
+	}
+
 	/**
 	 * Handle the possible states of the get comment task. When complete, passes
 	 * the state to the Handler that runs on the UI thread.
@@ -555,7 +864,15 @@ public class ThreadManager {
 	public void handleGetCommentsState(GetCommentsTask task, int state) {
 		switch (state) {
 		case GET_COMMENT_LIST_COMPLETE:
-			instance.getCommentsPool.execute(task.getGetCommentsRunnable());
+			instance.commentListCache.put(task.getThreadId(),
+					task.getCommentListCache());
+			if (task.isPrefetch()) {
+				instance.execute(instance.prefetchPool,
+						task.getGetCommentsRunnable());
+			} else {
+				instance.execute(instance.getCommentsPool,
+						task.getGetCommentsRunnable());
+			}
 			break;
 		case GET_COMMENTS_COMPLETE:
 			instance.handler.obtainMessage(state, task).sendToTarget();
@@ -564,9 +881,11 @@ public class ThreadManager {
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case GET_COMMENT_LIST_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case GET_COMMENTS_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		default:
@@ -594,6 +913,7 @@ public class ThreadManager {
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case GET_THREADS_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		default:
@@ -620,6 +940,7 @@ public class ThreadManager {
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case GET_IMAGE_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		default:
@@ -645,9 +966,10 @@ public class ThreadManager {
 		switch (state) {
 		case POST_COMPLETE:
 			if (task.getComment().hasImage()) {
-				instance.postImagePool.execute(task.getImageRunnable());
+				instance.execute(instance.postImagePool,
+						task.getImageRunnable());
 			} else if (task.getTitle() == null) {
-				instance.updatePool.execute(task.getUpdateRunnable());
+				instance.execute(instance.updatePool, task.getUpdateRunnable());
 			} else {
 				instance.handler.obtainMessage(POST_TASK_COMPLETE, task)
 						.sendToTarget();
@@ -655,7 +977,7 @@ public class ThreadManager {
 			break;
 		case POST_IMAGE_COMPLETE:
 			if (task.getTitle() == null) {
-				instance.updatePool.execute(task.getUpdateRunnable());
+				instance.execute(instance.updatePool, task.getUpdateRunnable());
 			} else {
 				instance.handler.obtainMessage(POST_TASK_COMPLETE, task)
 						.sendToTarget();
@@ -669,19 +991,22 @@ public class ThreadManager {
 			break;
 		case POST_GET_POI_COMPLETE:
 			instance.handler.obtainMessage(state, task).sendToTarget();
-			instance.postPool.execute(task.getPostRunnable());
+			instance.execute(instance.postPool, task.getPostRunnable());
 			break;
 		case POST_GET_POI_FAILED:
 			instance.handler.obtainMessage(state, task).sendToTarget();
-			instance.postPool.execute(task.getPostRunnable());
+			instance.execute(instance.postPool, task.getPostRunnable());
 			break;
 		case UPDATE_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case POST_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		case POST_IMAGE_FAILED:
+			instance.concurrency.onRequestFailed();
 			instance.handler.obtainMessage(state, task).sendToTarget();
 			break;
 		default:
@@ -27,34 +27,64 @@ import android.os.Parcelable;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
 import com.teamshodan.geochan.helpers.HashHelper;
+import com.teamshodan.geochan.helpers.ThumbnailCache;
 import com.teamshodan.geochan.managers.PreferencesManager;
 
 /**
  * A comment within a thread of comments. Contains the text of the comment,
  * possibly an image, and meta-data relating to the Comment.
  * 
+ * Thread lists and trees keep many Comments resident, so a Comment is kept
+ * small: the thumbnail is held as its JPEG data and decoded through the
+ * ThumbnailCache when shown, user names and hashes are interned, and a
+ * Comment without replies shares one empty list of children.
+ * 
  * @author Henry Pabst, Artem Chikin
  */
 public class Comment implements Parcelable {
+	// Children of every Comment without replies, replaced on the first reply
+	private static final ArrayList<Comment> NO_CHILDREN = new NoChildren();
+	// Ownership flags, kept in the low bits of the ownership field
+	private static final int BY_THIS_DEVICE = 1;
+	private static final int BY_CURRENT_USER = 2;
+	// Formatters shared by getCommentDateString, guarded by the class lock
+	private static SimpleDateFormat dateFormat;
+	private static SimpleDateFormat timeFormat;
+	private static Locale formatLocale;
+	private static final Date formatInput = new Date();
+
 	private String textPost;
-	private Date commentDate;
+	private long commentTime;
+	private String commentDateString;
 	private Bitmap image;
-	private Bitmap imageThumb;
+	// The thumbnail as JPEG data, decoded under imageThumbKey when shown
+	private byte[] imageThumbData;
+	private String imageThumbKey;
 	private GeoLocation location;
 	private String user;
 	private String hash;
 	private int depth;
 	private Comment parent;
 	private ArrayList<Comment> children;
+	// Every Comment of the tree by id, only kept on the root of a tree. Null
+	// until searched, and again after a change addChild and removeChild
+	// cannot follow, so it is rebuilt once per such change
+	private HashMap<String, Comment> treeIndex;
 	private ArrayList<String> commentIds;
-	private PreferencesManager manager;
 	private long id;
+	// The replies a stub stands in for, null for every other Comment
+	private ArrayList<CommentList> hiddenReplies;
+	private int hiddenCount;
+	// The ownership flags over the identity version they were computed at,
+	// 0 until computed
+	private volatile int ownership;
 
 	/**
 	 * Initializes a Comment object with a post, parent comment, image and
@@ -63,9 +93,9 @@ public class Comment implements Parcelable {
 	public Comment(String textPost, Bitmap image, GeoLocation location,
 			Comment parent) {
 		super();
-		this.manager = PreferencesManager.getInstance();
+		PreferencesManager manager = PreferencesManager.getInstance();
 		this.setTextPost(textPost);
-		this.setCommentDate(new Date());
+		this.setCommentTime(System.currentTimeMillis());
 		this.setImage(image);
 		this.setImageThumb(ThumbnailUtils.extractThumbnail(image, 150, 150));
 		this.setLocation(location);
@@ -77,9 +107,8 @@ public class Comment implements Parcelable {
 			this.depth = parent.depth + 1;
 		}
 		this.setParent(parent);
-		this.setChildren(new ArrayList<Comment>());
+		this.children = NO_CHILDREN;
 		this.id = HashHelper.getCommentIdHash();
-		this.commentIds = new ArrayList<String>();
 	}
 
 	/**
@@ -87,9 +116,9 @@ public class Comment implements Parcelable {
 	 */
 	public Comment(String textPost, GeoLocation location, Comment parent) {
 		super();
-		this.manager = PreferencesManager.getInstance();
+		PreferencesManager manager = PreferencesManager.getInstance();
 		this.setTextPost(textPost);
-		this.setCommentDate(new Date());
+		this.setCommentTime(System.currentTimeMillis());
 		this.setImage(null);
 		this.setImageThumb(null);
 		this.setLocation(location);
@@ -101,9 +130,8 @@ public class Comment implements Parcelable {
 			this.depth = parent.depth + 1;
 		}
 		this.setParent(parent);
-		this.setChildren(new ArrayList<Comment>());
+		this.children = NO_CHILDREN;
 		this.id = HashHelper.getCommentIdHash();
-		this.commentIds = new ArrayList<String>();
 	}
 
 	/**
@@ -111,20 +139,94 @@ public class Comment implements Parcelable {
 	 */
 	public Comment() {
 		super();
-		this.manager = PreferencesManager.getInstance();
 		this.textPost = "No comment.";
-		this.commentDate = new Date();
+		this.commentTime = System.currentTimeMillis();
 		this.image = null;
 		this.location = new GeoLocation(0, 0);
 		this.parent = null;
-		this.children = new ArrayList<Comment>();
 		this.setUser(new String());
 		this.setHash(new String());
 		this.depth = -1;
 		this.setParent(null);
-		this.setChildren(new ArrayList<Comment>());
+		this.children = NO_CHILDREN;
 		this.id = -1;
-		this.commentIds = new ArrayList<String>();
+	}
+
+	/**
+	 * Creates a stub: a placeholder Comment standing in for replies whose
+	 * contents have not been loaded. A stub is kept as the last child of the
+	 * Comment the replies belong to, carries the CommentLists of those
+	 * replies so they can be fetched later, and has no children of its own.
+	 * 
+	 * @param hiddenReplies
+	 *            the CommentLists of the replies that were not loaded
+	 * @return the stub
+	 */
+	public static Comment makeStub(ArrayList<CommentList> hiddenReplies) {
+		Comment stub = new Comment();
+		stub.hiddenReplies = hiddenReplies;
+		ArrayList<CommentList> stack = new ArrayList<CommentList>(
+				hiddenReplies);
+		while (!stack.isEmpty()) {
+			stub.hiddenCount++;
+			stack.addAll(stack.remove(stack.size() - 1).getChildren());
+		}
+		return stub;
+	}
+
+	/**
+	 * Returns whether this Comment is a stub standing in for replies that
+	 * were not loaded.
+	 * 
+	 * @return true if the Comment is a stub
+	 */
+	public boolean isStub() {
+		return hiddenReplies != null;
+	}
+
+	/**
+	 * Computes whether the Comment was posted from this device and whether it
+	 * was posted under the current username, unless that was already done
+	 * since the username last changed. Thread lists and flattened comment
+	 * trees call this as they are built, so views only read the flags.
+	 */
+	public void computeOwnership() {
+		int version = HashHelper.getIdentityVersion();
+		if (ownership >>> 2 == version) {
+			return;
+		}
+		int flags = 0;
+		if (user != null && hash != null) {
+			if (HashHelper.getHash(user).equals(hash)) {
+				flags |= BY_THIS_DEVICE;
+			}
+			if (HashHelper.getCurrentUserHash().equals(hash)) {
+				flags |= BY_CURRENT_USER;
+			}
+		}
+		ownership = version << 2 | flags;
+	}
+
+	/**
+	 * Returns whether the Comment was posted from this device, under the
+	 * username it shows.
+	 * 
+	 * @return true if the Comment was posted from this device
+	 */
+	public boolean isByThisDevice() {
+		computeOwnership();
+		return (ownership & BY_THIS_DEVICE) != 0;
+	}
+
+	/**
+	 * Returns whether the Comment was posted from this device under the
+	 * current username, which lets the user edit it.
+	 * 
+	 * @return true if the Comment is the current user's
+	 */
+	public boolean isByCurrentUser() {
+		computeOwnership();
+		return (ownership & BY_CURRENT_USER) != 0;
 	}
 
 	/**
@@ -134,7 +236,7 @@ public class Comment implements Parcelable {
 	 * @return true if the Comment has an image, false if not
 	 */
 	public boolean hasImage() {
-		return !(imageThumb == null);
+		return !(imageThumbData == null);
 	}
 
 	/**
@@ -145,12 +247,53 @@ public class Comment implements Parcelable {
 	 */
 	public void addChild(Comment comment) {
 		comment.setParent(this);
+		comment.treeIndex = null;
+		if (children == NO_CHILDREN) {
+			children = new ArrayList<Comment>();
+		}
 		children.add(comment);
+		Comment root = getRoot();
+		if (root.treeIndex != null) {
+			root.indexSubtree(comment);
+		}
+	}
+
+	/**
+	 * Removes a child Comment, and with it all of its replies, from this
+	 * Comment.
+	 * 
+	 * @param comment
+	 *            the child Comment to remove
+	 * @return false if the Comment was not a child of this Comment
+	 */
+	public boolean removeChild(Comment comment) {
+		if (!children.remove(comment)) {
+			return false;
+		}
+		Comment root = getRoot();
+		if (root.treeIndex != null) {
+			// Drop the subtree's ids where they lead to its own Comments
+			ArrayList<Comment> stack = new ArrayList<Comment>();
+			stack.add(comment);
+			while (!stack.isEmpty()) {
+				Comment node = stack.remove(stack.size() - 1);
+				if (root.treeIndex.get(node.getId()) == node) {
+					root.treeIndex.remove(node.getId());
+				}
+				stack.addAll(node.getChildren());
+			}
+		}
+		comment.setParent(null);
+		comment.treeIndex = null;
+		return true;
 	}
 
 	/**
-	 * Searches a parent Comment's children recursively for a Comment by its
-	 * ElasticSearch id.
+	 * Searches a parent Comment's children for a Comment by its ElasticSearch
+	 * id. The lookup goes through the id index kept on the root of the tree,
+	 * which is built on the first search and kept current by addChild and
+	 * removeChild, so it does not walk the tree. setChildren drops the index,
+	 * and the next search builds it again once.
 	 * 
 	 * @param parent
 	 *            the parent Comment
@@ -159,31 +302,119 @@ public class Comment implements Parcelable {
 	 * @return the Comment if found, or null if not found
 	 */
 	public Comment findCommentById(Comment parent, String id) {
-		Comment c = null;
-		if (parent.getId().equals(id)) {
-			c = parent;
-		}
-		for (Comment child : parent.getChildren()) {
-			Comment c2 = findCommentById(child, id);
-			if (c2 != null) {
-				c = c2;
+		Comment root = parent.getRoot();
+		if (root.treeIndex == null) {
+			root.treeIndex = new HashMap<String, Comment>();
+			root.indexSubtree(root);
+		}
+		Comment found = root.treeIndex.get(id);
+		if (found == null) {
+			return null;
+		}
+		for (Comment c = found; c != null; c = c.parent) {
+			if (c == parent) {
+				return found;
 			}
 		}
-		return c;
+		// The indexed Comment is elsewhere in the tree, so search the subtree
+		ArrayList<Comment> stack = new ArrayList<Comment>();
+		stack.add(parent);
+		while (!stack.isEmpty()) {
+			Comment c = stack.remove(stack.size() - 1);
+			if (c.getId().equals(id)) {
+				return c;
+			}
+			stack.addAll(c.getChildren());
+		}
+		return null;
 	}
 
 	/**
-	 * Determines the distance between a comment and a GeoLocation in terms of
-	 * latitude and longitude coordinates.
+	 * Returns a copy of this Comment with the passed replies as its children,
+	 * leaving this Comment and its tree untouched. The replies are made
+	 * children of the copy. Lets a comment tree be built off the UI thread
+	 * and published in place of one the UI thread may be reading.
+	 * 
+	 * @param replies
+	 *            the children of the copy
+	 * @return the copy
+	 */
+	public Comment withChildren(ArrayList<Comment> replies) {
+		Comment copy = new Comment();
+		copy.textPost = textPost;
+		copy.commentTime = commentTime;
+		copy.commentDateString = commentDateString;
+		copy.image = image;
+		copy.imageThumbData = imageThumbData;
+		copy.imageThumbKey = imageThumbKey;
+		copy.location = location;
+		copy.user = user;
+		copy.hash = hash;
+		copy.ownership = ownership;
+		copy.depth = depth;
+		copy.parent = parent;
+		copy.id = id;
+		copy.commentIds = commentIds;
+		copy.hiddenReplies = hiddenReplies;
+		copy.hiddenCount = hiddenCount;
+		if (!replies.isEmpty()) {
+			copy.children = replies;
+		}
+		for (Comment reply : replies) {
+			reply.parent = copy;
+			reply.treeIndex = null;
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns the root of the tree the Comment is in, which is the bodyComment
+	 * of its ThreadComment once the tree is built.
+	 * 
+	 * @return the root Comment
+	 */
+	public Comment getRoot() {
+		Comment root = this;
+		while (root.parent != null) {
+			root = root.parent;
+		}
+		return root;
+	}
+
+	/**
+	 * Adds a Comment and all of its children to this Comment's id index.
+	 * Where ids repeat, the one found last in depth-first order wins, as with
+	 * the recursive search the index replaced.
+	 * 
+	 * @param subtree
+	 *            the Comment to index
+	 */
+	private void indexSubtree(Comment subtree) {
+		ArrayList<Comment> stack = new ArrayList<Comment>();
+		stack.add(subtree);
+		while (!stack.isEmpty()) {
+			Comment node = stack.remove(stack.size() - 1);
+			treeIndex.put(node.getId(), node);
+			// Children pushed in reverse so they are visited in order
+			ArrayList<Comment> nodeChildren = node.getChildren();
+			for (int i = nodeChildren.size() - 1; i >= 0; --i) {
+				stack.add(nodeChildren.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Determines the great-circle distance between a comment and a
+	 * GeoLocation in meters.
 	 * 
 	 * @param geo
 	 *            The GeoLocation to be compared with.
 	 * @return The distance between the Comment and the passed GeoLocation in
-	 *         terms of coordinates.
+	 *         meters.
 	 */
 	public double getDistanceFrom(GeoLocation geo) {
 		GeoLocation thisGeo = this.getLocation();
-		return thisGeo.distance(geo);
+		return thisGeo.distanceInMeters(geo);
 	}
 
 	/**
@@ -196,12 +427,21 @@ public class Comment implements Parcelable {
 	 *         passed Date.
 	 */
 	public double getTimeFrom(Date date) {
-		Calendar cal1 = Calendar.getInstance();
-		Calendar cal2 = Calendar.getInstance();
-		cal1.setTime(this.getCommentDate());
-		cal2.setTime(date);
-		long t1 = cal1.getTimeInMillis();
-		long t2 = cal2.getTimeInMillis();
+		return getTimeFrom(date.getTime());
+	}
+
+	/**
+	 * Determines the amount of time between when the Comment was posted and the
+	 * passed time in terms of hours.
+	 * 
+	 * @param time
+	 *            The time to be compared with, in milliseconds since the epoch.
+	 * @return The number of hours between when the Comment was posted and the
+	 *         passed time.
+	 */
+	public double getTimeFrom(long time) {
+		long t1 = this.commentTime;
+		long t2 = time;
 		if (TimeUnit.MILLISECONDS.toHours(Math.abs(t1 - t2)) < 1) {
 			return 0.5;
 		} else {
@@ -230,10 +470,10 @@ public class Comment implements Parcelable {
 		}
 		double distScore = distConst
 				* (1 / Math.sqrt(this.getDistanceFrom(this.getParent()
-						.getLocation())));
+						.getLocation()) / GeoLocation.METERS_PER_DEGREE));
 		double timeScore = timeConst
 				* (1 / Math.sqrt(this.getTimeFrom(this.getParent()
-						.getCommentDate())));
+						.getCommentTime())));
 		if ((distScore + timeScore) > maxScore) {
 			return maxScore;
 		} else {
@@ -253,17 +493,49 @@ public class Comment implements Parcelable {
 	 *         current time.
 	 */
 	public double getScoreFromUser(GeoLocation geo) {
-		int distConst = 25;
-		int timeConst = 10;
-		int maxScore = 10000;
+		return getScoreFromUser(geo, new Date());
+	}
 
+	/**
+	 * Determines the score of the Comment relative to a GeoLocation at the
+	 * passed time. Sorting passes the same Date for every Comment.
+	 * 
+	 * @param geo
+	 *            The GeoLocation relevant to sorting.
+	 * @param now
+	 *            The Date to measure the Comment's age against.
+	 * @return The score of the Comment.
+	 */
+	public double getScoreFromUser(GeoLocation geo, Date now) {
 		if (geo == null) {
 			return 0;
 		}
+		return getScoreFromDistance(this.getDistanceFrom(geo), now.getTime());
+	}
+
+	/**
+	 * Determines the score of the Comment from its already computed distance
+	 * to the sorting location, so that sorting can compute all distances in
+	 * one batch.
+	 * 
+	 * @param distance
+	 *            The distance in meters between the Comment and the sorting
+	 *            location.
+	 * @param now
+	 *            The time to measure the Comment's age against, in
+	 *            milliseconds since the epoch.
+	 * @return The score of the Comment.
+	 */
+	public double getScoreFromDistance(double distance, long now) {
+		int distConst = 25;
+		int timeConst = 10;
+		int maxScore = 10000;
+
+		// The score constants were tuned for distances in degrees
 		double distScore = distConst
-				* (1 / Math.sqrt(this.getDistanceFrom(geo)));
+				* (1 / Math.sqrt(distance / GeoLocation.METERS_PER_DEGREE));
 		double timeScore = timeConst
-				* (1 / Math.sqrt(this.getTimeFrom(new Date())));
+				* (1 / Math.sqrt(this.getTimeFrom(now)));
 		if ((distScore + timeScore) > maxScore) {
 			return maxScore;
 		} else {
@@ -272,32 +544,53 @@ public class Comment implements Parcelable {
 	}
 
 	/**
-	 * Searches the ThreadList for the ThreadComment containing this Comment.
+	 * Finds the ThreadComment in the ThreadList that this Comment is the body
+	 * of. A ThreadComment takes its id from its body Comment, so the lookup
+	 * goes through the ThreadList's id index rather than scanning the list.
 	 * 
 	 * @return the ThreadComment of the Comment if found, or null if not found
 	 */
 	public ThreadComment findThread() {
-		ThreadComment t = null;
-		for (ThreadComment thread : ThreadList.getThreads()) {
-			if (thread.getBodyComment().getId().equals(getId())) {
-				t = thread;
-			}
+		ThreadComment thread = ThreadList.findThreadById(getId());
+		if (thread == null || !thread.getBodyComment().getId().equals(getId())) {
+			return null;
 		}
-		return t;
+		return thread;
 	}
 
 	/**
 	 * Converts the Comment's commentDate to an appropriately formatted string.
+	 * The string is built the first time it is asked for and kept until the
+	 * date changes.
 	 * 
 	 * @return The string of the Comment's commentDate.
 	 */
 	public String getCommentDateString() {
-		SimpleDateFormat formatDate = new SimpleDateFormat("MMM dd/yy",
-				Locale.getDefault());
-		SimpleDateFormat formatTime = new SimpleDateFormat("hh:mm aa",
-				Locale.getDefault());
-		return "On " + formatDate.format(commentDate) + " at "
-				+ formatTime.format(commentDate);
+		if (commentDateString == null) {
+			commentDateString = formatCommentTime(commentTime);
+		}
+		return commentDateString;
+	}
+
+	/**
+	 * Formats a time the way getCommentDateString shows it. The formatters are
+	 * shared between all Comments and only rebuilt if the default Locale
+	 * changes. SimpleDateFormat is not thread safe, so callers take turns.
+	 * 
+	 * @param time
+	 *            The time in milliseconds since the epoch.
+	 * @return The formatted time.
+	 */
+	private static synchronized String formatCommentTime(long time) {
+		Locale locale = Locale.getDefault();
+		if (!locale.equals(formatLocale)) {
+			dateFormat = new SimpleDateFormat("MMM dd/yy", locale);
+			timeFormat = new SimpleDateFormat("hh:mm aa", locale);
+			formatLocale = locale;
+		}
+		formatInput.setTime(time);
+		return "On " + dateFormat.format(formatInput) + " at "
+				+ timeFormat.format(formatInput);
 	}
 
 	/**
@@ -310,7 +603,10 @@ public class Comment implements Parcelable {
 	}
 
 	/**
-	 * Writes a Comment object to a Parcel.
+	 * Writes a Comment object to a Parcel. The parcel is kept compact for
+	 * fragment arguments and saved state: the images, the parent and the
+	 * replies are left out, so a Comment read back from it has none of them.
+	 * Fragments find the full Comment through the ModelRegistry instead.
 	 * 
 	 * @param dest
 	 *            the Parcel
@@ -319,34 +615,42 @@ public class Comment implements Parcelable {
 	 */
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeValue(textPost);
-		dest.writeValue(commentDate);
-		dest.writeValue(image);
-		dest.writeValue(imageThumb);
-		dest.writeValue(location.getLatitude());
-		dest.writeValue(location.getLongitude());
-		dest.writeValue(user);
-		dest.writeValue(id);
-		dest.writeParcelable(parent, flags);
+		dest.writeLong(id);
+		dest.writeString(textPost);
+		dest.writeLong(commentTime);
+		dest.writeString(user);
+		dest.writeString(hash);
+		if (location == null) {
+			dest.writeInt(0);
+		} else {
+			dest.writeInt(1);
+			dest.writeDouble(location.getLatitude());
+			dest.writeDouble(location.getLongitude());
+			dest.writeString(location.getLocationDescription());
+		}
 	}
 
 	/**
-	 * Constructs a Comment object from a Parcel.
+	 * Constructs a Comment object from a Parcel written by writeToParcel. The
+	 * Comment has no images, parent or replies.
 	 * 
 	 * @param in
 	 *            the parcel
 	 */
 	public Comment(Parcel in) {
 		super();
-		this.setTextPost((String) in.readValue(getClass().getClassLoader()));
-		this.setCommentDate((Date) in.readValue(getClass().getClassLoader()));
-		this.setImage((Bitmap) in.readValue(getClass().getClassLoader()));
-		this.setImageThumb((Bitmap) in.readValue(getClass().getClassLoader()));
-		this.setLocation(new GeoLocation(in.readDouble(), in.readDouble()));
-		this.setUser((String) in.readValue(getClass().getClassLoader()));
-		this.setId(Long.parseLong((String) in.readValue(getClass()
-				.getClassLoader())));
-		this.setParent((Comment) in.readParcelable(getClass().getClassLoader()));
+		this.id = in.readLong();
+		this.textPost = in.readString();
+		this.commentTime = in.readLong();
+		this.setUser(in.readString());
+		this.setHash(in.readString());
+		if (in.readInt() == 1) {
+			this.location = new GeoLocation(in.readDouble(), in.readDouble(),
+					in.readString());
+		}
+		this.depth = -1;
+		this.parent = null;
+		this.children = NO_CHILDREN;
 	}
 
 	/**
@@ -364,12 +668,42 @@ public class Comment implements Parcelable {
 
 	/* Getters and setters below */
 
+	/**
+	 * Returns the thumbnail, decoded from its JPEG data if the ThumbnailCache
+	 * no longer holds it.
+	 * 
+	 * @return the thumbnail, or null if the Comment has no image
+	 */
 	public Bitmap getImageThumb() {
-		return imageThumb;
+		if (imageThumbData == null) {
+			return null;
+		}
+		return ThumbnailCache.get(imageThumbKey, imageThumbData);
 	}
 
+	/**
+	 * Sets the thumbnail, compressing it to the JPEG data the Comment keeps.
+	 * 
+	 * @param imageThumb
+	 *            the thumbnail, may be null
+	 */
 	public void setImageThumb(Bitmap imageThumb) {
-		this.imageThumb = imageThumb;
+		if (imageThumb == null) {
+			setImageThumbData(null);
+			return;
+		}
+		setImageThumbData(ThumbnailCache.encode(imageThumb));
+		ThumbnailCache.put(imageThumbKey, imageThumb);
+	}
+
+	public byte[] getImageThumbData() {
+		return imageThumbData;
+	}
+
+	public void setImageThumbData(byte[] imageThumbData) {
+		this.imageThumbData = imageThumbData;
+		this.imageThumbKey = imageThumbData == null ? null : ThumbnailCache
+				.newKey();
 	}
 
 	public String getHash() {
@@ -377,7 +711,8 @@ public class Comment implements Parcelable {
 	}
 
 	public void setHash(String hash) {
-		this.hash = hash;
+		this.hash = hash == null ? null : hash.intern();
+		this.ownership = 0;
 	}
 
 	public int getDepth() {
@@ -409,19 +744,35 @@ public class Comment implements Parcelable {
 	}
 
 	public void setLocation(GeoLocation location) {
-		if (location.getLocation() == null) {
+		if (!location.hasCoordinates()) {
 			this.location = null;
 		} else {
 			this.location = location;
 		}
 	}
 
+	/**
+	 * Returns the date the Comment was posted. The Date is a new copy, so
+	 * changing it does not change the Comment; use setCommentTime instead.
+	 * Sorting and scoring should read getCommentTime, which does not allocate.
+	 * 
+	 * @return The date the Comment was posted.
+	 */
 	public Date getCommentDate() {
-		return commentDate;
+		return new Date(commentTime);
 	}
 
 	public void setCommentDate(Date commentDate) {
-		this.commentDate = commentDate;
+		setCommentTime(commentDate.getTime());
+	}
+
+	public long getCommentTime() {
+		return commentTime;
+	}
+
+	public void setCommentTime(long commentTime) {
+		this.commentTime = commentTime;
+		this.commentDateString = null;
 	}
 
 	public Comment getParent() {
@@ -441,6 +792,10 @@ public class Comment implements Parcelable {
 	}
 
 	public void setChildren(ArrayList<Comment> children) {
+		if (this.children != null) {
+			// Replacing children of a Comment in a tree stales the tree's index
+			getRoot().treeIndex = null;
+		}
 		this.children = children;
 	}
 
@@ -449,7 +804,8 @@ public class Comment implements Parcelable {
 	}
 
 	public void setUser(String user) {
-		this.user = user;
+		this.user = user == null ? null : user.intern();
+		this.ownership = 0;
 	}
 
 	public String getId() {
@@ -461,10 +817,66 @@ public class Comment implements Parcelable {
 	}
 
 	public ArrayList<String> getCommentIds() {
+		if (commentIds == null) {
+			commentIds = new ArrayList<String>();
+		}
 		return commentIds;
 	}
 
 	public void setCommentIds(ArrayList<String> commentIds) {
 		this.commentIds = commentIds;
 	}
+
+	public ArrayList<CommentList> getHiddenReplies() {
+		return hiddenReplies;
+	}
+
+	/**
+	 * Returns the number of replies a stub stands in for, counting the
+	 * replies to those replies.
+	 * 
+	 * @return the number of hidden replies
+	 */
+	public int getHiddenCount() {
+		return hiddenCount;
+	}
+
+	/**
+	 * The empty list of children shared by Comments without replies. Adding
+	 * to it would give every such Comment the reply, so it refuses; Comments
+	 * replace it with their own list before adding a child.
+	 */
+	private static class NoChildren extends ArrayList<Comment> {
+		private static final long serialVersionUID = 1L;
+
+		NoChildren() {
+			super(0);
+		}
+
+		@Override
+		public boolean add(Comment comment) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void add(int index, Comment comment) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends Comment> comments) {
+			if (comments.isEmpty()) {
+				return false;
+			}
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends Comment> comments) {
+			if (comments.isEmpty()) {
+				return false;
+			}
+			throw new UnsupportedOperationException();
+		}
+	}
 }
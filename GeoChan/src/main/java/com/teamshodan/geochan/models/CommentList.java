@@ -23,12 +23,14 @@ package com.teamshodan.geochan.models;
 import com.google.gson.annotations.Expose;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Container class that stores a comment object, its id, and a list of children
  * commentLists that match the Comment's child replies. Used for posting lists
  * of comments to ElasticSearch and rebuilding a comment tree from
- * ElasticSearch.
+ * ElasticSearch. The root of a tree keeps an index of every CommentList in it
+ * by id, built on the first lookup and kept up to date as lists are added.
  * 
  * @author Artem Chikin
  * @author Artem Herasymchuk
@@ -40,6 +42,8 @@ public class CommentList {
 	@Expose
 	private String id;
 	private Comment comment;
+	// Every CommentList of the tree by id, only kept on the root
+	private transient HashMap<String, CommentList> index;
 
 	public CommentList(Comment comment) {
 		comments = new ArrayList<CommentList>();
@@ -71,10 +75,14 @@ public class CommentList {
 
 	public void setChildren(ArrayList<CommentList> comments) {
 		this.comments = comments;
+		this.index = null;
 	}
 
 	public void addCommentList(CommentList commentList) {
 		comments.add(commentList);
+		if (index != null) {
+			indexSubtree(commentList);
+		}
 	}
 
 	public ArrayList<CommentList> getChildren() {
@@ -82,7 +90,11 @@ public class CommentList {
 	}
 
 	/**
-	 * Recursively finds and returns the commentList with a given id.
+	 * Finds and returns the commentList with a given id. Searching from this
+	 * CommentList goes through the id index, which is built the first time.
+	 * Lists added below the root's own children are not seen by the index
+	 * until it is rebuilt, so an id it misses is looked for once more in a
+	 * fresh index. Searching from any other node walks its subtree.
 	 * 
 	 * @param commentList
 	 *            search starting node
@@ -91,50 +103,104 @@ public class CommentList {
 	 * @return The found CommentList. Return value is null if the CommentList is not found.
 	 */
 	public CommentList findCommentListById(CommentList commentList, String id) {
-		CommentList c = null;
-		if (commentList.getId().equals(id)) {
-			c = commentList;
+		if (commentList == this) {
+			CommentList found = index == null ? null : index.get(id);
+			if (found == null) {
+				index = new HashMap<String, CommentList>();
+				indexSubtree(this);
+				found = index.get(id);
+			}
+			return found;
+		}
+		ArrayList<CommentList> stack = new ArrayList<CommentList>();
+		stack.add(commentList);
+		while (!stack.isEmpty()) {
+			CommentList node = stack.remove(stack.size() - 1);
+			if (node.getId().equals(id)) {
+				return node;
+			}
+			ArrayList<CommentList> children = node.getChildren();
+			for (int i = children.size() - 1; i >= 0; --i) {
+				stack.add(children.get(i));
+			}
 		}
-		for (CommentList child : commentList.getChildren()) {
-			CommentList c2 = findCommentListById(child, id);
-			if (c2 != null) {
-				c = c2;
+		return null;
+	}
+
+	/**
+	 * Adds a CommentList and all of its children to this CommentList's index.
+	 * Where ids repeat, the one found last in depth-first order wins, as with
+	 * the recursive search the index replaced.
+	 * 
+	 * @param subtree
+	 *            The CommentList to index.
+	 */
+	private void indexSubtree(CommentList subtree) {
+		ArrayList<CommentList> stack = new ArrayList<CommentList>();
+		stack.add(subtree);
+		while (!stack.isEmpty()) {
+			CommentList node = stack.remove(stack.size() - 1);
+			index.put(node.getId(), node);
+			// Children pushed in reverse so they are visited in order
+			ArrayList<CommentList> children = node.getChildren();
+			for (int i = children.size() - 1; i >= 0; --i) {
+				stack.add(children.get(i));
 			}
 		}
-		return c;
 	}
 
 	/**
-	 * Gets and stores all CommentList IDs in the passed ArrayList of Strings recursively
-	 * for the passed CommentList and all its children.
+	 * Gets and stores all CommentList IDs in the passed ArrayList of Strings
+	 * for the passed CommentList and all its children, in depth-first order.
+	 * The tree is walked with an explicit stack, so a deep reply chain cannot
+	 * overflow the small stacks of the pool threads this runs on.
 	 * @param list The ArrayList to store the found IDs.
 	 * @param idList The CommentList to start getting IDs from.
 	 */
 	public void getIdsFromList(CommentList list, ArrayList<String> idList) {
-		idList.add(list.getId());
-		for (CommentList childList : list.getChildren()) {
-			getIdsFromList(childList, idList);
+		ArrayList<CommentList> stack = new ArrayList<CommentList>();
+		stack.add(list);
+		while (!stack.isEmpty()) {
+			CommentList node = stack.remove(stack.size() - 1);
+			idList.add(node.getId());
+			ArrayList<CommentList> children = node.getChildren();
+			for (int i = children.size() - 1; i >= 0; --i) {
+				stack.add(children.get(i));
+			}
 		}
 	}
 
 	// Should only be called on bodyComment, returns the bodyComment with the
 	// children all set.
-	// depth first traverasl
 	/**
 	 * Reconstructs the parent-child relationship between Comments given a CommentList
-	 * and the top Comment.
+	 * and the top Comment. The CommentLists are collected in depth-first order
+	 * and linked from the last one back, so every Comment gets its children
+	 * before it is attached to its own parent, as the recursive version did.
 	 * @param list The CommentList to construct the relationship from.
 	 * @param comment The top Comment to get children of.
 	 * @return The passed in Comment with the parent-child relationship constructed.
 	 */
 	public Comment reconsructFromCommentList(CommentList list, Comment comment) {
-		comment.setChildren(new ArrayList<Comment>());
-		if (list.getChildren().size() == 0) {
-			return comment;
-		} else {
-			for (CommentList cl : list.getChildren()) {
-				comment.addChild(reconsructFromCommentList(cl, cl.getComment()));
+		ArrayList<CommentList> order = new ArrayList<CommentList>();
+		ArrayList<CommentList> stack = new ArrayList<CommentList>();
+		stack.add(list);
+		while (!stack.isEmpty()) {
+			CommentList node = stack.remove(stack.size() - 1);
+			order.add(node);
+			stack.addAll(node.getChildren());
+		}
+		for (int i = order.size() - 1; i >= 0; --i) {
+			CommentList node = order.get(i);
+			Comment parent = i == 0 ? comment : node.getComment();
+			ArrayList<Comment> children = new ArrayList<Comment>(node
+					.getChildren().size());
+			for (CommentList cl : node.getChildren()) {
+				Comment child = cl.getComment();
+				child.setParent(parent);
+				children.add(child);
 			}
+			parent.setChildren(children);
 		}
 		return comment;
 	}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.teamshodan.geochan.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Decides which part of a comment tree to load when a thread is opened or a
+ * stub is expanded, so the Comments fetched stay bounded however large the
+ * thread is. Starting from a list of CommentLists, replies are taken level by
+ * level: at most SIBLING_LIMIT replies of any one Comment, at most
+ * DEPTH_LIMIT levels down and at most LOAD_LIMIT replies in all. The replies
+ * left out below each loaded Comment are represented by a single stub.
+ * 
+ * A plan is built on a background thread from CommentLists that are not
+ * changed, and builds Comments that are not yet part of any tree.
+ */
+public class CommentLoadPlan {
+	public static final int SIBLING_LIMIT = 25;
+	public static final int DEPTH_LIMIT = 4;
+	public static final int LOAD_LIMIT = 100;
+
+	private final List<CommentList> roots;
+	// The CommentLists to load, level by level
+	private final ArrayList<CommentList> nodes = new ArrayList<CommentList>();
+	// Where the loaded children of each node start in nodes, and how many
+	private final ArrayList<int[]> loadedChildren = new ArrayList<int[]>();
+	private final int loadedRoots;
+	private final Comment[] comments;
+
+	/**
+	 * Plans the loading of a list of replies and the replies below them.
+	 * 
+	 * @param roots
+	 *            the CommentLists of the replies, such as the children of a
+	 *            thread's CommentList or the hidden replies of a stub
+	 */
+	public CommentLoadPlan(List<CommentList> roots) {
+		this.roots = roots;
+		this.loadedRoots = Math.min(roots.size(),
+				Math.min(SIBLING_LIMIT, LOAD_LIMIT));
+		nodes.addAll(roots.subList(0, loadedRoots));
+		int levelEnd = nodes.size();
+		int depth = 1;
+		for (int i = 0; i < nodes.size(); ++i) {
+			if (i == levelEnd) {
+				levelEnd = nodes.size();
+				depth++;
+			}
+			int count = 0;
+			if (depth < DEPTH_LIMIT) {
+				ArrayList<CommentList> children = nodes.get(i).getChildren();
+				count = Math.min(children.size(), Math.min(SIBLING_LIMIT,
+						LOAD_LIMIT - nodes.size()));
+				nodes.addAll(children.subList(0, count));
+			}
+			loadedChildren.add(new int[] { nodes.size() - count, count });
+		}
+		this.comments = new Comment[nodes.size()];
+	}
+
+	/**
+	 * Returns the ids of the replies to fetch.
+	 * 
+	 * @return the ids, level by level
+	 */
+	public ArrayList<String> getIds() {
+		ArrayList<String> ids = new ArrayList<String>(nodes.size());
+		for (CommentList node : nodes) {
+			ids.add(node.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Takes the fetched Comments. Comments the plan did not ask for are
+	 * ignored.
+	 * 
+	 * @param fetched
+	 *            the Comments fetched by id
+	 */
+	public void setComments(List<Comment> fetched) {
+		HashMap<String, Integer> positions = new HashMap<String, Integer>(
+				nodes.size() * 2);
+		for (int i = 0; i < nodes.size(); ++i) {
+			positions.put(nodes.get(i).getId(), i);
+		}
+		for (Comment comment : fetched) {
+			Integer position = comment == null ? null : positions.get(comment
+					.getId());
+			if (position != null) {
+				comments[position] = comment;
+			}
+		}
+	}
+
+	/**
+	 * Links the fetched Comments into trees. Below every loaded Comment, the
+	 * replies that were left out, or that failed to be fetched, are put
+	 * behind a stub. The Comments are linked from the deepest level up, so
+	 * no Comment is linked before its own replies.
+	 * 
+	 * @return the loaded replies in their original order, followed by a stub
+	 *         if any were left out. Their parents are not set.
+	 */
+	public ArrayList<Comment> build() {
+		for (int i = nodes.size() - 1; i >= 0; --i) {
+			Comment comment = comments[i];
+			if (comment != null) {
+				int[] loaded = loadedChildren.get(i);
+				comment.setChildren(link(comment, nodes.get(i).getChildren(),
+						loaded[0], loaded[1]));
+			}
+		}
+		return link(null, roots, 0, loadedRoots);
+	}
+
+	/**
+	 * Builds a list of children from the loaded prefix of a list of
+	 * CommentLists, with a stub for the rest.
+	 */
+	private ArrayList<Comment> link(Comment parent, List<CommentList> lists,
+			int start, int loaded) {
+		ArrayList<Comment> children = new ArrayList<Comment>(loaded + 1);
+		ArrayList<CommentList> hidden = new ArrayList<CommentList>();
+		for (int j = 0; j < loaded; ++j) {
+			Comment child = comments[start + j];
+			if (child == null) {
+				hidden.add(lists.get(j));
+			} else {
+				child.setParent(parent);
+				children.add(child);
+			}
+		}
+		hidden.addAll(lists.subList(loaded, lists.size()));
+		if (!hidden.isEmpty()) {
+			Comment stub = Comment.makeStub(hidden);
+			stub.setParent(parent);
+			children.add(stub);
+		}
+		return children;
+	}
+}
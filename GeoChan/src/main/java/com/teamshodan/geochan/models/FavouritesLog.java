@@ -23,13 +23,15 @@ package com.teamshodan.geochan.models;
 import android.content.Context;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.teamshodan.geochan.managers.FavouritesIOManager;
 
 /**
  * Handles the threads/comments saved by the user as favourite, to be available
  * for later viewing. Contains methods to add, remove and check presence of
- * favourite comments/threads. Is a singleton.
+ * favourite comments/threads. The favourites are indexed by id alongside their
+ * lists, so lookups do not scan them. Is a singleton.
  * 
  * @author Artem Chikin
  */
@@ -40,12 +42,16 @@ public class FavouritesLog {
     private FavouritesIOManager manager;
     private ArrayList<ThreadComment> threads;
     private ArrayList<ThreadComment> favComments;
+    // The favourite threads by thread id
+    private HashMap<String, ThreadComment> threadsById;
+    // The ThreadComments wrapping favourite comments, by comment id
+    private HashMap<String, ThreadComment> favCommentsById;
 
     private FavouritesLog(Context context) {
         this.context = context;
         manager = FavouritesIOManager.getInstance(context);
-        threads = manager.deSerializeThreads();
-        favComments = manager.deSerializeFavComments();
+        setThreads(manager.deSerializeThreads());
+        setFavComments(manager.deSerializeFavComments());
     }
 
     /**
@@ -66,6 +72,7 @@ public class FavouritesLog {
      */
     public void addThreadComment(ThreadComment thread) {
         threads.add(thread);
+        indexThread(thread);
         manager.serializeThreads();
     }
     
@@ -75,6 +82,7 @@ public class FavouritesLog {
      */
     public void addFavComment(ThreadComment comment) {
     	favComments.add(comment);
+    	indexFavComment(comment);
     	manager.serializeFavComments();
     }
 
@@ -83,15 +91,11 @@ public class FavouritesLog {
      * @param threadComment The ThreadComment to be removed.
      */
     public void removeThreadComment(ThreadComment threadComment) {
-    	ThreadComment toRemove = null;
-        for (ThreadComment t : getThreads()) {
-            if (t.getId().equals(threadComment.getId())) {
-            	toRemove = t;
-            	break;
-            }
-        }
+    	ThreadComment toRemove = threadsById.get(threadComment.getId());
         if (toRemove != null) {
             getThreads().remove(toRemove);
+            // Index a duplicate left in the list, if any
+            setThreads(threads);
         }
         manager.serializeThreads();
     }
@@ -101,48 +105,66 @@ public class FavouritesLog {
      * @param id The ID of the Comment to be removed.
      */
     public void removeFavComment(String id) {
-    	ThreadComment toRemove = null;
-        for (ThreadComment c : getFavComments()) {
-            if (c.getBodyComment().getId().equals(id)) {
-            	toRemove = c;
-            	break;
-            }
-        }
+    	ThreadComment toRemove = favCommentsById.get(id);
         if (toRemove != null) {
 	        getFavComments().remove(toRemove);
+	        // Index a duplicate left in the list, if any
+	        setFavComments(favComments);
         }
         manager.serializeFavComments();
     }
 
     /**
-     * Iterate over the cached favourites and check for comment with given id
+     * Check the cached favourites for a comment with given id
      * 
      * @param id The ID to be checked for.
      * @return True if the Comment was found, false otherwise.
      */
     public boolean hasFavComment(String id) {
-        for (ThreadComment c : getFavComments()) {
-            if (c.getBodyComment().getId().equals(id)) {
-                return true;
-            }
-        }
-        return false;
+        return favCommentsById.containsKey(id);
     }
 
     /**
-     * Iterate over the cached favourites and check for threadComment with given
-     * id.
+     * Check the cached favourites for a threadComment with given id.
      * 
      * @param id The ID to be checked for.
      * @return True if the ThreadComment was found, false otherwise.
      */
     public boolean hasThreadComment(String id) {
-        for (ThreadComment t : getThreads()) {
-            if (t.getId().equals(id)) {
-                return true;
-            }
+        return threadsById.containsKey(id);
+    }
+
+    /**
+     * Finds a favourited ThreadComment, or the ThreadComment wrapping a
+     * favourited Comment, by its id.
+     * 
+     * @param id The ID of the ThreadComment.
+     * @return The ThreadComment, or null if it is not in favourites.
+     */
+    public ThreadComment findThreadById(String id) {
+        ThreadComment thread = threadsById.get(id);
+        if (thread != null) {
+            return thread;
+        }
+        // A favourite comment's ThreadComment takes the comment's id
+        return favCommentsById.get(id);
+    }
+
+    /**
+     * Adds a favourite thread to the index, unless one with the same id is
+     * already there, so the first in the list is found as before.
+     */
+    private void indexThread(ThreadComment thread) {
+        if (!threadsById.containsKey(thread.getId())) {
+            threadsById.put(thread.getId(), thread);
+        }
+    }
+
+    private void indexFavComment(ThreadComment comment) {
+        String id = comment.getBodyComment().getId();
+        if (!favCommentsById.containsKey(id)) {
+            favCommentsById.put(id, comment);
         }
-        return false;
     }
 
     // Getters and Setters
@@ -156,9 +178,17 @@ public class FavouritesLog {
 
 	public void setFavComments(ArrayList<ThreadComment> favComments) {
 		this.favComments = favComments;
+		this.favCommentsById = new HashMap<String, ThreadComment>();
+		for (ThreadComment comment : favComments) {
+			indexFavComment(comment);
+		}
 	}
 
 	public void setThreads(ArrayList<ThreadComment> threads) {
         this.threads = threads;
+        this.threadsById = new HashMap<String, ThreadComment>();
+        for (ThreadComment thread : threads) {
+            indexThread(thread);
+        }
     }
 }
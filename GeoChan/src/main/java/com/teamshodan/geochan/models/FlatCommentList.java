@@ -0,0 +1,341 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The replies of a comment tree flattened into the order they are displayed
+ * in: a pre-order walk of the tree, below its root. Each entry holds the
+ * Comment and its depth below the root, so the ThreadViewAdapter can answer
+ * its count, item and view type queries by index without walking the tree.
+ * The ownership flags of the root and its replies are computed on the way.
+ * A FlatCommentList is not changed once built; a changed tree is flattened
+ * again.
+ */
+public class FlatCommentList {
+	private final Comment[] comments;
+	private final int[] depths;
+	// Counted on first use, -1 until then
+	private int replyCount = -1;
+
+	private FlatCommentList(Comment[] comments, int[] depths) {
+		this.comments = comments;
+		this.depths = depths;
+	}
+
+	/**
+	 * Flattens the replies of a comment tree in their current order.
+	 *
+	 * @param root
+	 *            The root of the tree, normally a bodyComment. It is not part
+	 *            of the flattened list.
+	 * @return The flattened replies.
+	 */
+	public static FlatCommentList of(Comment root) {
+		return of(root, null);
+	}
+
+	/**
+	 * Flattens the replies of a comment tree as they will be ordered once
+	 * computed orders are applied to it, without changing the tree. Lets a
+	 * sort off the UI thread prepare the adapter's list before the UI thread
+	 * rearranges the tree.
+	 *
+	 * @param root
+	 *            The root of the tree. It is not part of the flattened list.
+	 * @param orders
+	 *            The order of the children of each Comment, as index arrays
+	 *            in the form SortUtil.permute takes. Comments missing from
+	 *            the map keep their current order. May be null.
+	 * @return The flattened replies.
+	 */
+	public static FlatCommentList of(Comment root, Map<Comment, int[]> orders) {
+		return of(root, null, orders);
+	}
+
+	/**
+	 * Flattens the replies of a comment tree from copies of its levels, as
+	 * they will be ordered once computed orders are applied to them. Lets a
+	 * sort off the UI thread flatten the tree without reading the lists of
+	 * children the UI thread may be changing.
+	 *
+	 * @param root
+	 *            The root of the tree. It is not part of the flattened list.
+	 * @param levels
+	 *            The children of each Comment of the tree. Comments missing
+	 *            from the map have no children. May be null, in which case
+	 *            the tree's own lists are read.
+	 * @param orders
+	 *            The order of the children of each Comment, as in
+	 *            of(Comment, Map). May be null.
+	 * @return The flattened replies.
+	 */
+	public static FlatCommentList of(Comment root,
+			Map<Comment, List<Comment>> levels, Map<Comment, int[]> orders) {
+		ArrayList<Comment> comments = new ArrayList<Comment>();
+		int[] depths = new int[16];
+		root.computeOwnership();
+		// Pending Comments, children pushed in reverse so they pop in order
+		ArrayList<Comment> stack = new ArrayList<Comment>();
+		int[] stackDepths = new int[16];
+		stackDepths = pushChildren(root, 0, levels, orders, stack,
+				stackDepths);
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			Comment comment = stack.remove(top);
+			int depth = stackDepths[top];
+			if (comments.size() == depths.length) {
+				depths = grow(depths, depths.length * 2);
+			}
+			depths[comments.size()] = depth;
+			comments.add(comment);
+			comment.computeOwnership();
+			stackDepths = pushChildren(comment, depth + 1, levels, orders,
+					stack, stackDepths);
+		}
+		return new FlatCommentList(comments.toArray(new Comment[comments
+				.size()]), grow(depths, comments.size()));
+	}
+
+	/**
+	 * Builds the map of orders taken by of(Comment, Map) from the parallel
+	 * lists a sort produces.
+	 *
+	 * @param parents
+	 *            The Comments whose children were ordered.
+	 * @param orders
+	 *            The order of the children of each Comment.
+	 * @return The orders keyed by parent.
+	 */
+	public static Map<Comment, int[]> mapOrders(List<Comment> parents,
+			List<int[]> orders) {
+		Map<Comment, int[]> map = new IdentityHashMap<Comment, int[]>();
+		for (int i = 0; i < parents.size(); ++i) {
+			map.put(parents.get(i), orders.get(i));
+		}
+		return map;
+	}
+
+	/**
+	 * Pushes the children of a Comment onto the walk's stack in reverse
+	 * order, growing the array of depths as needed.
+	 *
+	 * @return The array of depths, which may have been replaced.
+	 */
+	private static int[] pushChildren(Comment parent, int depth,
+			Map<Comment, List<Comment>> levels, Map<Comment, int[]> orders,
+			ArrayList<Comment> stack, int[] stackDepths) {
+		List<Comment> children = levels == null ? parent.getChildren()
+				: levels.get(parent);
+		if (children == null) {
+			children = Collections.emptyList();
+		}
+		int[] order = orders == null ? null : orders.get(parent);
+		if (order != null && order.length != children.size()) {
+			// The level changed since it was sorted and will be sorted again
+			order = null;
+		}
+		int needed = stack.size() + children.size();
+		if (needed > stackDepths.length) {
+			stackDepths = grow(stackDepths, Math.max(needed,
+					stackDepths.length * 2));
+		}
+		for (int i = children.size() - 1; i >= 0; --i) {
+			stackDepths[stack.size()] = depth;
+			stack.add(children.get(order == null ? i : order[i]));
+		}
+		return stackDepths;
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] grown = new int[length];
+		System.arraycopy(array, 0, grown, 0, Math.min(array.length, length));
+		return grown;
+	}
+
+	/**
+	 * Returns a copy of the list with a reply inserted. The tree itself is
+	 * not changed.
+	 *
+	 * @param position
+	 *            The position of the new reply.
+	 * @param comment
+	 *            The reply.
+	 * @param depth
+	 *            The depth of the reply.
+	 * @return The new list.
+	 */
+	public FlatCommentList withInserted(int position, Comment comment,
+			int depth) {
+		Comment[] newComments = new Comment[comments.length + 1];
+		int[] newDepths = new int[depths.length + 1];
+		System.arraycopy(comments, 0, newComments, 0, position);
+		System.arraycopy(depths, 0, newDepths, 0, position);
+		newComments[position] = comment;
+		newDepths[position] = depth;
+		comment.computeOwnership();
+		System.arraycopy(comments, position, newComments, position + 1,
+				comments.length - position);
+		System.arraycopy(depths, position, newDepths, position + 1,
+				depths.length - position);
+		return new FlatCommentList(newComments, newDepths);
+	}
+
+	/**
+	 * Returns a copy of the list with a run of replies removed, such as a
+	 * reply and its subtree. The tree itself is not changed.
+	 *
+	 * @param position
+	 *            The position of the first reply to remove.
+	 * @param count
+	 *            The number of replies to remove.
+	 * @return The new list.
+	 */
+	public FlatCommentList withRemoved(int position, int count) {
+		Comment[] newComments = new Comment[comments.length - count];
+		int[] newDepths = new int[depths.length - count];
+		System.arraycopy(comments, 0, newComments, 0, position);
+		System.arraycopy(depths, 0, newDepths, 0, position);
+		System.arraycopy(comments, position + count, newComments, position,
+				newComments.length - position);
+		System.arraycopy(depths, position + count, newDepths, position,
+				newDepths.length - position);
+		return new FlatCommentList(newComments, newDepths);
+	}
+
+	/**
+	 * Returns a copy of the list with the replies below the reply at a
+	 * position replaced, such as after a stub among them was expanded. The
+	 * tree itself is not changed.
+	 * 
+	 * @param position
+	 *            The position of the reply whose replies are replaced.
+	 * @param replies
+	 *            Its replies flattened by of(Comment).
+	 * @return The new list.
+	 */
+	public FlatCommentList withReplies(int position, FlatCommentList replies) {
+		int end = subtreeEnd(position);
+		int length = comments.length - (end - position - 1)
+				+ replies.comments.length;
+		Comment[] newComments = new Comment[length];
+		int[] newDepths = new int[length];
+		System.arraycopy(comments, 0, newComments, 0, position + 1);
+		System.arraycopy(depths, 0, newDepths, 0, position + 1);
+		int offset = depths[position] + 1;
+		for (int i = 0; i < replies.comments.length; ++i) {
+			newComments[position + 1 + i] = replies.comments[i];
+			newDepths[position + 1 + i] = replies.depths[i] + offset;
+		}
+		int tail = position + 1 + replies.comments.length;
+		System.arraycopy(comments, end, newComments, tail,
+				comments.length - end);
+		System.arraycopy(depths, end, newDepths, tail, depths.length - end);
+		return new FlatCommentList(newComments, newDepths);
+	}
+
+	/**
+	 * Returns the number of replies in the thread, counting those that stubs
+	 * in the list stand in for rather than the stubs themselves.
+	 * 
+	 * @return The number of replies.
+	 */
+	public int getReplyCount() {
+		if (replyCount == -1) {
+			int count = 0;
+			for (Comment comment : comments) {
+				count += comment.isStub() ? comment.getHiddenCount() : 1;
+			}
+			replyCount = count;
+		}
+		return replyCount;
+	}
+
+	/**
+	 * Finds the position of a reply in the list.
+	 *
+	 * @param comment
+	 *            The reply.
+	 * @return The position, or -1 if the reply is not in the list.
+	 */
+	public int indexOf(Comment comment) {
+		for (int i = 0; i < comments.length; ++i) {
+			if (comments[i] == comment) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position just past the subtree of the reply at a position,
+	 * which is where the next reply at the same or a lower depth starts.
+	 *
+	 * @param position
+	 *            The position of the reply.
+	 * @return The position after its last descendant.
+	 */
+	public int subtreeEnd(int position) {
+		int depth = depths[position];
+		int end = position + 1;
+		while (end < depths.length && depths[end] > depth) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Returns the number of replies in the list.
+	 *
+	 * @return The number of replies.
+	 */
+	public int size() {
+		return comments.length;
+	}
+
+	/**
+	 * Returns the reply at a position in display order.
+	 *
+	 * @param position
+	 *            The position.
+	 * @return The Comment.
+	 */
+	public Comment getComment(int position) {
+		return comments[position];
+	}
+
+	/**
+	 * Returns the depth of the reply at a position, where direct replies to
+	 * the root have depth 0.
+	 *
+	 * @param position
+	 *            The position.
+	 * @return The depth.
+	 */
+	public int getDepth(int position) {
+		return depths[position];
+	}
+}
@@ -21,7 +21,6 @@
 package com.teamshodan.geochan.models;
 
 import android.location.Location;
-import android.location.LocationManager;
 
 import org.osmdroid.util.GeoPoint;
 
@@ -33,11 +32,26 @@ import com.teamshodan.geochan.helpers.LocationListenerService;
  * string (location description), and calculating distance between itself and
  * another geoLocation object.
  * 
+ * The coordinates are held as two doubles that never change once the
+ * GeoLocation is constructed, rather than in an android.location.Location, so
+ * a GeoLocation is small and building one allocates nothing else. A Location
+ * is only read when a GeoLocation is constructed from one at the
+ * LocationListenerService boundary. Descriptions are interned, since many
+ * comments share the same point of interest.
+ * 
  * @author Brad Simons
  */
 public class GeoLocation {
 
-    private Location location;
+    // Mean radius of the Earth in meters
+    public static final double EARTH_RADIUS = 6371008.8;
+    // Length of one degree of latitude in meters
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private final double latitude;
+    private final double longitude;
+    // False if no location could be obtained, the coordinates are then 0
+    private final boolean hasCoordinates;
     private String locationDescription;
 
     /**
@@ -47,19 +61,24 @@ public class GeoLocation {
      * @param locationListenerService The LocationListenerService to get a Location from.
      */
     public GeoLocation(LocationListenerService locationListenerService) {
-        this.location = locationListenerService.getCurrentLocation();
-        if (this.location == null) {
-            this.location = locationListenerService.getLastKnownLocation();
-        }
+        this(currentLocation(locationListenerService));
     }
 
     /**
      * Constructs a new GeoLocation object with a supplied location object
      * 
-     * @param location The Location to base the GeoLocation off of.
+     * @param location The Location to base the GeoLocation off of, may be null.
      */
     public GeoLocation(Location location) {
-        this.location = location;
+        if (location == null) {
+            this.latitude = 0;
+            this.longitude = 0;
+            this.hasCoordinates = false;
+        } else {
+            this.latitude = location.getLatitude();
+            this.longitude = location.getLongitude();
+            this.hasCoordinates = true;
+        }
     }
 
     /**
@@ -69,8 +88,23 @@ public class GeoLocation {
      * @param longitude The longitude for the Geolocation.
      */
     public GeoLocation(double latitude, double longitude) {
-        this.location = new Location(LocationManager.GPS_PROVIDER);
-        this.setCoordinates(latitude, longitude);
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.hasCoordinates = true;
+    }
+
+    /**
+     * Construct a new GeoLocation object with a supplied latitude, longitude
+     * and location description.
+     * 
+     * @param latitude The latitude for the GeoLocation.
+     * @param longitude The longitude for the Geolocation.
+     * @param locationDescription The point of interest, may be null.
+     */
+    public GeoLocation(double latitude, double longitude,
+            String locationDescription) {
+        this(latitude, longitude);
+        setLocationDescription(locationDescription);
     }
     
     /**
@@ -79,8 +113,16 @@ public class GeoLocation {
      * @param geoPoint The GeoPoint to base the GeoLocation off of.
      */
     public GeoLocation(GeoPoint geoPoint) {
-    	this.location = new Location(LocationManager.GPS_PROVIDER);
-    	this.setCoordinates(geoPoint.getLatitude(), geoPoint.getLongitude());
+    	this(geoPoint.getLatitude(), geoPoint.getLongitude());
+    }
+
+    private static Location currentLocation(
+            LocationListenerService locationListenerService) {
+        Location location = locationListenerService.getCurrentLocation();
+        if (location == null) {
+            location = locationListenerService.getLastKnownLocation();
+        }
+        return location;
     }
 
     /**
@@ -90,62 +132,67 @@ public class GeoLocation {
      * @param toLocation
      *            The GeoLocation to be compared to.
      * @return The distance between the GeoLocations in terms of coordinates.
+     * @deprecated Degrees of longitude shrink away from the equator, use
+     *             {@link #distanceInMeters(GeoLocation)} instead.
      */
+    @Deprecated
     public double distance(GeoLocation toLocation) {
         double latDist = this.getLatitude() - toLocation.getLatitude();
         double longDist = this.getLongitude() - toLocation.getLongitude();
-        return Math.sqrt(Math.pow(latDist, 2) + Math.pow(longDist, 2));
+        return Math.sqrt(latDist * latDist + longDist * longDist);
     }
 
     /**
-     * Sets both the longitude and latitude of the GeoLocation to new values.
-     * Creates a new location object so that the LocationListenerServices's
-     * lastKnownLocation attribute is not affected.
+     * Determines the great-circle distance in meters between the GeoLocation
+     * object and the passed GeoLocation.
      * 
-     * @param newLat
-     *            The new latitude to be assigned.
-     * @param newLong
-     *            The new longitude to be assigned.
+     * @param toLocation
+     *            The GeoLocation to be compared to.
+     * @return The distance between the GeoLocations in meters.
      */
-    public void setCoordinates(double newLat, double newLong) {
-        Location newLocation = new Location(LocationManager.GPS_PROVIDER);
-        newLocation.setLatitude(newLat);
-        newLocation.setLongitude(newLong);
-        this.location = newLocation;
+    public double distanceInMeters(GeoLocation toLocation) {
+        return haversineDistance(getLatitude(), getLongitude(),
+                toLocation.getLatitude(), toLocation.getLongitude());
     }
 
     /**
-     * Sets new latitude value. A new location object is created so that the
-     * LocationListnerService's lastKnownLocation attribute is not affected
+     * Computes the great-circle distance in meters between two points using
+     * the haversine formula, which is accurate at any distance.
      * 
-     * @param newLat The new latitude for the GeoLocation.
+     * @param lat1 The latitude of the first point in degrees.
+     * @param long1 The longitude of the first point in degrees.
+     * @param lat2 The latitude of the second point in degrees.
+     * @param long2 The longitude of the second point in degrees.
+     * @return The distance between the points in meters.
      */
-    public void setLatitude(double newLat) {
-        Location newLocation = new Location(LocationManager.GPS_PROVIDER);
-        newLocation.setLatitude(newLat);
-        if (location != null) {
-            newLocation.setLongitude(location.getLongitude());
-        } else {
-            newLocation.setLongitude(0);
-        }
-        this.location = newLocation;
+    public static double haversineDistance(double lat1, double long1,
+            double lat2, double long2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinHalfLat = Math.sin((phi2 - phi1) / 2);
+        double sinHalfLong = Math.sin(Math.toRadians(long2 - long1) / 2);
+        double a = sinHalfLat * sinHalfLat + Math.cos(phi1) * Math.cos(phi2)
+                * sinHalfLong * sinHalfLong;
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
     }
 
     /**
-     * Sets new longitude value. A new location object is created so that the
-     * LocationListenerService's lastKnownLocation attribute is not affected
+     * Computes the distance in meters between two points using the
+     * equirectangular approximation. Cheaper than the haversine formula and
+     * accurate for points within a few hundred kilometers of each other.
      * 
-     * @param newLong The new longitude for the GeoLocation.
+     * @param lat1 The latitude of the first point in degrees.
+     * @param long1 The longitude of the first point in degrees.
+     * @param lat2 The latitude of the second point in degrees.
+     * @param long2 The longitude of the second point in degrees.
+     * @return The approximate distance between the points in meters.
      */
-    public void setLongitude(double newLong) {
-        Location newLocation = new Location(LocationManager.GPS_PROVIDER);
-        newLocation.setLongitude(newLong);
-        if (location != null) {
-            newLocation.setLatitude(location.getLatitude());
-        } else {
-            newLocation.setLatitude(0);
-        }
-        this.location = newLocation;
+    public static double equirectangularDistance(double lat1, double long1,
+            double lat2, double long2) {
+        double x = Math.toRadians(long2 - long1)
+                * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return EARTH_RADIUS * Math.sqrt(x * x + y * y);
     }
 
     /**
@@ -158,24 +205,26 @@ public class GeoLocation {
         return new GeoPoint(getLatitude(), getLongitude());
     }
 
+    /**
+     * Returns whether the GeoLocation has a position. A GeoLocation built
+     * while no location could be obtained has none.
+     * 
+     * @return True if the coordinates are known.
+     */
+    public boolean hasCoordinates() {
+        return hasCoordinates;
+    }
+
     /**
      * Getters and Setters
      */
 
     public double getLatitude() {
-        return location.getLatitude();
+        return latitude;
     }
 
     public double getLongitude() {
-        return location.getLongitude();
-    }
-
-    public Location getLocation() {
-        return location;
-    }
-
-    public void setLocation(Location location) {
-        this.location = location;
+        return longitude;
     }
 
     public String getLocationDescription() {
@@ -183,6 +232,7 @@ public class GeoLocation {
     }
 
     public void setLocationDescription(String locationDescription) {
-        this.locationDescription = locationDescription;
+        this.locationDescription = locationDescription == null ? null
+                : locationDescription.intern();
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.models;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps the ThreadComments shown by fragments reachable by id within the
+ * process, so fragment arguments carry thread and comment ids instead of
+ * parcelled comment graphs. A fragment registers the ThreadComment it hands
+ * to another fragment and passes its id; the new fragment looks the id up and
+ * gets the same instance, with its whole comment tree and images.
+ * 
+ * Entries are held weakly, so the registry does not keep a thread alive once
+ * no list or fragment shows it. A lookup misses after the process was
+ * restarted. Fragments then look the thread up in the ThreadList or the
+ * FavouritesLog, or fall back to the compact parcelled copy in their
+ * arguments where they have one. A fragment that finds the thread nowhere
+ * shows an error and closes, as MapViewFragment and PostFragment do.
+ */
+public class ModelRegistry {
+
+    private static final HashMap<String, WeakReference<ThreadComment>> threads = new HashMap<String, WeakReference<ThreadComment>>();
+    // Cleared entries are dropped once the map grows to this size
+    private static int purgeSize = 16;
+
+    /**
+     * Registers a ThreadComment under its id, replacing any ThreadComment
+     * registered under the same id.
+     * 
+     * @param thread
+     *            The ThreadComment.
+     */
+    public static synchronized void register(ThreadComment thread) {
+        threads.put(thread.getId(), new WeakReference<ThreadComment>(thread));
+        if (threads.size() >= purgeSize) {
+            purge();
+            purgeSize = Math.max(16, threads.size() * 2);
+        }
+    }
+
+    /**
+     * Returns the ThreadComment last registered under an id, if it is still
+     * alive.
+     * 
+     * @param id
+     *            The id of the ThreadComment, may be null.
+     * @return The ThreadComment, or null if none is registered.
+     */
+    public static synchronized ThreadComment getThread(String id) {
+        if (id == null) {
+            return null;
+        }
+        WeakReference<ThreadComment> ref = threads.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Finds a Comment of a ThreadComment's tree by id, which may be the body
+     * comment itself.
+     * 
+     * @param thread
+     *            The ThreadComment.
+     * @param commentId
+     *            The id of the Comment.
+     * @return The Comment, or null if the tree does not have it.
+     */
+    public static Comment findComment(ThreadComment thread, String commentId) {
+        if (thread == null || commentId == null) {
+            return null;
+        }
+        return thread.findCommentById(thread.getBodyComment(), commentId);
+    }
+
+    private static void purge() {
+        Iterator<Map.Entry<String, WeakReference<ThreadComment>>> it = threads
+                .entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().get() == null) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -23,10 +23,12 @@ package com.teamshodan.geochan.models;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
+import com.teamshodan.geochan.helpers.HotRanking;
+
 /**
  * Handles all operations of threads in the application. 
  * It aggregates a Comment object and stores the extra
@@ -41,6 +43,8 @@ public class ThreadComment implements Parcelable {
     private Comment bodyComment;
     private String title;
     private long id;
+    // Log-space activity for HotRanking, NaN until first read
+    private volatile double activityScore = Double.NaN;
 
     /**
      * Constructs a ThreadComment object.
@@ -67,17 +71,16 @@ public class ThreadComment implements Parcelable {
 
     /**
      * Determines the distance between the Thread (defined by the GeoLocation of
-     * the top comment) and the provided GeoLocation in terms of coordinates.
+     * the top comment) and the provided GeoLocation in meters.
      * 
      * @param geo
      *            The GeoLocation we want to determine the distance from.
-     * @return The distance, in terms of coordinates, between the Thread and the
+     * @return The great-circle distance, in meters, between the Thread and the
      *         passed GeoLocation.
      */
     public double getDistanceFrom(GeoLocation geo) {
     	GeoLocation loc = this.getBodyComment().getLocation();
-    	double dist = loc.distance(geo);
-        return dist;
+        return loc.distanceInMeters(geo);
     }
 
     /**
@@ -90,12 +93,22 @@ public class ThreadComment implements Parcelable {
      *         passed Date. Returns a minimum of 0.5.
      */
     public double getTimeFrom(Date date) {
-        Calendar cal1 = Calendar.getInstance();
-        Calendar cal2 = Calendar.getInstance();
-        cal1.setTime(this.getThreadDate());
-        cal2.setTime(date);
-        long t1 = cal1.getTimeInMillis();
-        long t2 = cal2.getTimeInMillis();
+        return getTimeFrom(date.getTime());
+    }
+
+    /**
+     * Determines the time passed between when the Thread was posted and the
+     * passed time in terms of number of hours.
+     * 
+     * @param time
+     *            The time we are comparing with, in milliseconds since the
+     *            epoch.
+     * @return The number of hours between when the Thread was posted and the
+     *         passed time. Returns a minimum of 0.5.
+     */
+    public double getTimeFrom(long time) {
+        long t1 = this.getThreadTime();
+        long t2 = time;
         if (TimeUnit.MILLISECONDS.toHours(Math.abs(t1 - t2)) < 1) {
             return 0.5;
         } else {
@@ -114,16 +127,50 @@ public class ThreadComment implements Parcelable {
      *         current time.
      */
     public double getScoreFromUser(GeoLocation geo) {
+        return getScoreFromUser(geo, new Date());
+    }
+
+    /**
+     * Determines the score of a thread relevant to a GeoLocation at the
+     * passed time. Sorting passes the same Date for every thread.
+     * 
+     * @param geo
+     *            The GeoLocation relevant to sorting.
+     * @param now
+     *            The Date to measure the thread's age against.
+     * @return The score of the comment in relation to the user's location and
+     *         the passed time.
+     */
+    public double getScoreFromUser(GeoLocation geo, Date now) {
+        if (geo == null) {
+            return 0;
+        }
+        return getScoreFromDistance(this.getDistanceFrom(geo), now.getTime());
+    }
+
+    /**
+     * Determines the score of a thread from its already computed distance to
+     * the sorting location, so that sorting can compute all distances in one
+     * batch.
+     * 
+     * @param distance
+     *            The distance in meters between the thread and the sorting
+     *            location.
+     * @param now
+     *            The time to measure the thread's age against, in
+     *            milliseconds since the epoch.
+     * @return The score of the thread.
+     */
+    public double getScoreFromDistance(double distance, long now) {
         int distConst = 25;
         int timeConst = 10;
         long maxScore = 100000000;
         double minScore = 0.0001;
 
-        if (geo == null) {
-            return 0;
-        }
-        double distScore = distConst * (1 / Math.sqrt(this.getDistanceFrom(geo)));
-        double timeScore = timeConst * (1 / Math.sqrt(this.getTimeFrom(new Date())));
+        // The score constants were tuned for distances in degrees
+        double degrees = distance / GeoLocation.METERS_PER_DEGREE;
+        double distScore = distConst * (1 / Math.sqrt(degrees));
+        double timeScore = timeConst * (1 / Math.sqrt(this.getTimeFrom(now)));
         if (distScore + timeScore > maxScore) {
             return maxScore;
         } else if (distScore + timeScore < minScore) {
@@ -134,24 +181,62 @@ public class ThreadComment implements Parcelable {
     }
 
     /**
-     * Searches a parent comment recursively for a child comment identified
-     * by its ElasticSearch id.
+     * Returns the thread's log-space activity score for hot ranking. It
+     * starts from the time the thread was posted and grows with each piece of
+     * activity recorded on it.
+     * 
+     * @return The activity score.
+     */
+    public double getActivityScore() {
+        double activity = activityScore;
+        if (Double.isNaN(activity)) {
+            activity = HotRanking.activityScore(getThreadTime());
+            activityScore = activity;
+        }
+        return activity;
+    }
+
+    /**
+     * Returns a copy of this ThreadComment with new activity, such as a
+     * reply, added to its hot score. The copy shares the body comment, and
+     * this ThreadComment keeps its score, so snapshots holding it keep
+     * agreeing with their sort keys.
+     * 
+     * @param time
+     *            The time of the activity in milliseconds since the epoch.
+     * @return the copy
+     */
+    public ThreadComment withActivity(long time) {
+        ThreadComment copy = new ThreadComment(bodyComment, title);
+        copy.id = id;
+        copy.activityScore = HotRanking.addActivity(getActivityScore(), time);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this ThreadComment whose body comment has the passed
+     * replies, leaving this ThreadComment and its comment tree untouched, so
+     * the copy can be built off the UI thread and published with
+     * ThreadList.replaceThread.
+     * @param replies  the replies to the body comment
+     * @return the copy
+     */
+    public ThreadComment withReplies(ArrayList<Comment> replies) {
+        ThreadComment copy = new ThreadComment(bodyComment.withChildren(replies), title);
+        copy.id = id;
+        copy.activityScore = activityScore;
+        return copy;
+    }
+
+    /**
+     * Searches a parent comment for a child comment identified by its
+     * ElasticSearch id, through the id index of the comment tree.
      * @param parent  the parent comment
      * @param id  the id of the comment to search for
      * @return the found comment, or null if no such comment was found
      */
     public Comment findCommentById(Comment parent, String id) {
-        Comment c = null;
-        if (parent.getId().equals(id)) {
-            c = parent;
-        }
-        for (Comment child : parent.getChildren()) {
-            Comment c2 = findCommentById(child, id);
-            if (c2 != null) {
-                c = c2;
-            }
-        }
-        return c;
+        return parent.findCommentById(parent, id);
     }
     
     /**
@@ -164,15 +249,16 @@ public class ThreadComment implements Parcelable {
     }
 
     /** 
-     * Builds a Parcel from a ThreadComment object.
+     * Builds a Parcel from a ThreadComment object. The body comment is
+     * written in its compact form, without images or replies.
      * @param dest  the destination Parcel
      * @param flags  contextual flags
      */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeParcelable(getBodyComment(), flags);
-        dest.writeValue(title);
-        dest.writeValue(id);
+        dest.writeString(title);
+        dest.writeLong(id);
     }
 
     /**
@@ -181,9 +267,9 @@ public class ThreadComment implements Parcelable {
      */
     public ThreadComment(Parcel in) {
         super();
-        this.setBodyComment((Comment) in.readValue(getClass().getClassLoader()));
-        this.setTitle((String) in.readValue(getClass().getClassLoader()));
-        this.setId((long) in.readLong());
+        this.setBodyComment((Comment) in.readParcelable(getClass().getClassLoader()));
+        this.setTitle(in.readString());
+        this.setId(in.readLong());
     }
 
     /**
@@ -209,6 +295,14 @@ public class ThreadComment implements Parcelable {
         getBodyComment().setCommentDate(threadDate);
     }
 
+    public long getThreadTime() {
+        return getBodyComment().getCommentTime();
+    }
+
+    public void setThreadTime(long threadTime) {
+        getBodyComment().setCommentTime(threadTime);
+    }
+
     public String getId() {
         return Long.toString(id);
     }
@@ -20,18 +20,48 @@
 
 package com.teamshodan.geochan.models;
 
+import android.support.v4.util.LruCache;
+
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.teamshodan.geochan.helpers.HotRanking;
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.helpers.SortUtil;
 
 /**
- * Stores and manages an ArrayList of ThreadComment objects.
+ * Stores and manages the list of ThreadComment objects. The list is published
+ * as an immutable, versioned ThreadListSnapshot through an atomic reference;
+ * every modification builds a new snapshot and swaps it in, so background
+ * threads can update the list while the UI thread iterates an older snapshot.
+ * Once sorted, the list keeps its sort keys so that new threads are inserted
+ * in place instead of re-sorting the whole list. The last few sorted orders
+ * are cached, so switching back to a recent sort of the same threads does not
+ * sort them again. A HotRanking of the threads is kept alongside for the
+ * highest score sort, and updated in place as threads gain activity.
  * 
  * @author Henry Pabst
  * @author Artem Chikin
  * 
  */
 public class ThreadList {
-	
-    private static ArrayList<ThreadComment> threads = null;
+
+    // Sorted orders recently published, by content version and sort
+    private static final int SORT_CACHE_SIZE = 8;
+    // Threads ranked at a time by score and location sorts
+    public static final int RANK_BLOCK = 50;
+
+    private static final AtomicReference<ThreadListSnapshot> snapshot = new AtomicReference<ThreadListSnapshot>(
+            new ThreadListSnapshot(0, new ArrayList<ThreadComment>()));
+    private static final LruCache<String, ThreadListSnapshot> sortCache = new LruCache<String, ThreadListSnapshot>(
+            SORT_CACHE_SIZE);
+    // Hot ranking of the threads of hotRankingVersion, guarded by hotLock
+    private static final Object hotLock = new Object();
+    private static HotRanking hotRanking = null;
+    private static long hotRankingVersion = -1;
 
     /**
      * Creates a new ThreadComment and adds it to to the ThreadList.
@@ -42,10 +72,7 @@ public class ThreadList {
      *            The title of the ThreadComment to be created.
      */
     public static void addThread(Comment comment, String title) {
-        if (threads == null) {
-            threads = new ArrayList<ThreadComment>();
-        }
-        threads.add(new ThreadComment(comment, title));
+        addThread(new ThreadComment(comment, title));
     }
 
     /**
@@ -55,29 +82,503 @@ public class ThreadList {
      *            The ThreadComment to be added.
      */
     public static void addThread(ThreadComment thread) {
-        if (threads == null) {
-            threads = new ArrayList<ThreadComment>();
+        thread.getBodyComment().computeOwnership();
+        ThreadListSnapshot current;
+        ArrayList<ThreadComment> next;
+        do {
+            current = snapshot.get();
+            next = current.copyThreads();
+            next.add(thread);
+        } while (!publish(current, next));
+    }
+
+    /**
+     * Inserts a ThreadComment at its place in the current sort order, found by
+     * binary search on the sort keys of the current snapshot. If the list is
+     * not sorted, the ThreadComment is appended.
+     * 
+     * @param thread
+     *            The ThreadComment to be inserted.
+     * @return The position the ThreadComment was inserted at.
+     */
+    public static int insertThread(ThreadComment thread) {
+        ThreadListSnapshot current;
+        ArrayList<ThreadComment> next;
+        double[] keys;
+        int position;
+        int ranked;
+        SortRequest keyRequest = null;
+        double key = 0;
+        thread.getBodyComment().computeOwnership();
+        do {
+            current = snapshot.get();
+            SortRequest request = current.getSortRequest();
+            next = current.copyThreads();
+            if (request == null) {
+                position = next.size();
+                keys = null;
+                ranked = 0;
+            } else {
+                // Key the thread with the list's own origin and time
+                if (keyRequest != request) {
+                    key = SortUtil.threadSortKey(request, thread);
+                    keyRequest = request;
+                }
+                position = current.findInsertPosition(key);
+                keys = current.copyKeysWith(position, key);
+                // A thread added behind a partial ranking is left unranked
+                ranked = current.isFullyRanked()
+                        || position < current.getRankedCount() ? current
+                        .getRankedCount() + 1 : current.getRankedCount();
+            }
+            next.add(position, thread);
+        } while (!publish(current, next, current.getSortRequest(), keys,
+                ranked));
+        synchronized (hotLock) {
+            if (hotRanking != null
+                    && hotRankingVersion == current.getContentVersion()) {
+                hotRanking.add(thread);
+                hotRankingVersion = current.getVersion() + 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Records new activity on a ThreadComment, such as a reply, by publishing
+     * a copy of it with a raised hot score in its place. The ThreadComment in
+     * older snapshots is left as it was, so their sort keys still match it.
+     * If the list is sorted by score, the copy is moved to its new place by
+     * binary search rather than sorting again, and the hot ranking is updated
+     * in O(log n).
+     * 
+     * @param threadId
+     *            The id of the ThreadComment.
+     * @param time
+     *            The time of the activity in milliseconds since the epoch.
+     * @return The new position of the ThreadComment, or -1 if it is not in
+     *         the ThreadList.
+     */
+    public static int recordActivity(String threadId, long time) {
+        ThreadListSnapshot current;
+        ArrayList<ThreadComment> next;
+        ThreadComment thread;
+        double[] keys;
+        int position;
+        int ranked;
+        do {
+            current = snapshot.get();
+            ThreadComment old = current.findThreadById(threadId);
+            if (old == null) {
+                return -1;
+            }
+            thread = old.withActivity(time);
+            next = current.copyThreads();
+            position = next.indexOf(old);
+            SortRequest request = current.getSortRequest();
+            keys = current.copyKeys();
+            ranked = current.getRankedCount();
+            if (request != null && isScoreSort(request.getKeyType())) {
+                double key = SortUtil.threadSortKey(request, thread);
+                next.remove(position);
+                keys = current.copyKeysWithout(position);
+                if (position < ranked) {
+                    ranked--;
+                }
+                position = ThreadListSnapshot.findInsertPosition(keys,
+                        ranked, key);
+                if (position < ranked || ranked == keys.length) {
+                    ranked++;
+                }
+                double[] moved = new double[keys.length + 1];
+                System.arraycopy(keys, 0, moved, 0, position);
+                moved[position] = key;
+                System.arraycopy(keys, position, moved, position + 1,
+                        keys.length - position);
+                keys = moved;
+                next.add(position, thread);
+            } else {
+                next.set(position, thread);
+            }
+        } while (!publish(current, next, current.getSortRequest(), keys,
+                ranked));
+        synchronized (hotLock) {
+            if (hotRanking != null
+                    && hotRankingVersion == current.getContentVersion()) {
+                hotRanking.add(thread);
+                hotRankingVersion = current.getVersion() + 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Finds a ThreadComment in the current snapshot by its id.
+     * 
+     * @param id
+     *            The id of the ThreadComment.
+     * @return The ThreadComment, or null if it is not in the ThreadList.
+     */
+    public static ThreadComment findThreadById(String id) {
+        return snapshot.get().findThreadById(id);
+    }
+
+    /**
+     * Finds the ThreadComments in the current snapshot within a distance of
+     * a location, such as the threads near the user for the list's nearby
+     * filter.
+     * 
+     * @param geo
+     *            The GeoLocation to measure from.
+     * @param radius
+     *            The distance in meters.
+     * @return The ThreadComments within the radius, in no particular order.
+     */
+    public static List<ThreadComment> findThreadsWithin(GeoLocation geo,
+            double radius) {
+        return snapshot.get().getSpatialIndex()
+                .findWithin(geo.getLatitude(), geo.getLongitude(), radius);
+    }
+
+    /**
+     * Replaces the ThreadComment with the same id as the passed ThreadComment.
+     * If no such ThreadComment is in the list, the list is left unchanged.
+     * Background threads that load a thread's comments publish a new copy of
+     * the thread through this rather than changing the one in the list, which
+     * the UI thread may be reading.
+     * 
+     * @param thread
+     *            The ThreadComment to put in place of the old one.
+     * @return True if a ThreadComment was replaced.
+     */
+    public static boolean replaceThread(ThreadComment thread) {
+        thread.getBodyComment().computeOwnership();
+        ThreadListSnapshot current;
+        ArrayList<ThreadComment> next;
+        do {
+            current = snapshot.get();
+            ThreadComment old = current.findThreadById(thread.getId());
+            if (old == null) {
+                return false;
+            }
+            next = current.copyThreads();
+            next.set(next.indexOf(old), thread);
+        } while (!publish(current, next, current.getSortRequest(),
+                current.copyKeys(), current.getRankedCount()));
+        synchronized (hotLock) {
+            if (hotRanking != null
+                    && hotRankingVersion == current.getContentVersion()) {
+                hotRanking.add(thread);
+                hotRankingVersion = current.getVersion() + 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts a copy of the current snapshot by the passed sort type and
+     * publishes it as the new snapshot. Safe to call off the UI thread. A list
+     * already sorted by date in the same order is left as it is, since its
+     * keys cannot have changed. If the same threads were sorted the same way
+     * recently, the cached order is published without sorting again. Score
+     * and location sorts rank only the first RANK_BLOCK threads; the rest are
+     * ranked as they are needed with extendRanking.
+     * 
+     * @param sortType
+     *            The SortUtil sort type to sort by.
+     */
+    public static void sortThreads(int sortType) {
+        SortRequest request = SortRequest.forThreads(sortType);
+        ThreadListSnapshot current;
+        ThreadListSnapshot sorted;
+        String cacheKey;
+        ThreadListSnapshot cached;
+        do {
+            current = snapshot.get();
+            if (current.getSortType() == sortType
+                    && SortUtil.isFixedKeySort(sortType)) {
+                return;
+            }
+            cacheKey = current.getContentVersion() + "/"
+                    + request.getCacheKey();
+            cached = sortCache.get(cacheKey);
+            if (cached != null) {
+                sorted = new ThreadListSnapshot(current.getVersion() + 1,
+                        current.getContentVersion(), cached.getThreads(),
+                        cached.getSortRequest(), cached.getSortKeys(),
+                        cached.getRankedCount());
+            } else if (request.getKeyType()
+                    == SortUtil.SORT_USER_SCORE_HIGHEST) {
+                ArrayList<ThreadComment> next = new ArrayList<ThreadComment>(
+                        current.size());
+                double[] keys = rankHottest(current, request, next);
+                sorted = new ThreadListSnapshot(current.getVersion() + 1,
+                        current.getContentVersion(), next, request, keys,
+                        initialRankedCount(request, next));
+            } else {
+                ArrayList<ThreadComment> next = current.copyThreads();
+                double[] keys = rankThreads(request, next);
+                sorted = new ThreadListSnapshot(current.getVersion() + 1,
+                        current.getContentVersion(), next, request, keys,
+                        initialRankedCount(request, next));
+            }
+        } while (!snapshot.compareAndSet(current, sorted));
+        if (cached == null && sorted.getSortRequest() != null) {
+            sortCache.put(cacheKey, sorted);
+        }
+    }
+
+    /**
+     * Ranks more of a partially ranked list, so that at least the threads up
+     * to the passed position are in sorted order, and publishes the result.
+     * The cached order for the current contents is updated along with it.
+     * Does nothing if the list is already ranked that far.
+     * 
+     * @param position
+     *            The position in the list that must be ranked.
+     */
+    public static void extendRanking(int position) {
+        ThreadListSnapshot current;
+        ThreadListSnapshot extended;
+        do {
+            current = snapshot.get();
+            int ranked = current.getRankedCount();
+            if (current.getSortRequest() == null || current.isFullyRanked()
+                    || position < ranked) {
+                return;
+            }
+            ArrayList<ThreadComment> next = current.copyThreads();
+            double[] keys = current.copyKeys();
+            int count = position + 1 - ranked;
+            count = (count + RANK_BLOCK - 1) / RANK_BLOCK * RANK_BLOCK;
+            ranked = SortUtil.rankMore(next, keys, ranked, count);
+            extended = new ThreadListSnapshot(current.getVersion() + 1,
+                    current.getContentVersion(), next,
+                    current.getSortRequest(), keys, ranked);
+        } while (!snapshot.compareAndSet(current, extended));
+        sortCache.put(extended.getContentVersion() + "/"
+                + extended.getSortRequest().getCacheKey(), extended);
+    }
+
+    /**
+     * Sorts the passed list as the SortRequest describes, ranking only the
+     * first RANK_BLOCK threads if the sort allows it.
+     * 
+     * @return The sort keys of the list, or null if it was not sorted.
+     */
+    private static double[] rankThreads(SortRequest request,
+            List<ThreadComment> threads) {
+        if (SortUtil.isPartialRankSort(request.getKeyType())) {
+            return SortUtil.rankThreads(request, threads, RANK_BLOCK);
+        }
+        return SortUtil.sortThreads(request, threads);
+    }
+
+    /**
+     * Fills the passed list with the threads of a snapshot, the first
+     * RANK_BLOCK in hot order from the HotRanking and the rest after them in
+     * their current order, as rankThreads would for a highest score sort.
+     * Scores come from the HotRanking, so threads are not scored again while
+     * it is up to date.
+     * 
+     * @return The sort keys of the list.
+     */
+    private static double[] rankHottest(ThreadListSnapshot current,
+            SortRequest request, List<ThreadComment> next) {
+        synchronized (hotLock) {
+            return rankHottest(hotRankingFor(current, request),
+                    current.getThreads(), next);
+        }
+    }
+
+    /**
+     * Fills the passed list with the passed threads, the first RANK_BLOCK in
+     * hot order from the HotRanking and the rest after them in their current
+     * order.
+     * 
+     * @return The sort keys of the list.
+     */
+    private static double[] rankHottest(HotRanking ranking,
+            List<ThreadComment> threads, List<ThreadComment> next) {
+        List<ThreadComment> front = ranking.top(RANK_BLOCK);
+        Set<ThreadComment> inFront = new HashSet<ThreadComment>(front);
+        next.addAll(front);
+        for (ThreadComment thread : threads) {
+            if (!inFront.contains(thread)) {
+                next.add(thread);
+            }
+        }
+        double[] keys = new double[next.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = -ranking.getScore(next.get(i).getId());
         }
-        threads.add(thread);
+        return keys;
     }
-    
+
+    /**
+     * Returns the HotRanking of a snapshot's threads measured from the
+     * request's origin, building it again if the threads or the origin have
+     * changed since it was built. Must be called holding hotLock.
+     */
+    private static HotRanking hotRankingFor(ThreadListSnapshot current,
+            SortRequest request) {
+        double latitude = request.getOriginLatitude();
+        double longitude = request.getOriginLongitude();
+        if (hotRanking == null
+                || hotRankingVersion != current.getContentVersion()
+                || !hotRanking.hasOrigin(latitude, longitude)) {
+            hotRanking = new HotRanking(latitude, longitude,
+                    current.getThreads());
+            hotRankingVersion = current.getContentVersion();
+        }
+        return hotRanking;
+    }
+
+    /**
+     * Returns whether a sort type orders threads by their hot score.
+     */
+    private static boolean isScoreSort(int sortType) {
+        return sortType == SortUtil.SORT_USER_SCORE_HIGHEST
+                || sortType == SortUtil.SORT_USER_SCORE_LOWEST;
+    }
+
+    /**
+     * Returns how many threads rankThreads leaves in sorted order.
+     */
+    private static int initialRankedCount(SortRequest request,
+            List<ThreadComment> threads) {
+        if (SortUtil.isPartialRankSort(request.getKeyType())) {
+            return Math.min(RANK_BLOCK, threads.size());
+        }
+        return threads.size();
+    }
+
+    /**
+     * Computes the ownership flags of the bodyComments of threads entering
+     * the list, so the list's views only read them. Done once before a
+     * snapshot is published, outside the retry loop, since snapshots are
+     * built without side effects.
+     */
+    private static void computeOwnership(List<ThreadComment> threads) {
+        for (ThreadComment thread : threads) {
+            thread.getBodyComment().computeOwnership();
+        }
+    }
+
     /**
      * Clears the ThreadList of all ThreadComment objects.
      */
     public static void clearThreads() {
-        threads.clear();
+        setThreads(new ArrayList<ThreadComment>());
+    }
+
+    /**
+     * Attempts to publish a new snapshot built from the passed list. Fails if
+     * another thread published a snapshot since the expected one was read.
+     * 
+     * @param expected
+     *            The snapshot the new list was built from.
+     * @param threads
+     *            The contents of the new snapshot.
+     * @return True if the new snapshot was published.
+     */
+    private static boolean publish(ThreadListSnapshot expected,
+            List<ThreadComment> threads) {
+        return publish(expected, threads, null, null, 0);
+    }
+
+    /**
+     * Attempts to publish a new sorted snapshot built from the passed list.
+     * Fails if another thread published a snapshot since the expected one was
+     * read.
+     * 
+     * @param expected
+     *            The snapshot the new list was built from.
+     * @param threads
+     *            The contents of the new snapshot, in sorted order.
+     * @param request
+     *            The SortRequest the list was sorted with.
+     * @param keys
+     *            The sort keys of the list, or null if it is unsorted.
+     * @param rankedCount
+     *            The number of threads at the front of the list in sorted
+     *            order.
+     * @return True if the new snapshot was published.
+     */
+    private static boolean publish(ThreadListSnapshot expected,
+            List<ThreadComment> threads, SortRequest request, double[] keys,
+            int rankedCount) {
+        long version = expected.getVersion() + 1;
+        return snapshot.compareAndSet(expected, new ThreadListSnapshot(
+                version, version, threads, request, keys, rankedCount));
     }
 
     /* Getters and setters below */
-    
-    public static ArrayList<ThreadComment> getThreads() {
-        if (threads == null) {
-            threads = new ArrayList<ThreadComment>();
-        }
-        return threads;
+
+    public static ThreadListSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public static List<ThreadComment> getThreads() {
+        return snapshot.get().getThreads();
+    }
+
+    public static void setThreads(List<ThreadComment> listOfThreads) {
+        computeOwnership(listOfThreads);
+        ThreadListSnapshot current;
+        do {
+            current = snapshot.get();
+        } while (!publish(current, listOfThreads));
     }
 
-    public static void setThreads(ArrayList<ThreadComment> listOfThreads) {
-        threads = listOfThreads;
+    /**
+     * Sorts the passed list by the passed sort type and publishes it as the
+     * new snapshot, keeping its sort keys for later insertions. As with
+     * sortThreads, score and location sorts rank only the first RANK_BLOCK
+     * threads, and the highest score sort is ranked through a HotRanking
+     * that is kept for later sorts, insertions and activity.
+     * 
+     * @param listOfThreads
+     *            The new contents of the ThreadList. The list is sorted in
+     *            place.
+     * @param sortType
+     *            The SortUtil sort type to sort by.
+     */
+    public static void setThreads(List<ThreadComment> listOfThreads,
+            int sortType) {
+        SortRequest request = SortRequest.forThreads(sortType);
+        HotRanking ranking = null;
+        double[] keys;
+        if (request.getKeyType() == SortUtil.SORT_USER_SCORE_HIGHEST) {
+            ranking = new HotRanking(request.getOriginLatitude(),
+                    request.getOriginLongitude(), listOfThreads);
+            ArrayList<ThreadComment> hottest = new ArrayList<ThreadComment>(
+                    listOfThreads.size());
+            keys = rankHottest(ranking, listOfThreads, hottest);
+            listOfThreads.clear();
+            listOfThreads.addAll(hottest);
+        } else {
+            keys = rankThreads(request, listOfThreads);
+        }
+        int ranked = initialRankedCount(request, listOfThreads);
+        computeOwnership(listOfThreads);
+        ThreadListSnapshot current;
+        ThreadListSnapshot sorted;
+        do {
+            current = snapshot.get();
+            long version = current.getVersion() + 1;
+            sorted = new ThreadListSnapshot(version, version, listOfThreads,
+                    request, keys, ranked);
+        } while (!snapshot.compareAndSet(current, sorted));
+        if (ranking != null) {
+            synchronized (hotLock) {
+                hotRanking = ranking;
+                hotRankingVersion = sorted.getContentVersion();
+            }
+        }
+        if (keys != null) {
+            sortCache.put(sorted.getContentVersion() + "/"
+                    + request.getCacheKey(), sorted);
+        }
     }
 }
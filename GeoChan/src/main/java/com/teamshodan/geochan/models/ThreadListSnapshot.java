@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.helpers.SpatialIndex;
+
+/**
+ * An immutable, versioned view of the ThreadList. A new snapshot is published
+ * by the ThreadList every time its contents or order change, so a snapshot
+ * can be safely iterated and bound to an adapter from any thread while
+ * background work builds the next one. Each snapshot also carries an index of
+ * its ThreadComments by id, so a thread can be found without depending on its
+ * position in the list, and a SpatialIndex of their locations that is built
+ * the first time the snapshot is queried by location. A snapshot produced by
+ * sorting remembers its SortRequest and the sort key of every thread, so a
+ * new thread can be keyed the same way and inserted in place by binary search.
+ * Score and location sorts may rank only the front of the list, in which case
+ * the snapshot records how many threads at the front are in sorted order.
+ * Besides its version, every snapshot has a content version that only changes
+ * when threads are added, removed or replaced, so that differently sorted
+ * snapshots of the same threads can be recognized.
+ */
+public class ThreadListSnapshot {
+    public static final int UNSORTED = -1;
+
+    private final long version;
+    private final long contentVersion;
+    private final List<ThreadComment> threads;
+    private final Map<String, ThreadComment> threadsById;
+    private final SortRequest sortRequest;
+    private final double[] sortKeys;
+    private final int rankedCount;
+    private SpatialIndex<ThreadComment> spatialIndex;
+
+    /**
+     * Constructs a snapshot from a copy of the passed list.
+     *
+     * @param version
+     *            The version number of the snapshot.
+     * @param threads
+     *            The ThreadComments in the snapshot, in display order.
+     */
+    public ThreadListSnapshot(long version, List<ThreadComment> threads) {
+        this(version, version, threads, null, null, 0);
+    }
+
+    /**
+     * Constructs a sorted snapshot from a copy of the passed list.
+     *
+     * @param version
+     *            The version number of the snapshot.
+     * @param contentVersion
+     *            The version number of the snapshot's contents, the version of
+     *            the snapshot that last added, removed or replaced threads.
+     * @param threads
+     *            The ThreadComments in the snapshot, in sorted order.
+     * @param sortRequest
+     *            The SortRequest the threads were sorted with, or null if they
+     *            are unsorted.
+     * @param sortKeys
+     *            The ascending sort key of each thread, in list order, or null
+     *            if the threads are unsorted. The snapshot takes ownership of
+     *            the array.
+     * @param rankedCount
+     *            The number of threads at the front of the list that are in
+     *            sorted order. The rest follow in no particular order.
+     */
+    public ThreadListSnapshot(long version, long contentVersion,
+            List<ThreadComment> threads, SortRequest sortRequest,
+            double[] sortKeys, int rankedCount) {
+        this.version = version;
+        this.contentVersion = contentVersion;
+        this.sortRequest = sortKeys == null ? null : sortRequest;
+        this.sortKeys = sortKeys;
+        this.rankedCount = sortKeys == null ? 0 : rankedCount;
+        this.threads = Collections
+                .unmodifiableList(new ArrayList<ThreadComment>(threads));
+        this.threadsById = new HashMap<String, ThreadComment>(
+                threads.size() * 2);
+        for (ThreadComment thread : threads) {
+            threadsById.put(thread.getId(), thread);
+        }
+    }
+
+    /**
+     * Finds a ThreadComment in the snapshot by its id.
+     *
+     * @param id
+     *            The id of the ThreadComment.
+     * @return The ThreadComment, or null if it is not in the snapshot.
+     */
+    public ThreadComment findThreadById(String id) {
+        return threadsById.get(id);
+    }
+
+    /**
+     * Finds the position a thread with the passed sort key belongs at. Equal
+     * keys keep their order of arrival, so the position is after any threads
+     * with the same key. A thread that belongs after the ranked front of a
+     * partially ranked list goes at the end, with the other unranked threads.
+     *
+     * @param key
+     *            The sort key of the thread to insert.
+     * @return The position to insert at.
+     */
+    public int findInsertPosition(double key) {
+        if (sortKeys == null) {
+            return threads.size();
+        }
+        return findInsertPosition(sortKeys, rankedCount, key);
+    }
+
+    /**
+     * Finds the position a key belongs at in an array of sort keys whose
+     * first rankedCount keys are in sorted order, as findInsertPosition does
+     * for a snapshot's own keys.
+     *
+     * @param keys
+     *            The sort keys.
+     * @param rankedCount
+     *            The number of keys at the front of the array in sorted order.
+     * @param key
+     *            The key to insert.
+     * @return The position to insert at.
+     */
+    public static int findInsertPosition(double[] keys, int rankedCount,
+            double key) {
+        int low = 0;
+        int high = rankedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == rankedCount ? keys.length : low;
+    }
+
+    /**
+     * Returns a copy of the snapshot's sort keys with a key inserted at the
+     * passed position, to be used for building the next snapshot.
+     *
+     * @param position
+     *            The position of the new key.
+     * @param key
+     *            The new key.
+     * @return The new array of sort keys.
+     */
+    public double[] copyKeysWith(int position, double key) {
+        double[] keys = new double[sortKeys.length + 1];
+        System.arraycopy(sortKeys, 0, keys, 0, position);
+        keys[position] = key;
+        System.arraycopy(sortKeys, position, keys, position + 1,
+                sortKeys.length - position);
+        return keys;
+    }
+
+    /**
+     * Returns a copy of the snapshot's sort keys with the key at the passed
+     * position removed.
+     *
+     * @param position
+     *            The position of the key to remove.
+     * @return The new array of sort keys.
+     */
+    public double[] copyKeysWithout(int position) {
+        double[] keys = new double[sortKeys.length - 1];
+        System.arraycopy(sortKeys, 0, keys, 0, position);
+        System.arraycopy(sortKeys, position + 1, keys, position,
+                keys.length - position);
+        return keys;
+    }
+
+    /**
+     * Returns a copy of the snapshot's sort keys, or null if it is unsorted.
+     *
+     * @return The copied sort keys.
+     */
+    public double[] copyKeys() {
+        return sortKeys == null ? null : sortKeys.clone();
+    }
+
+    /**
+     * Returns the SpatialIndex over the snapshot's threads, building it on
+     * the first call.
+     *
+     * @return The SpatialIndex of the snapshot.
+     */
+    public synchronized SpatialIndex<ThreadComment> getSpatialIndex() {
+        if (spatialIndex == null) {
+            spatialIndex = SpatialIndex.ofThreads(threads);
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Returns a mutable copy of the snapshot's threads, to be used for
+     * building the next snapshot.
+     *
+     * @return A new ArrayList containing the snapshot's threads.
+     */
+    public ArrayList<ThreadComment> copyThreads() {
+        return new ArrayList<ThreadComment>(threads);
+    }
+
+    /* Getters below */
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getContentVersion() {
+        return contentVersion;
+    }
+
+    double[] getSortKeys() {
+        return sortKeys;
+    }
+
+    public List<ThreadComment> getThreads() {
+        return threads;
+    }
+
+    public SortRequest getSortRequest() {
+        return sortRequest;
+    }
+
+    public int getRankedCount() {
+        return rankedCount;
+    }
+
+    public boolean isFullyRanked() {
+        return rankedCount == threads.size();
+    }
+
+    public int getSortType() {
+        return sortRequest == null ? UNSORTED : sortRequest.getSortType();
+    }
+
+    public int size() {
+        return threads.size();
+    }
+}
@@ -26,7 +26,6 @@ import com.google.gson.JsonObject;
 import com.teamshodan.geochan.helpers.ElasticSearchClient;
 import com.teamshodan.geochan.helpers.GsonHelper;
 import com.teamshodan.geochan.models.CommentList;
-import com.teamshodan.geochan.models.ThreadList;
 import com.teamshodan.geochan.tasks.GetCommentsTask;
 import io.searchbox.client.JestResult;
 import io.searchbox.core.Get;
@@ -62,7 +61,7 @@ public class GetCommentListRunnable implements Runnable {
 		task.handleGetCommentListState(STATE_GET_LIST_RUNNING);
 		JestResult result = null;
 		
-		String id = ThreadList.getThreads().get(task.getThreadIndex()).getId();
+		String id = task.getThreadId();
 		
 		try {
 			if (Thread.interrupted()) {
@@ -76,6 +75,7 @@ public class GetCommentListRunnable implements Runnable {
 				throw new InterruptedException();
 			}
 			
+			task.addBytesLoaded(result.getJsonString().length());
 			JsonObject object = result.getJsonObject().get("_source")
 					.getAsJsonObject();
 			
@@ -38,6 +38,7 @@ import com.teamshodan.geochan.helpers.GsonHelper;
 import com.teamshodan.geochan.managers.CacheManager;
 import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.CommentList;
+import com.teamshodan.geochan.models.CommentLoadPlan;
 import com.teamshodan.geochan.models.ElasticSearchDocs;
 import com.teamshodan.geochan.models.ElasticSearchResponse;
 import com.teamshodan.geochan.models.ThreadComment;
@@ -63,11 +64,13 @@ public class GetCommentsRunnable implements Runnable {
 	}
 
 	/**
-	 * Forms a query and sends a multi-Get request to ES, then processes the
-	 * retrieved data into a CommentList object and saves it into an array.
-	 * Then, puts the comment object in the right place in the corresponding
-	 * commentList to be later reconstructed into a correct hierarchy of
-	 * comments.
+	 * Forms a query and sends a multi-Get request to ES for the part of the
+	 * comment tree a CommentLoadPlan picks, then links the retrieved comments
+	 * into a hierarchy with stubs for the replies left out. When opening a
+	 * thread the hierarchy is put on a copy of the thread, which replaces it
+	 * in the ThreadList and is kept on the task for the fragment to show;
+	 * when expanding a stub it is kept on the task for the fragment to
+	 * attach. Nothing the UI thread can see is modified here.
 	 */
 	@Override
 	public void run() {
@@ -80,9 +83,17 @@ public class GetCommentsRunnable implements Runnable {
 				throw new InterruptedException();
 			}
 			task.handleGetCommentsState(STATE_GET_COMMENTS_RUNNING);
+			Comment stub = task.getStub();
 			CommentList commentList = task.getCommentListCache();
+			CommentLoadPlan plan;
 			ArrayList<String> idList = new ArrayList<String>();
-			commentList.getIdsFromList(commentList, idList);
+			if (stub == null) {
+				plan = new CommentLoadPlan(commentList.getChildren());
+				idList.add(commentList.getId());
+			} else {
+				plan = new CommentLoadPlan(stub.getHiddenReplies());
+			}
+			idList.addAll(plan.getIds());
 			if (Thread.interrupted()) {
 				throw new InterruptedException();
 			}
@@ -115,6 +126,7 @@ public class GetCommentsRunnable implements Runnable {
 				response.append(inputLine);
 			}
 			in.close();
+			task.addBytesLoaded(response.length());
 
 			if (Thread.interrupted()) {
 				throw new InterruptedException();
@@ -134,18 +146,23 @@ public class GetCommentsRunnable implements Runnable {
 				list.add(object);
 			}
 
-			for (Comment comment : list) {
-				commentList.findCommentListById(commentList, comment.getId())
-						.setComment(comment);
+			plan.setComments(list);
+			if (stub != null) {
+				task.setLoadedReplies(plan.build());
+				return;
 			}
 
-			ThreadComment threadComment = ThreadList.getThreads().get(
-					task.getThreadIndex());
-			Comment bodyComment = threadComment.getBodyComment();
-			threadComment.setBodyComment(commentList.reconsructFromCommentList(
-					commentList, bodyComment));
-			CacheManager.getInstance()
-					.serializeThreadCommentById(threadComment);
+			ThreadComment threadComment = task.getThreadComment();
+			if (threadComment == null) {
+				// The thread left the ThreadList while it was being prefetched
+				return;
+			}
+			// The UI thread may be reading the published thread, so the
+			// replies go on a copy that is published in its place
+			ThreadComment loaded = threadComment.withReplies(plan.build());
+			CacheManager.getInstance().serializeThreadCommentById(loaded);
+			ThreadList.replaceThread(loaded);
+			task.setLoadedThread(loaded);
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import com.teamshodan.geochan.helpers.ElasticSearchClient;
 import com.teamshodan.geochan.helpers.ElasticSearchQueries;
 import com.teamshodan.geochan.helpers.GsonHelper;
+import com.teamshodan.geochan.managers.PreferencesManager;
 import com.teamshodan.geochan.models.ElasticSearchResponse;
 import com.teamshodan.geochan.models.ElasticSearchSearchResponse;
 import com.teamshodan.geochan.models.ThreadComment;
@@ -97,7 +98,9 @@ public class GetThreadCommentsRunnable implements Runnable {
 			if (Thread.interrupted()) {
 				throw new InterruptedException();
 			}
-			ThreadList.setThreads(list);
+			// Sort here, off the UI thread, before publishing the new snapshot
+			ThreadList.setThreads(list, PreferencesManager.getInstance()
+					.getThreadSort());
 			task.handleGetThreadCommentsState(STATE_GET_THREADS_COMPLETE);
 		} catch (Exception e) {
 			//
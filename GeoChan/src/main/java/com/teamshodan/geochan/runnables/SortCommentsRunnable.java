@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.runnables;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.helpers.SortUtil;
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.tasks.SortCommentsTask;
+
+/**
+ * Runnable for computing the sorted order of part of a comment tree in a
+ * separate thread of execution. Part of the SortCommentsTask. The runnable
+ * reads the task's copies of the tree's levels rather than the tree, which
+ * the UI thread may change meanwhile. It walks its subtrees with an explicit
+ * stack; whenever the stack holds more pending subtrees than
+ * SPLIT_THRESHOLD, the older half is handed to a new runnable so that large
+ * trees spread across the sort pool.
+ */
+public class SortCommentsRunnable implements Runnable {
+
+	// Pending subtrees a runnable keeps before splitting off half of them
+	private static final int SPLIT_THRESHOLD = 32;
+
+	private SortCommentsTask task;
+	private ArrayList<Comment> stack;
+
+	public SortCommentsRunnable(SortCommentsTask task, List<Comment> parents) {
+		this.task = task;
+		this.stack = new ArrayList<Comment>(parents);
+	}
+
+	/**
+	 * Computes the order of the children of every Comment in the runnable's
+	 * subtrees and passes them to the task.
+	 */
+	@Override
+	public void run() {
+		task.setCurrentThread(Thread.currentThread());
+		android.os.Process
+				.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+		SortRequest request = task.getSortRequest();
+		ArrayList<Comment> parents = new ArrayList<Comment>();
+		ArrayList<int[]> orders = new ArrayList<int[]>();
+		try {
+			while (!stack.isEmpty() && !task.isCancelled()) {
+				Comment parent = stack.remove(stack.size() - 1);
+				List<Comment> children = task.getLevel(parent);
+				if (children.size() > 1) {
+					int[] order = SortUtil.commentOrder(request, children);
+					if (order == null) {
+						break;
+					}
+					parents.add(parent);
+					orders.add(order);
+				}
+				for (Comment child : children) {
+					if (!task.getLevel(child).isEmpty()) {
+						stack.add(child);
+					}
+				}
+				if (stack.size() > SPLIT_THRESHOLD) {
+					List<Comment> split = stack.subList(0, stack.size() / 2);
+					task.fork(new ArrayList<Comment>(split));
+					split.clear();
+				}
+			}
+		} finally {
+			task.finishPart(parents, orders);
+			Thread.interrupted();
+		}
+	}
+}
@@ -22,6 +22,8 @@ package com.teamshodan.geochan.runnables;
 
 import com.google.gson.Gson;
 
+import java.util.ArrayList;
+
 import com.teamshodan.geochan.helpers.ElasticSearchClient;
 import com.teamshodan.geochan.helpers.GsonHelper;
 import com.teamshodan.geochan.models.Comment;
@@ -103,12 +105,34 @@ public class UpdateRunnable implements Runnable {
 		}
 	}
 
+	/**
+	 * Builds the tree of CommentLists matching the replies below the passed
+	 * CommentList's Comment. Replies that were never loaded are taken from
+	 * the CommentLists their stubs carry, so they are not lost from the
+	 * thread. The tree is walked with an explicit stack rather than
+	 * recursion, so a deep reply chain cannot overflow the thread's stack.
+	 * 
+	 * @param list
+	 *            the CommentList of the top Comment
+	 * @return the passed CommentList with its children added
+	 */
 	public CommentList makeCommentList(CommentList list) {
-		if (list.getComment().getChildren().size() == 0) {
-			return list;
-		} else {
-			for (Comment c : list.getComment().getChildren()) {
-				list.addCommentList(makeCommentList(new CommentList(c)));
+		ArrayList<CommentList> stack = new ArrayList<CommentList>();
+		stack.add(list);
+		while (!stack.isEmpty()) {
+			CommentList node = stack.remove(stack.size() - 1);
+			for (Comment c : node.getComment().getChildren()) {
+				if (c.isStub()) {
+					for (CommentList hidden : c.getHiddenReplies()) {
+						node.addCommentList(hidden);
+					}
+					continue;
+				}
+				CommentList child = new CommentList(c);
+				node.addCommentList(child);
+				if (!c.getChildren().isEmpty()) {
+					stack.add(child);
+				}
 			}
 		}
 		return list;
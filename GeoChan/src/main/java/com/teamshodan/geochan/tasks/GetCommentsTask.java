@@ -20,12 +20,17 @@
 
 package com.teamshodan.geochan.tasks;
 
+import java.util.ArrayList;
+
 import com.teamshodan.geochan.fragments.ThreadViewFragment;
 import com.teamshodan.geochan.interfaces.GetCommentListRunnableInterface;
 import com.teamshodan.geochan.interfaces.GetCommentsRunnableInterface;
 import com.teamshodan.geochan.interfaces.TaskInterface;
 import com.teamshodan.geochan.managers.ThreadManager;
+import com.teamshodan.geochan.models.Comment;
 import com.teamshodan.geochan.models.CommentList;
+import com.teamshodan.geochan.models.ThreadComment;
+import com.teamshodan.geochan.models.ThreadList;
 import com.teamshodan.geochan.runnables.GetCommentListRunnable;
 import com.teamshodan.geochan.runnables.GetCommentsRunnable;
 
@@ -39,8 +44,14 @@ import com.teamshodan.geochan.runnables.GetCommentsRunnable;
  */
 public class GetCommentsTask implements TaskInterface, GetCommentListRunnableInterface, GetCommentsRunnableInterface {
 
-    private int threadIndex;
+    private String threadId;
+    private ThreadComment threadComment;
+    private boolean prefetch;
+    private long bytesLoaded;
     private CommentList cache;
+    private Comment stub;
+    private ArrayList<Comment> loadedReplies;
+    private ThreadComment loadedThread;
     private ThreadViewFragment fragment;
     private Runnable getCommentListRunnable;
     private Runnable getCommentsRunnable;
@@ -57,14 +68,63 @@ public class GetCommentsTask implements TaskInterface, GetCommentListRunnableInt
 
     /**
      * Initializes the instance of the task with the information needed to run it.
+     * The ThreadComment is resolved by id, so a refresh or re-sort of the
+     * ThreadList while the task is running cannot change which thread the
+     * comments are attached to. Threads that are not in the ThreadList (e.g.
+     * favourites) fall back to the fragment's own ThreadComment.
      * @param manager the ThreadManager
      * @param fragment the ThreadViewFragment
-     * @param threadIndex the index of the ThreadComment
+     * @param threadId the id of the ThreadComment
      */
-    public void initCommentsTask(ThreadManager manager, ThreadViewFragment fragment, int threadIndex) {
+    public void initCommentsTask(ThreadManager manager, ThreadViewFragment fragment, String threadId) {
         this.manager = manager;
         this.fragment = fragment;
-        this.threadIndex = threadIndex;
+        this.threadId = threadId;
+        this.threadComment = ThreadList.findThreadById(threadId);
+        if (threadComment == null) {
+            threadComment = fragment.getThread();
+        }
+        this.prefetch = false;
+        this.bytesLoaded = 0;
+    }
+
+    /**
+     * Initializes the instance of the task to speculatively fetch the comments
+     * of a ThreadComment in the ThreadList, without a fragment to report to.
+     * @param manager the ThreadManager
+     * @param threadId the id of the ThreadComment
+     */
+    public void initPrefetchTask(ThreadManager manager, String threadId) {
+        this.manager = manager;
+        this.fragment = null;
+        this.threadId = threadId;
+        this.threadComment = ThreadList.findThreadById(threadId);
+        this.prefetch = true;
+        this.bytesLoaded = 0;
+    }
+
+    /**
+     * Initializes the instance of the task to fetch the replies a stub stands
+     * in for. Only the GetCommentsRunnable is run, on the CommentLists the
+     * stub carries, and the replies are attached to the tree by the fragment
+     * on the UI thread.
+     * @param manager the ThreadManager
+     * @param fragment the ThreadViewFragment showing the stub
+     * @param threadId the id of the ThreadComment
+     * @param stub the stub to expand
+     */
+    public void initRepliesTask(ThreadManager manager, ThreadViewFragment fragment,
+            String threadId, Comment stub) {
+        initCommentsTask(manager, fragment, threadId);
+        this.stub = stub;
+    }
+
+    /**
+     * Adds to the number of bytes downloaded by the task's runnables.
+     * @param bytes the number of bytes downloaded
+     */
+    public synchronized void addBytesLoaded(long bytes) {
+        bytesLoaded += bytes;
     }
     
     /**
@@ -140,8 +200,14 @@ public class GetCommentsTask implements TaskInterface, GetCommentListRunnableInt
      */
     @Override
     public void recycle() {
-        this.threadIndex = -1;
+        this.threadId = null;
+        this.threadComment = null;
+        this.prefetch = false;
+        this.bytesLoaded = 0;
         this.cache = null;
+        this.stub = null;
+        this.loadedReplies = null;
+        this.loadedThread = null;
         this.manager = null;
         this.fragment = null;
     }
@@ -178,8 +244,40 @@ public class GetCommentsTask implements TaskInterface, GetCommentListRunnableInt
         return getCommentsRunnable;
     }
     
-    public int getThreadIndex() {
-        return threadIndex;
+    public String getThreadId() {
+        return threadId;
+    }
+
+    public ThreadComment getThreadComment() {
+        return threadComment;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public Comment getStub() {
+        return stub;
+    }
+
+    public ArrayList<Comment> getLoadedReplies() {
+        return loadedReplies;
+    }
+
+    public void setLoadedReplies(ArrayList<Comment> loadedReplies) {
+        this.loadedReplies = loadedReplies;
+    }
+
+    public ThreadComment getLoadedThread() {
+        return loadedThread;
+    }
+
+    public void setLoadedThread(ThreadComment loadedThread) {
+        this.loadedThread = loadedThread;
+    }
+
+    public synchronized long getBytesLoaded() {
+        return bytesLoaded;
     }
 
     public ThreadViewFragment getFragment() {
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2014 Artem Chikin
+ * Copyright 2014 Artem Herasymchuk
+ * Copyright 2014 Tom Krywitsky
+ * Copyright 2014 Henry Pabst
+ * Copyright 2014 Bradley Simons
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.teamshodan.geochan.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.teamshodan.geochan.fragments.ThreadViewFragment;
+import com.teamshodan.geochan.helpers.SortRequest;
+import com.teamshodan.geochan.helpers.SortUtil;
+import com.teamshodan.geochan.interfaces.TaskInterface;
+import com.teamshodan.geochan.managers.ThreadManager;
+import com.teamshodan.geochan.models.Comment;
+import com.teamshodan.geochan.models.FlatCommentList;
+import com.teamshodan.geochan.models.ThreadComment;
+import com.teamshodan.geochan.runnables.SortCommentsRunnable;
+
+/**
+ * Responsible for sorting the comment tree of a ThreadComment off the UI
+ * thread. When the sort starts, the children of every Comment are copied on
+ * the UI thread, which keeps changing the tree while the sort runs. The
+ * copies are split between several SortCommentsRunnables, which compute the
+ * new order of every level in parallel. Once they have all finished, the
+ * orders are applied to the tree on the UI thread. The last runnable to finish also flattens the tree
+ * in its new order for the ThreadViewAdapter, so the UI thread does not walk
+ * it. A task can instead be completed from the sorted levels of an earlier
+ * sort of the same tree, which are then applied as they are.
+ */
+public class SortCommentsTask implements TaskInterface {
+	private ThreadManager manager;
+	private ThreadViewFragment fragment;
+	private ThreadComment threadComment;
+	private SortRequest sortRequest;
+	private volatile boolean cancelled = false;
+	private final AtomicInteger runningParts = new AtomicInteger();
+	private final List<Comment> sortedParents = new ArrayList<Comment>();
+	private final List<int[]> orders = new ArrayList<int[]>();
+	// The children of every Comment of the tree when the sort started
+	private Map<Comment, List<Comment>> levels = null;
+	private SortedLevels cachedLevels = null;
+	private volatile FlatCommentList flattened = null;
+	private Thread thread;
+
+	/**
+	 * Initializes the instance of the task with the information needed to run
+	 * it.
+	 *
+	 * @param manager
+	 *            the ThreadManager
+	 * @param fragment
+	 *            the ThreadViewFragment to show the sorted tree in
+	 * @param threadComment
+	 *            the ThreadComment whose comments are sorted
+	 * @param sortRequest
+	 *            the SortRequest describing the sort
+	 */
+	public void initSortCommentsTask(ThreadManager manager,
+			ThreadViewFragment fragment, ThreadComment threadComment,
+			SortRequest sortRequest) {
+		this.manager = manager;
+		this.fragment = fragment;
+		this.threadComment = threadComment;
+		this.sortRequest = sortRequest;
+	}
+
+	/**
+	 * Completes the task with the result of an earlier sort of the same tree
+	 * instead of running any runnables.
+	 *
+	 * @param levels
+	 *            the sorted levels of the earlier sort
+	 */
+	public void initFromCache(SortedLevels levels) {
+		this.cachedLevels = levels;
+	}
+
+	/**
+	 * Copies the children of every Comment of the tree, which the runnables
+	 * and the flattening read instead of the tree. Must be called on the UI
+	 * thread before the first runnable is started.
+	 */
+	public void copyLevels() {
+		levels = new IdentityHashMap<Comment, List<Comment>>();
+		ArrayList<Comment> stack = new ArrayList<Comment>();
+		stack.add(threadComment.getBodyComment());
+		while (!stack.isEmpty()) {
+			Comment comment = stack.remove(stack.size() - 1);
+			List<Comment> children = comment.getChildren();
+			if (children.isEmpty()) {
+				levels.put(comment, Collections.<Comment> emptyList());
+			} else {
+				levels.put(comment, new ArrayList<Comment>(children));
+				stack.addAll(children);
+			}
+		}
+	}
+
+	/**
+	 * Returns the children a Comment had when the sort started.
+	 *
+	 * @param parent
+	 *            the Comment
+	 * @return the copy of its children, empty if it had none
+	 */
+	public List<Comment> getLevel(Comment parent) {
+		List<Comment> level = levels.get(parent);
+		if (level == null) {
+			return Collections.emptyList();
+		}
+		return level;
+	}
+
+	/**
+	 * Starts a runnable on a part of the tree. Called once with the body
+	 * comment, and again by runnables that split off part of their work.
+	 *
+	 * @param parents
+	 *            the Comments whose subtrees the runnable sorts
+	 */
+	public void fork(List<Comment> parents) {
+		runningParts.incrementAndGet();
+		manager.executeSortComments(new SortCommentsRunnable(this, parents));
+	}
+
+	/**
+	 * Collects the orders computed by a runnable. When the last runnable
+	 * finishes, it flattens the tree as it will be ordered and the task
+	 * reports that it is complete.
+	 *
+	 * @param parents
+	 *            the Comments whose children were ordered
+	 * @param partOrders
+	 *            the order of the children of each Comment
+	 */
+	public void finishPart(List<Comment> parents, List<int[]> partOrders) {
+		synchronized (orders) {
+			sortedParents.addAll(parents);
+			orders.addAll(partOrders);
+		}
+		if (runningParts.decrementAndGet() == 0) {
+			if (!cancelled) {
+				synchronized (orders) {
+					flattened = FlatCommentList.of(
+							threadComment.getBodyComment(), levels,
+							FlatCommentList.mapOrders(sortedParents, orders));
+				}
+			}
+			handleState(ThreadManager.SORT_COMMENTS_COMPLETE);
+		}
+	}
+
+	/**
+	 * Rearranges the comment tree into the computed orders. Must be called on
+	 * the UI thread. A level whose children are no longer exactly the ones
+	 * copied when the sort started is sorted again directly, and the
+	 * flattened tree is then dropped, as it no longer matches.
+	 */
+	public void applyOrders() {
+		if (cachedLevels != null) {
+			flattened = cachedLevels.apply(sortRequest) ? cachedLevels
+					.getFlattened() : null;
+			return;
+		}
+		Set<Comment> changed = Collections
+				.newSetFromMap(new IdentityHashMap<Comment, Boolean>());
+		for (Map.Entry<Comment, List<Comment>> level : levels.entrySet()) {
+			// Comments compare by identity, so this checks the exact contents
+			if (!level.getKey().getChildren().equals(level.getValue())) {
+				changed.add(level.getKey());
+			}
+		}
+		synchronized (orders) {
+			for (int i = 0; i < orders.size(); ++i) {
+				if (!changed.contains(sortedParents.get(i))) {
+					SortUtil.permute(sortedParents.get(i).getChildren(),
+							orders.get(i));
+				}
+			}
+		}
+		for (Comment parent : changed) {
+			List<Comment> children = parent.getChildren();
+			SortUtil.permute(children,
+					SortUtil.commentOrder(sortRequest, children));
+		}
+		if (!changed.isEmpty()) {
+			flattened = null;
+		}
+	}
+
+	/**
+	 * Records the order of every level the task sorted, so that the same sort
+	 * can later be applied again without computing it. Must be called on the
+	 * UI thread, after applyOrders.
+	 *
+	 * @return the sorted levels of the tree
+	 */
+	public SortedLevels captureSortedLevels() {
+		if (cachedLevels != null) {
+			return cachedLevels;
+		}
+		synchronized (orders) {
+			return new SortedLevels(threadComment.getBodyComment(),
+					sortedParents, flattened);
+		}
+	}
+
+	/**
+	 * Stops the task's runnables at their next check and keeps its result
+	 * from being applied.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void handleState(int state) {
+		manager.handleSortCommentsState(this, state);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setCurrentThread(Thread thread) {
+		synchronized (manager) {
+			this.thread = thread;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Thread getCurrentThread() {
+		synchronized (manager) {
+			return thread;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recycle() {
+		this.fragment = null;
+		this.threadComment = null;
+		this.cachedLevels = null;
+		this.levels = null;
+		this.flattened = null;
+		synchronized (orders) {
+			sortedParents.clear();
+			orders.clear();
+		}
+	}
+
+	/* Basic getters below */
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isFromCache() {
+		return cachedLevels != null;
+	}
+
+	public ThreadViewFragment getFragment() {
+		return fragment;
+	}
+
+	public ThreadComment getThreadComment() {
+		return threadComment;
+	}
+
+	public SortRequest getSortRequest() {
+		return sortRequest;
+	}
+
+	/**
+	 * Returns the tree flattened in its sorted order, or null if it has to be
+	 * flattened again because the tree changed while the sort ran.
+	 *
+	 * @return the flattened tree
+	 */
+	public FlatCommentList getFlattened() {
+		return flattened;
+	}
+
+	/**
+	 * The children of every sorted Comment of a tree, in sorted order.
+	 */
+	public static class SortedLevels {
+		private final List<Comment> rootChildren;
+		private final List<Comment> parents;
+		private final List<List<Comment>> children;
+		private final FlatCommentList flattened;
+
+		/**
+		 * Records the current order of the children of the passed Comments.
+		 *
+		 * @param root
+		 *            the body comment of the sorted tree
+		 * @param parents
+		 *            the Comments whose children were sorted
+		 * @param flattened
+		 *            the tree flattened in its sorted order, may be null
+		 */
+		SortedLevels(Comment root, List<Comment> parents,
+				FlatCommentList flattened) {
+			this.rootChildren = root.getChildren();
+			this.flattened = flattened;
+			this.parents = new ArrayList<Comment>(parents);
+			this.children = new ArrayList<List<Comment>>(parents.size());
+			for (Comment parent : parents) {
+				children.add(new ArrayList<Comment>(parent.getChildren()));
+			}
+		}
+
+		/**
+		 * Puts the children of every recorded Comment back into their recorded
+		 * order. A level whose children are no longer exactly the recorded
+		 * ones is sorted again directly.
+		 *
+		 * @param request
+		 *            the SortRequest to sort changed levels with
+		 * @return true if no level had changed, so the recorded flattened
+		 *         tree still matches
+		 */
+		boolean apply(SortRequest request) {
+			boolean unchanged = true;
+			for (int i = 0; i < parents.size(); ++i) {
+				List<Comment> current = parents.get(i).getChildren();
+				List<Comment> sorted = children.get(i);
+				if (sameComments(sorted, current)) {
+					current.clear();
+					current.addAll(sorted);
+				} else {
+					SortUtil.permute(current,
+							SortUtil.commentOrder(request, current));
+					unchanged = false;
+				}
+			}
+			return unchanged;
+		}
+
+		FlatCommentList getFlattened() {
+			return flattened;
+		}
+
+		/**
+		 * Returns whether two lists hold the same Comments in any order.
+		 */
+		private static boolean sameComments(List<Comment> a, List<Comment> b) {
+			if (a.size() != b.size()) {
+				return false;
+			}
+			Set<Comment> inA = Collections
+					.newSetFromMap(new IdentityHashMap<Comment, Boolean>());
+			inA.addAll(a);
+			return inA.containsAll(b);
+		}
+
+		/**
+		 * Returns whether the levels were recorded from the passed tree as it
+		 * is now. Reloading a thread's comments gives its body comment a new
+		 * list of children, so levels recorded before the reload no longer
+		 * match.
+		 *
+		 * @param root
+		 *            the body comment of the tree
+		 * @return true if the levels can be applied to the tree
+		 */
+		public boolean matches(Comment root) {
+			return root.getChildren() == rootChildren;
+		}
+	}
+}